@@ -11,7 +11,7 @@ public class Validators {
 
 
     public Boolean getEqualsValidation(DigitalDocument digDoc1, DigitalDocument digDoc2){
-        return digDoc1.equals(digDoc2);
+        return digDoc1.contentEquals(digDoc2);
     }
 
     public Boolean getFileStringValidation(File fileA, File fileB) throws IOException{
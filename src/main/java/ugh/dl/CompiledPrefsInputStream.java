@@ -0,0 +1,109 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / CompiledPrefsInputStream.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*******************************************************************************
+ * <p>
+ * Reads the Prefs of a compiled preferences file. The file is not authenticated, only tied to its ruleset file, so only the classes, which
+ * compiled Prefs consist of, may be deserialised: the classes of this package, strings, boxed primitives, the collections of java.util used by
+ * them, and arrays of these. Any other class, as well as proxy classes, are refused with an InvalidClassException.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see Prefs#loadCompiledPrefs(String)
+ *
+ ******************************************************************************/
+
+final class CompiledPrefsInputStream extends ObjectInputStream {
+
+    private static final String ALLOWED_PACKAGE = "ugh.dl.";
+
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<String>(Arrays.asList("java.lang.String", "java.lang.Boolean",
+            "java.lang.Integer", "java.lang.Long", "java.lang.Number", "java.lang.Enum", "java.util.ArrayList", "java.util.LinkedList",
+            "java.util.HashMap", "java.util.LinkedHashMap", "java.util.Hashtable", "java.util.HashSet", "java.util.LinkedHashSet",
+            "java.util.Arrays$ArrayList", "java.util.Collections$EmptyList", "java.util.Collections$EmptyMap", "java.util.Collections$EmptySet",
+            "java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableMap",
+            "java.util.Collections$UnmodifiableSet"));
+
+    /***************************************************************************
+     * @param in the stream to read from, positioned after the header of the compiled preferences file
+     * @throws IOException
+     **************************************************************************/
+    CompiledPrefsInputStream(InputStream in) throws IOException {
+        super(in);
+    }
+
+    /***************************************************************************
+     * @throws InvalidClassException if the class is not allowed in compiled preferences
+     **************************************************************************/
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        if (!isAllowed(desc.getName())) {
+            throw new InvalidClassException(desc.getName(), "Class not allowed in compiled preferences");
+        }
+        return super.resolveClass(desc);
+    }
+
+    /***************************************************************************
+     * @throws InvalidClassException always, compiled preferences contain no proxies
+     **************************************************************************/
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+        throw new InvalidClassException(Arrays.toString(interfaces), "Proxy classes are not allowed in compiled preferences");
+    }
+
+    /***************************************************************************
+     * @param name binary name of a class, as written to the stream
+     * @return true, if the class may be deserialised
+     **************************************************************************/
+    private static boolean isAllowed(String name) {
+
+        // Arrays are allowed, if their component type is.
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions > 0) {
+            if (name.length() == dimensions + 1) {
+                // An array of a primitive type.
+                return true;
+            }
+            if (name.charAt(dimensions) != 'L' || !name.endsWith(";")) {
+                return false;
+            }
+            name = name.substring(dimensions + 1, name.length() - 1);
+        }
+
+        return (name.startsWith(ALLOWED_PACKAGE) && name.indexOf('.', ALLOWED_PACKAGE.length()) < 0) || ALLOWED_CLASSES.contains(name);
+    }
+
+}
@@ -23,6 +23,7 @@ package ugh.dl;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -76,6 +77,13 @@ public class ContentFile implements ContentFileInterface, Serializable {
 
     private boolean isRepresentative = false;
 
+    // Hash of the content, computed on first use.
+    private transient long contentHash;
+    private transient boolean contentHashValid = false;
+
+    // Set, if the document of this file has been frozen.
+    private transient boolean frozen = false;
+
     /***************************************************************************
      * <p>
      * Constructor.
@@ -90,6 +98,7 @@ public class ContentFile implements ContentFileInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean addMetadata(Metadata inMD) {
+        contentChanged();
         this.allMetadata.add(inMD);
         return true;
     }
@@ -99,6 +108,7 @@ public class ContentFile implements ContentFileInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean removeMetadata(Metadata inMD) {
+        contentChanged();
         this.allMetadata.remove(inMD);
         this.removedMetadata.add(inMD);
         return true;
@@ -108,7 +118,7 @@ public class ContentFile implements ContentFileInterface, Serializable {
      * @return
      **************************************************************************/
     public List<Metadata> getAllMetadata() {
-        return this.allMetadata;
+        return readOnly(this.allMetadata);
     }
 
     /***************************************************************************
@@ -123,6 +133,7 @@ public class ContentFile implements ContentFileInterface, Serializable {
      **************************************************************************/
     @Override
     public void setLocation(String in) {
+        contentChanged();
         this.Location = in;
     }
 
@@ -144,6 +155,7 @@ public class ContentFile implements ContentFileInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean setMimetype(String in) {
+        contentChanged();
         this.MimeType = in;
         return true;
     }
@@ -179,6 +191,7 @@ public class ContentFile implements ContentFileInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean setIdentifier(String in) {
+        contentChanged();
         this.identifier = in;
         return true;
     }
@@ -194,7 +207,7 @@ public class ContentFile implements ContentFileInterface, Serializable {
      * @return
      **************************************************************************/
     public List<DocStruct> getReferencedDocStructs() {
-        return this.referencedDocStructs;
+        return readOnly(this.referencedDocStructs);
     }
 
     /***************************************************************************
@@ -207,6 +220,8 @@ public class ContentFile implements ContentFileInterface, Serializable {
      **************************************************************************/
     protected boolean addDocStructAsReference(DocStruct inStruct) {
 
+        checkNotFrozen();
+
         if (this.referencedDocStructs == null) {
             this.referencedDocStructs = new LinkedList<DocStruct>();
         }
@@ -221,6 +236,8 @@ public class ContentFile implements ContentFileInterface, Serializable {
      **************************************************************************/
     protected boolean removeDocStructAsReference(DocStruct inStruct) {
 
+        checkNotFrozen();
+
         if (this.referencedDocStructs == null) {
             // No references available.
             return false;
@@ -311,10 +328,11 @@ public class ContentFile implements ContentFileInterface, Serializable {
     }
 
     public List<Md> getTechMds() {
-        return techMdList;
+        return readOnly(techMdList);
     }
 
     public void addTechMd(Md techMd) {
+        checkNotFrozen();
         if(techMdList == null) {
             techMdList = new ArrayList<Md>();
         }
@@ -324,6 +342,7 @@ public class ContentFile implements ContentFileInterface, Serializable {
     }
 
     public void setTechMds(List<Md> mds) {
+        checkNotFrozen();
         if(mds != null) {
             this.techMdList = mds;
         }
@@ -334,7 +353,147 @@ public class ContentFile implements ContentFileInterface, Serializable {
     }
 
     public void setRepresentative(boolean isRepresentative) {
+        checkNotFrozen();
         this.isRepresentative = isRepresentative;
     }
 
+    /***************************************************************************
+     * <p>
+     * Returns a hash of the mime type, location, identifier and metadata of this file, as compared by {@link #equals(ContentFile)}. The hash is
+     * computed on first use and kept until the file is changed; changes of the values of its metadata are not noticed.
+     * </p>
+     *
+     * @return the content hash
+     **************************************************************************/
+    public long getContentHash() {
+        if (!this.contentHashValid) {
+            long hash = ContentHash.start(ContentHash.CONTENT_FILE);
+            hash = ContentHash.add(hash, this.MimeType);
+            hash = ContentHash.add(hash, this.Location);
+            hash = ContentHash.add(hash, this.identifier);
+            this.contentHash = ContentHash.add(hash, ContentHash.unordered(this.allMetadata));
+            this.contentHashValid = true;
+        }
+        return this.contentHash;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Drops the content hash of this file and of the DocStructs referencing it.
+     * </p>
+     **************************************************************************/
+    private void contentChanged() {
+        checkNotFrozen();
+        this.contentHashValid = false;
+        if (this.referencedDocStructs != null) {
+            for (DocStruct docStruct : this.referencedDocStructs) {
+                docStruct.invalidateContentHash();
+            }
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Replaces the MIME type, the subtype and the values of the metadata of this file by the equal instances of the pool, or adds them to it.
+     * </p>
+     *
+     * @param pool
+     **************************************************************************/
+    void internValues(StringPool pool) {
+        this.MimeType = pool.intern(this.MimeType);
+        this.SubType = pool.intern(this.SubType);
+        if (this.allMetadata != null) {
+            for (Metadata metadata : this.allMetadata) {
+                metadata.internValues(pool);
+            }
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Makes this file and its metadata read-only. The lists are compacted; they are returned as unmodifiable views and the setters throw an
+     * UnsupportedOperationException afterwards. The content hash is computed in advance.
+     * </p>
+     *
+     * @see DigitalDocument#freeze()
+     **************************************************************************/
+    void freeze() {
+        if (this.frozen) {
+            return;
+        }
+        if (this.allMetadata != null) {
+            this.allMetadata = new ArrayList<Metadata>(this.allMetadata);
+            for (Metadata metadata : this.allMetadata) {
+                metadata.freeze();
+            }
+        }
+        if (this.referencedDocStructs != null) {
+            this.referencedDocStructs = new ArrayList<DocStruct>(this.referencedDocStructs);
+        }
+        if (this.techMdList != null) {
+            this.techMdList = new ArrayList<Md>(this.techMdList);
+        }
+        getContentHash();
+        this.frozen = true;
+    }
+
+    /***************************************************************************
+     * @return true, if this file has been frozen and is read-only
+     **************************************************************************/
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /***************************************************************************
+     * @param list may be null
+     * @return the list, or an unmodifiable view of it, if this file has been frozen
+     **************************************************************************/
+    private <T> List<T> readOnly(List<T> list) {
+        return this.frozen && list != null ? Collections.unmodifiableList(list) : list;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException if this file has been frozen
+     **************************************************************************/
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("ContentFile '" + this.Location
+                    + "' belongs to a frozen DigitalDocument and can not be modified");
+        }
+    }
+
+    /***************************************************************************
+     * @param copier
+     * @return a copy of this instance; the referencing DocStructs are resolved later
+     **************************************************************************/
+    ContentFile deepCopy(DocumentCopier copier) {
+
+        ContentFile copy = new ContentFile();
+        copier.put(this, copy);
+        copy.allMetadata = copier.copyAllMetadata(this.allMetadata);
+        copy.removedMetadata = copier.copyAllMetadata(this.removedMetadata);
+        copy.referencedDocStructs = this.referencedDocStructs;
+        copy.Location = this.Location;
+        copy.MimeType = this.MimeType;
+        copy.SubType = this.SubType;
+        copy.offset = this.offset;
+        copy.offsetType = this.offsetType;
+        copy.identifier = this.identifier;
+        copy.techMdList = this.techMdList == null ? null : new ArrayList<Md>(this.techMdList);
+        copy.isRepresentative = this.isRepresentative;
+
+        return copy;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Resolves the links to the referencing DocStructs of this copy.
+     * </p>
+     *
+     * @param copier
+     **************************************************************************/
+    void resolveCopy(DocumentCopier copier) {
+        this.referencedDocStructs = copier.resolveAll(this.referencedDocStructs);
+    }
+
 }
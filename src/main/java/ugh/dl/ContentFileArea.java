@@ -168,4 +168,17 @@ public class ContentFileArea implements Serializable {
         return true;
     }
 
+    /***************************************************************************
+     * @return a copy of this instance
+     **************************************************************************/
+    ContentFileArea copy() {
+
+        ContentFileArea copy = new ContentFileArea();
+        copy.type = this.type;
+        copy.from = this.from;
+        copy.to = this.to;
+
+        return copy;
+    }
+
 }
@@ -0,0 +1,139 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / ContentHash.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.Collection;
+
+/*******************************************************************************
+ * <p>
+ * Helper functions to build 64 bit content hashes. A hash is started with {@link #start(int)} for a kind of object, and values are added in order
+ * with {@link #add(long, long)}. Metadata, whose order does not matter, are summed up with {@link #unordered(Collection)}.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#getContentHash()
+ *
+ ******************************************************************************/
+
+final class ContentHash {
+
+    static final int METADATA = 1;
+    static final int PERSON = 2;
+    static final int METADATA_GROUP = 3;
+    static final int CONTENT_FILE = 4;
+    static final int DOC_STRUCT = 5;
+    static final int FILE_SET = 6;
+    static final int DIGITAL_DOCUMENT = 7;
+    static final int REFERENCE = 8;
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final long NULL = 0x6A09E667F3BCC909L;
+
+    private ContentHash() {
+    }
+
+    /***************************************************************************
+     * @param kind a number to tell different kinds of objects apart
+     * @return the start value of a hash
+     **************************************************************************/
+    static long start(int kind) {
+        return mix(kind);
+    }
+
+    /***************************************************************************
+     * @param hash
+     * @param value
+     * @return the hash with the value added
+     **************************************************************************/
+    static long add(long hash, long value) {
+        return mix(hash * MULTIPLIER + value);
+    }
+
+    /***************************************************************************
+     * @param hash
+     * @param value may be null
+     * @return the hash with the string added
+     **************************************************************************/
+    static long add(long hash, String value) {
+        return add(hash, of(value));
+    }
+
+    /***************************************************************************
+     * @param hash
+     * @param value
+     * @return the hash with the flag added
+     **************************************************************************/
+    static long add(long hash, boolean value) {
+        return add(hash, value ? 1L : 2L);
+    }
+
+    /***************************************************************************
+     * @param value may be null
+     * @return a 64 bit hash of the string (FNV-1a)
+     **************************************************************************/
+    static long of(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    /***************************************************************************
+     * @param metadata a collection of Metadata, Persons or MetadataGroups; null is treated like an empty collection
+     * @return a hash of the collection, which does not depend on the order of its elements
+     **************************************************************************/
+    static long unordered(Collection<?> metadata) {
+        if (metadata == null) {
+            return add(0L, 0L);
+        }
+        long sum = 0;
+        for (Object element : metadata) {
+            long hash;
+            if (element instanceof Metadata) {
+                hash = ((Metadata) element).getContentHash();
+            } else if (element instanceof MetadataGroup) {
+                hash = ((MetadataGroup) element).getContentHash();
+            } else {
+                hash = NULL;
+            }
+            sum += mix(hash);
+        }
+        return add(sum, metadata.size());
+    }
+
+    /***************************************************************************
+     * @param value
+     * @return the value with its bits mixed (finalizer of SplitMix64)
+     **************************************************************************/
+    private static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
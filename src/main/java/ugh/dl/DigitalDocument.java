@@ -26,24 +26,24 @@ import com.thoughtworks.xstream.mapper.MapperWrapper;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -53,11 +53,14 @@ import org.kitodo.api.ugh.DocStructInterface;
 import org.kitodo.api.ugh.DocStructTypeInterface;
 import org.kitodo.api.ugh.MetadataInterface;
 import org.kitodo.api.ugh.PersonInterface;
+import org.kitodo.api.ugh.ReferenceInterface;
 import org.kitodo.api.ugh.exceptions.ContentFileNotLinkedException;
 import org.kitodo.api.ugh.exceptions.PreferencesException;
 import org.kitodo.api.ugh.exceptions.WriteException;
 import org.w3c.dom.Node;
 
+import ugh.exceptions.BatchValidationException;
+
 /*******************************************************************************
  * <p>
  * A DigitalDocument represents a digital version of a work. This representation contains the following information:
@@ -136,6 +139,34 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
 
     // private List<Node> techMd = new ArrayList<Node>();
 
+    // Index of the logical-physical links, built on first use.
+    private transient PageLinkIndex pageLinkIndex;
+
+    // Lookup indexes by type and metadata value, if enabled; built on first
+    // use and dropped on every change.
+    private transient boolean lookupIndexesEnabled = false;
+    private transient DocStructIndex lookupIndex;
+
+    // Open snapshots, which keep the states of objects before they are
+    // changed; null if there are none.
+    private transient List<WeakReference<DocumentSnapshot>> snapshots;
+
+    // Hash of the references between the DocStructs, computed on first use
+    // and dropped on every change of the references or the trees.
+    private transient long referencesHash;
+    private transient boolean referencesHashValid = false;
+
+    // Set by freeze(); the document is read-only afterwards.
+    private transient boolean frozen = false;
+
+    // Intern pool for the metadata values, if compact storage is enabled.
+    private transient StringPool stringPool;
+
+    // Number of open batches, and the DocStructs changed in them, whose
+    // checks are deferred until the outermost batch is committed.
+    private transient int openBatches = 0;
+    private transient Set<DocStruct> batchDocStructs;
+
     /***************************************************************************
      * <p>
      * Constructor.
@@ -165,6 +196,20 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
         return ds;
     }
 
+    /***************************************************************************
+     * <p>
+     * Creates a builder, which adds many pages with their page numbers and images to the physical DocStruct of this document in one pass. See
+     * {@link PaginationBuilder}.
+     * </p>
+     *
+     * @param prefs the preferences to get the types of the pages and the page numbers from
+     * @return a new PaginationBuilder for this document
+     **************************************************************************/
+    public PaginationBuilder createPagination(Prefs prefs) {
+        checkNotFrozen();
+        return new PaginationBuilder(this, prefs);
+    }
+
     //
     // Setter and Getter.
     //
@@ -175,6 +220,8 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
     @Override
     public void setLogicalDocStruct(DocStructInterface inStruct) {
 
+        checkNotFrozen();
+
         if (this.topLogicalStruct != null) {
             this.topLogicalStruct.setLogical(false);
         }
@@ -182,6 +229,10 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
         this.topLogicalStruct = (DocStruct) inStruct;
         // Set DocStruct and all children to logical.
         ((DocStruct) inStruct).setLogical(true);
+        // The links of the new tree are collected again on next use.
+        this.pageLinkIndex = null;
+        this.lookupIndex = null;
+        this.referencesHashValid = false;
     }
 
     /***************************************************************************
@@ -198,6 +249,8 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
     @Override
     public void setPhysicalDocStruct(DocStructInterface inStruct) {
 
+        checkNotFrozen();
+
         if (this.topPhysicalStruct != null) {
             this.topPhysicalStruct.setPhysical(false);
         }
@@ -205,6 +258,11 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
         this.topPhysicalStruct = (DocStruct) inStruct;
         // Set DocStruct and all children to physical.
         ((DocStruct) inStruct).setPhysical(true);
+        if (this.pageLinkIndex != null) {
+            this.pageLinkIndex.physicalStructureChanged();
+        }
+        this.lookupIndex = null;
+        this.referencesHashValid = false;
     }
 
     /***************************************************************************
@@ -341,6 +399,14 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
      **************************************************************************/
     public List<DocStruct> getAllDocStructsByType(String inTypeName) {
 
+        if (this.lookupIndexesEnabled) {
+            List<DocStruct> indexed = getLookupIndex().getByType(inTypeName);
+            if (indexed.isEmpty()) {
+                return null;
+            }
+            return new LinkedList<DocStruct>(indexed);
+        }
+
         List<DocStruct> physicallist = null;
         List<DocStruct> logicallist = null;
         List<DocStruct> commonlist = new LinkedList<DocStruct>();
@@ -367,32 +433,525 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
     }
 
     /***************************************************************************
-     * @param inStruct
-     * @param inTypeName
-     * @return
+     * <p>
+     * Gets all document structures having a metadata of the given type and value, independent of their location in the structure tree and
+     * indepedent, if they belong to the logical or physical tree.
+     * </p>
+     *
+     * @param inMetadataTypeName name of the MetadataType, e.g. of an identifier
+     * @param inValue value of the metadata
+     * @return List containing DocStruct objects in the order of the trees, the physical tree first, or null, if none are available.
      **************************************************************************/
-    private List<DocStruct> getAllDocStructsByTypePrivate(DocStruct inStruct, String inTypeName) {
-
-        List<DocStruct> selectedChildren = new LinkedList<DocStruct>();
-        List<DocStructInterface> children = inStruct.getAllChildren();
+    public List<DocStruct> getAllDocStructsByMetadataValue(String inMetadataTypeName, String inValue) {
 
-        if (children == null) {
+        DocStructIndex index = this.lookupIndexesEnabled ? getLookupIndex() : new DocStructIndex(this);
+        List<DocStruct> result = index.getByMetadataValue(inMetadataTypeName, inValue);
+        if (result.isEmpty()) {
             return null;
         }
 
-        Iterator<DocStructInterface> it = children.iterator();
+        return new LinkedList<DocStruct>(result);
+    }
 
-        while (it.hasNext()) {
-            DocStruct child = (DocStruct) it.next();
+    /***************************************************************************
+     * <p>
+     * Enables or disables the lookup indexes of this document. If enabled, {@link #getAllDocStructsByType(String)},
+     * {@link #getAllDocStructsByMetadataValue(String, String)} and {@link DocStruct#getChild(String, String, String)} use indexes, which are built
+     * on first use and dropped whenever a DocStruct of this document changes its children, type or metadata. This pays off if many lookups are
+     * done without changes in between, e.g. in import or validation code. Changes made directly to the lists of children returned by a DocStruct
+     * are not noticed. The indexes can not be enabled or disabled once the document has been frozen.
+     * </p>
+     *
+     * @param enabled
+     **************************************************************************/
+    public void setLookupIndexesEnabled(boolean enabled) {
+        checkNotFrozen();
+        this.lookupIndexesEnabled = enabled;
+        this.lookupIndex = null;
+    }
+
+    /***************************************************************************
+     * @return true, if the lookup indexes are enabled
+     **************************************************************************/
+    public boolean isLookupIndexesEnabled() {
+        return this.lookupIndexesEnabled;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Traverses the DocStructs of the logical tree, the physical tree or both trees in pre-order, without recursion. The traversal can be split
+     * and run on a fork-join pool, see {@link DocStructTraversal#forEachParallel(java.util.concurrent.ForkJoinPool, DocStructTraversal.Visitor)}.
+     * </p>
+     *
+     * @param tree the trees to traverse; for BOTH, the physical tree is traversed first
+     * @return a new traversal
+     **************************************************************************/
+    public DocStructTraversal traverse(DocStructTraversal.Tree tree) {
+        List<DocStruct> roots = new ArrayList<DocStruct>(2);
+        if (tree != DocStructTraversal.Tree.LOGICAL) {
+            roots.add(this.topPhysicalStruct);
+        }
+        if (tree != DocStructTraversal.Tree.PHYSICAL) {
+            roots.add(this.topLogicalStruct);
+        }
+        return new DocStructTraversal(roots);
+    }
 
-            if (child.getType().getName().equals(inTypeName)) {
-                selectedChildren.add(child);
+    /***************************************************************************
+     * <p>
+     * Enables or disables the compact storage of this document. If enabled, equal values of the metadata and persons of this document, and of
+     * its FileSet, e.g. language codes, page labels or role codes, are replaced by one shared instance. Values set later on metadata of a
+     * DocStruct, and metadata added to a DocStruct later, are pooled, too. This saves memory for large documents, e.g. multivolume works with
+     * many pages. Disabling it drops the intern pool; the values already shared are kept. The compact storage is not copied with the document,
+     * and it can not be enabled once the document has been frozen.
+     * </p>
+     *
+     * @param enabled
+     **************************************************************************/
+    public void setCompactStorage(boolean enabled) {
+
+        checkNotFrozen();
+        if (!enabled) {
+            this.stringPool = null;
+            return;
+        }
+        if (this.stringPool != null) {
+            return;
+        }
+
+        StringPool pool = new StringPool();
+        if (this.topLogicalStruct != null) {
+            this.topLogicalStruct.internValues(pool);
+        }
+        if (this.topPhysicalStruct != null) {
+            this.topPhysicalStruct.internValues(pool);
+        }
+        if (this.allImages != null) {
+            if (this.allImages.getAllFiles() != null) {
+                for (ContentFileInterface contentFile : this.allImages.getAllFiles()) {
+                    ((ContentFile) contentFile).internValues(pool);
+                }
+            }
+            if (this.allImages.getAllMetadata() != null) {
+                for (Metadata metadata : this.allImages.getAllMetadata()) {
+                    metadata.internValues(pool);
+                }
             }
+        }
+        if (this.uniqueIdentifer != null) {
+            this.uniqueIdentifer.internValues(pool);
+        }
+        this.stringPool = pool;
+    }
 
-            List<DocStruct> anotherselectedlist = getAllDocStructsByTypePrivate(child, inTypeName);
+    /***************************************************************************
+     * @return true, if the compact storage is enabled
+     **************************************************************************/
+    public boolean isCompactStorage() {
+        return this.stringPool != null;
+    }
+
+    /***************************************************************************
+     * @return the intern pool, or null, if the compact storage is disabled
+     **************************************************************************/
+    StringPool getStringPool() {
+        return this.stringPool;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Opens a batch of changes. Until the batch is committed, {@link DocStruct#addMetadata(MetadataInterface)},
+     * {@link DocStruct#addPerson(PersonInterface)}, {@link DocStruct#addMetadataGroup(org.kitodo.api.ugh.MetadataGroupInterface)} and
+     * {@link DocStruct#addChild(DocStructInterface)} do not check the types and numbers against the preferences for DocStructs of this
+     * document; they only append. The checks are done by {@link #commitBatch()} for all changed DocStructs at once. This is meant for importers,
+     * which add many elements, and want to get a complete report of errors.
+     * </p>
+     *
+     * <p>
+     * Batches can be nested; the checks are done when the outermost batch is committed. Every call must be matched by a call of
+     * {@link #commitBatch()}, preferably in a finally block.
+     * </p>
+     **************************************************************************/
+    public void beginBatch() {
+        checkNotFrozen();
+        if (this.openBatches == 0) {
+            this.batchDocStructs = Collections.newSetFromMap(new IdentityHashMap<DocStruct, Boolean>());
+        }
+        this.openBatches++;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Commits a batch of changes, see {@link #beginBatch()}. If it is the outermost batch, the meta-data, persons, meta-data groups and
+     * children of all DocStructs changed in the batch are checked against their DocStructTypes. The changes are kept, even if they violate the
+     * preferences.
+     * </p>
+     *
+     * @throws BatchValidationException listing all violations, if there are any
+     * @throws IllegalStateException if no batch is open
+     **************************************************************************/
+    public void commitBatch() throws BatchValidationException {
+
+        if (this.openBatches == 0) {
+            throw new IllegalStateException("No batch has been begun");
+        }
+        this.openBatches--;
+        if (this.openBatches > 0) {
+            return;
+        }
 
-            if (anotherselectedlist != null && !anotherselectedlist.isEmpty()) {
-                selectedChildren.addAll(anotherselectedlist);
+        Set<DocStruct> changed = this.batchDocStructs;
+        this.batchDocStructs = null;
+        List<String> violations = new ArrayList<String>();
+        for (DocStruct docStruct : changed) {
+            docStruct.collectViolations(violations);
+        }
+        if (!violations.isEmpty()) {
+            logger.error(violations.size() + " violation(s) of the preferences found in a batch of " + changed.size() + " DocStruct(s)");
+            throw new BatchValidationException(violations);
+        }
+    }
+
+    /***************************************************************************
+     * @return true, if a batch is open
+     **************************************************************************/
+    public boolean isBatchOpen() {
+        return this.openBatches > 0;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes a DocStruct, which has been changed in the open batch, to be checked when the batch is committed.
+     * </p>
+     *
+     * @param docStruct
+     **************************************************************************/
+    void batchChanged(DocStruct docStruct) {
+        this.batchDocStructs.add(docStruct);
+    }
+
+    /***************************************************************************
+     * @return the lookup index, which is built on first use
+     **************************************************************************/
+    DocStructIndex getLookupIndex() {
+        if (this.lookupIndex == null) {
+            this.lookupIndex = new DocStructIndex(this);
+        }
+        return this.lookupIndex;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Gets all logical document structures whose page range covers the given page. The page range of a document structure is the interval of the
+     * physical tree from the first to the last physical structure entity it is linked to by a reference of the type "logical_physical"; a link
+     * to a physical structure entity covers all its descendants.
+     * </p>
+     *
+     * @param page a physical DocStruct
+     * @return List containing the DocStructs ordered by the beginning of their page range; empty, if the page is not part of the physical tree
+     **************************************************************************/
+    public List<DocStruct> getDocStructsByPage(DocStruct page) {
+        return getPageLinkIndex().getDocStructsByPage(page);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Gets the page range of a logical document structure; see {@link #getDocStructsByPage(DocStruct)}.
+     * </p>
+     *
+     * @param inStruct a logical DocStruct
+     * @return unmodifiable List containing the physical DocStructs of the page range in the order of the physical tree; empty, if the DocStruct is
+     *         not linked to the physical tree
+     **************************************************************************/
+    public List<DocStruct> getPageRange(DocStruct inStruct) {
+        return getPageLinkIndex().getPageRange(inStruct);
+    }
+
+    /***************************************************************************
+     * @return the index of the logical-physical links, which is built on first use
+     **************************************************************************/
+    private PageLinkIndex getPageLinkIndex() {
+        if (this.pageLinkIndex == null) {
+            this.pageLinkIndex = new PageLinkIndex(this);
+        }
+        return this.pageLinkIndex;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes a reference, which has been added to or removed from a DocStruct of this document.
+     * </p>
+     *
+     * @param reference
+     * @param added true, if the reference has been added
+     **************************************************************************/
+    void referenceChanged(Reference reference, boolean added) {
+        this.referencesHashValid = false;
+        if (this.pageLinkIndex == null || !PageLinkIndex.LOGICAL_PHYSICAL.equals(reference.getType())) {
+            return;
+        }
+        if (added) {
+            this.pageLinkIndex.linkAdded(reference.getSource(), reference.getTarget());
+        } else {
+            this.pageLinkIndex.linkRemoved(reference.getSource(), reference.getTarget());
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes a change of the children of a DocStruct of this document.
+     * </p>
+     *
+     * @param parent
+     **************************************************************************/
+    void childrenChanged(DocStruct parent) {
+        if (this.pageLinkIndex != null) {
+            if (parent.isPhysical()) {
+                this.pageLinkIndex.physicalStructureChanged();
+            } else {
+                // Logical subtrees may have been added with their links or
+                // removed; the links are collected again on next use.
+                this.pageLinkIndex = null;
+            }
+        }
+        this.lookupIndex = null;
+        this.referencesHashValid = false;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns a hash of the content of this document: of the logical and the physical tree (see {@link DocStruct#getContentHash()}), of the
+     * references between their DocStructs, and of the FileSet (see {@link FileSet#getContentHash()}). A reference is identified by its type and the
+     * positions of its source and target in the trees. The hashes of the trees and of the references are cached and dropped on changes, so the
+     * hash of an unchanged document is returned without walking it.
+     * </p>
+     *
+     * @return the content hash
+     **************************************************************************/
+    public long getContentHash() {
+        long hash = ContentHash.start(ContentHash.DIGITAL_DOCUMENT);
+        hash = ContentHash.add(hash, this.topLogicalStruct == null ? 0L : this.topLogicalStruct.getContentHash());
+        hash = ContentHash.add(hash, this.topPhysicalStruct == null ? 0L : this.topPhysicalStruct.getContentHash());
+        hash = ContentHash.add(hash, getReferencesHash());
+        return ContentHash.add(hash, this.allImages == null ? 0L : this.allImages.getContentHash());
+    }
+
+    /***************************************************************************
+     * <p>
+     * Compares the content of two documents by their content hashes, see {@link #getContentHash()}. Unlike {@link #equals(DigitalDocument)}, which
+     * compares children and metadata by identity, this compares separately loaded documents by value. Documents with different content have the
+     * same 64 bit hash with negligible probability only.
+     * </p>
+     *
+     * @param digitalDocument
+     * @return true, if both documents have the same content hash
+     **************************************************************************/
+    public boolean contentEquals(DigitalDocument digitalDocument) {
+        return digitalDocument != null && (digitalDocument == this || getContentHash() == digitalDocument.getContentHash());
+    }
+
+    /***************************************************************************
+     * @return a hash of all references from the DocStructs of the trees, which does not depend on their order
+     **************************************************************************/
+    private long getReferencesHash() {
+
+        if (this.referencesHashValid) {
+            return this.referencesHash;
+        }
+
+        // Number the DocStructs of both trees in pre-order.
+        List<DocStruct> docStructs = new ArrayList<DocStruct>();
+        Map<DocStruct, Integer> ordinals = new IdentityHashMap<DocStruct, Integer>();
+        number(this.topLogicalStruct, docStructs, ordinals);
+        number(this.topPhysicalStruct, docStructs, ordinals);
+
+        long sum = 0;
+        int count = 0;
+        for (DocStruct docStruct : docStructs) {
+            for (ReferenceInterface reference : docStruct.getAllToReferences()) {
+                Integer target = ordinals.get(reference.getTarget());
+                long hash = ContentHash.start(ContentHash.REFERENCE);
+                hash = ContentHash.add(hash, reference.getType());
+                hash = ContentHash.add(hash, ordinals.get(docStruct).intValue());
+                hash = ContentHash.add(hash, target == null ? -1 : target.intValue());
+                sum += hash;
+                count++;
+            }
+        }
+
+        this.referencesHash = ContentHash.add(sum, count);
+        this.referencesHashValid = true;
+        return this.referencesHash;
+    }
+
+    /***************************************************************************
+     * @param docStruct root of the subtree to number, may be null
+     * @param docStructs receives the DocStructs in pre-order
+     * @param ordinals receives the number of each DocStruct
+     **************************************************************************/
+    private static void number(DocStruct docStruct, List<DocStruct> docStructs, Map<DocStruct, Integer> ordinals) {
+        if (docStruct == null) {
+            return;
+        }
+        ordinals.put(docStruct, Integer.valueOf(docStructs.size()));
+        docStructs.add(docStruct);
+        List<DocStructInterface> children = docStruct.getAllChildren();
+        if (children != null) {
+            for (DocStructInterface child : children) {
+                number((DocStruct) child, docStructs, ordinals);
+            }
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes a change of the type or the metadata of a DocStruct of this document.
+     * </p>
+     **************************************************************************/
+    void docStructChanged() {
+        this.lookupIndex = null;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Makes this document read-only, so that it can be shared by several threads. The DocStructs of both trees, their metadata, persons, metadata
+     * groups and content files, and the FileSet are frozen: their lists are compacted into array lists, their getters return unmodifiable views
+     * and all their mutators throw an UnsupportedOperationException. The indexes, which are otherwise built on first use, and the content hashes
+     * are built in advance, so that reading the document does not change any state.
+     * </p>
+     *
+     * <p>
+     * Afterwards, any number of threads can read the document without synchronisation, provided that it has been handed over safely, e.g.
+     * through a concurrent collection, and that its Prefs have been compiled (see {@link Prefs#compile()}). The Reference and
+     * ContentFileReference objects as well as the amdSec are not frozen, and {@link DocStruct#equals(DocStruct)} must still not be called
+     * concurrently. Lookup indexes must be enabled before freezing, if wanted. A frozen document can not be unfrozen; use
+     * {@link #copyDigitalDocument()} to get a modifiable copy.
+     * </p>
+     *
+     * @return this document
+     **************************************************************************/
+    public synchronized DigitalDocument freeze() {
+
+        if (this.frozen) {
+            return this;
+        }
+
+        if (this.topLogicalStruct != null) {
+            this.topLogicalStruct.freeze();
+        }
+        if (this.topPhysicalStruct != null) {
+            this.topPhysicalStruct.freeze();
+        }
+        if (this.allImages != null) {
+            this.allImages.freeze();
+        }
+        if (this.uniqueIdentifer != null) {
+            this.uniqueIdentifer.freeze();
+        }
+
+        // Build all indexes now, they must not be built lazily by concurrent
+        // readers.
+        getPageLinkIndex().buildIntervals();
+        if (this.lookupIndexesEnabled) {
+            getLookupIndex().buildTypeIndex();
+        }
+        getReferencesHash();
+
+        // Nothing will be pooled any more.
+        this.stringPool = null;
+        this.frozen = true;
+
+        return this;
+    }
+
+    /***************************************************************************
+     * @return true, if this document has been frozen and is read-only
+     **************************************************************************/
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException if this document has been frozen
+     **************************************************************************/
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("The DigitalDocument has been frozen and can not be modified");
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Takes a snapshot of this document. Taking the snapshot takes constant time; afterwards, the first change of each DocStruct, Metadata,
+     * MetadataGroup or content file of this document copies its state for the snapshot, until the snapshot is released. See
+     * {@link DocumentSnapshot}.
+     * </p>
+     *
+     * @return a read-only view of the current state of this document
+     **************************************************************************/
+    public DocumentSnapshot snapshot() {
+        DocumentSnapshot snapshot = new DocumentSnapshot(this);
+        if (this.snapshots == null) {
+            this.snapshots = new ArrayList<WeakReference<DocumentSnapshot>>(2);
+        }
+        this.snapshots.add(new WeakReference<DocumentSnapshot>(snapshot));
+        return snapshot;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes an object of this document, which is about to be changed, so that the open snapshots can keep its state.
+     * </p>
+     *
+     * @param original a DocStruct, Metadata, MetadataGroup, ContentFile or FileSet
+     **************************************************************************/
+    void beforeChange(Object original) {
+        if (this.snapshots == null) {
+            return;
+        }
+        Iterator<WeakReference<DocumentSnapshot>> iterator = this.snapshots.iterator();
+        while (iterator.hasNext()) {
+            DocumentSnapshot snapshot = iterator.next().get();
+            if (snapshot == null || !snapshot.preserve(original)) {
+                iterator.remove();
+            }
+        }
+        if (this.snapshots.isEmpty()) {
+            this.snapshots = null;
+        }
+    }
+
+    /***************************************************************************
+     * @return a copy of this instance, which shares the DocStructs, the FileSet and the amdSec with it
+     **************************************************************************/
+    DigitalDocument copyState() {
+
+        DigitalDocument state = new DigitalDocument();
+        state.topPhysicalStruct = this.topPhysicalStruct;
+        state.topLogicalStruct = this.topLogicalStruct;
+        state.allImages = this.allImages;
+        state.uniqueIdentifer = this.uniqueIdentifer;
+        state.amdSec = this.amdSec;
+        state.lookupIndexesEnabled = this.lookupIndexesEnabled;
+
+        return state;
+    }
+
+    /***************************************************************************
+     * @param inStruct
+     * @param inTypeName
+     * @return
+     **************************************************************************/
+    private List<DocStruct> getAllDocStructsByTypePrivate(DocStruct inStruct, String inTypeName) {
+
+        if (inStruct.getAllChildren() == null) {
+            return null;
+        }
+
+        List<DocStruct> selectedChildren = new LinkedList<DocStruct>();
+        for (DocStruct descendant : inStruct.preOrder()) {
+            if (descendant != inStruct && descendant.getType().getName().equals(inTypeName)) {
+                selectedChildren.add(descendant);
             }
         }
 
@@ -404,6 +963,7 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean setFileSet(FileSet inSet) {
+        checkNotFrozen();
         this.allImages = inSet;
         return true;
     }
@@ -453,6 +1013,8 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
             }
         };
 
+        xStream.registerConverter(new MetadataConverter(xStream.getMapper(), xStream.getReflectionProvider()));
+
         DigitalDocument digDoc = (DigitalDocument) xStream.fromXML(infile);
 
         // Set the loaded DigitalDocument to this.
@@ -668,6 +1230,7 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
 
         // Write the DigitalDocument as an XStream file.
         XStream xStream = new XStream(new DomDriver());
+        xStream.registerConverter(new MetadataConverter(xStream.getMapper(), xStream.getReflectionProvider()));
 
         BufferedWriter outfile = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), "UTF8"));
         xStream.toXML(this, outfile);
@@ -1043,6 +1606,7 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
      * @param techMd the techMd to set
      */
     public void addTechMd(Node techMdNode) {
+        checkNotFrozen();
         if (this.amdSec == null) {
             amdSec = new AmdSec(new ArrayList<Md>());
         }
@@ -1054,6 +1618,7 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
      * @param techMd the techMd to set
      */
     public void addTechMd(Md techMd) {
+        checkNotFrozen();
         if (this.amdSec == null) {
             amdSec = new AmdSec(new ArrayList<Md>());
         }
@@ -1091,6 +1656,7 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
     }
 
     public void setAmdSec(String id) {
+        checkNotFrozen();
         this.amdSec = new AmdSec(new ArrayList<Md>());
         this.amdSec.setId(id);
     }
@@ -1123,49 +1689,46 @@ public class DigitalDocument implements DigitalDocumentInterface, Serializable {
 
     /***************************************************************************
      * <p>
-     * Creates a deep copy of the DigitalDocument.
+     * Creates a deep copy of the DigitalDocument. The copy shares the DocStructTypes, MetadataTypes and techMD sections with this instance; see
+     * {@link DocumentCopier}.
      * </p>
      *
      * @return the new DigitalDocument instance
      **************************************************************************/
-
     public DigitalDocument copyDigitalDocument() throws WriteException {
+        return new DocumentCopier().copy(this);
+    }
 
-        DigitalDocument newDigDoc = null;
-
-        try {
-
-            // remove techMd list for serialization
-            ArrayList<Md> tempList = new ArrayList<Md>(getTechMds());
-            getTechMds().clear();
-
-            // Write the object out to a byte array.
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream out = new ObjectOutputStream(bos);
-            out.writeObject(this);
-            out.flush();
-            out.close();
-
-            // Make an input stream from the byte array and read
-            // a copy of the object back in.
-            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
-            newDigDoc = (DigitalDocument) in.readObject();
-
-            // reattach techMd list
-            for (Md md : tempList) {
-                newDigDoc.addTechMd(md);
-            }
+    /***************************************************************************
+     * @param copier
+     * @return a deep copy of this instance, for the {@link DocumentCopier}
+     **************************************************************************/
+    DigitalDocument deepCopy(DocumentCopier copier) {
+
+        DigitalDocument copy = new DigitalDocument();
+        copier.put(this, copy);
+        copy.topPhysicalStruct = copier.copyDocStruct(this.topPhysicalStruct);
+        copy.topLogicalStruct = copier.copyDocStruct(this.topLogicalStruct);
+        copy.allImages = copier.copyFileSet(this.allImages);
+        copy.uniqueIdentifer = this.uniqueIdentifer;
+        copy.amdSec = copier.copyAmdSec(this.amdSec);
+        copy.lookupIndexesEnabled = this.lookupIndexesEnabled;
+
+        return copy;
+    }
 
-        } catch (IOException e) {
-            String message = "Couldn't obtain OutputStream!";
-            logger.error(message, e);
-            throw new WriteException(message, e);
-        } catch (ClassNotFoundException e) {
-            String message = "Could not find some class!";
-            logger.error(message, e);
-            throw new WriteException(message, e);
+    /***************************************************************************
+     * <p>
+     * Resolves the unique identifier of this copy; it is copied, if it is not part of the copied DocStructs.
+     * </p>
+     *
+     * @param copier
+     **************************************************************************/
+    void resolveCopy(DocumentCopier copier) {
+        if (this.uniqueIdentifer != null && copier.resolve(this.uniqueIdentifer) == this.uniqueIdentifer) {
+            this.uniqueIdentifer = copier.copyMetadata(this.uniqueIdentifer);
+        } else {
+            this.uniqueIdentifer = copier.resolve(this.uniqueIdentifer);
         }
-
-        return newDigDoc;
     }
 }
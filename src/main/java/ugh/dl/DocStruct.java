@@ -33,6 +33,7 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
@@ -144,7 +145,7 @@ public class DocStruct implements DocStructInterface, Serializable {
     /**
      * List containing all references to Contentfile objects.
      */
-    private List<ContentFileReference> contentFileReferences = new LinkedList<ContentFileReference>();
+    private List<ContentFileReference> contentFileReferences = new ArrayList<ContentFileReference>();
 
     /**
      * List of all persons; list containing all Person objects.
@@ -157,12 +158,12 @@ public class DocStruct implements DocStructInterface, Serializable {
      * All references to other DocStrct instances (containing References
      * objects).
      */
-    private final List<ReferenceInterface> docStructRefsTo = new LinkedList<ReferenceInterface>();
+    private final List<ReferenceInterface> docStructRefsTo = new ArrayList<ReferenceInterface>();
 
     /**
      * All references from another DocStruct to this one.
      */
-    private final List<ReferenceInterface> docStructRefsFrom = new LinkedList<ReferenceInterface>();
+    private final List<ReferenceInterface> docStructRefsFrom = new ArrayList<ReferenceInterface>();
 
     /**
      * Type of this instance.
@@ -214,6 +215,41 @@ public class DocStruct implements DocStructInterface, Serializable {
     private HashMap<String, Object> signaturesForEqualsMethodRefsFrom;
     private HashMap<String, Object> signaturesForEqualsMethodRefsTo;
 
+    /**
+     * Indexes of the meta-data, persons and meta-data groups by type name.
+     * They are built lazily and maintained by the add, remove and change
+     * methods.
+     */
+    private transient TypeNameIndex<Metadata> metadataIndex;
+    private transient TypeNameIndex<Person> personIndex;
+    private transient TypeNameIndex<MetadataGroup> metadataGroupIndex;
+
+    /**
+     * Index of the positions of the children. It is built lazily and
+     * maintained by the add, remove and move methods.
+     */
+    private transient PositionIndex childPositions;
+
+    /**
+     * Hash of the content of this instance and its descendants. It is
+     * computed on first use and dropped, together with the hashes of the
+     * ancestors, before this instance is changed.
+     */
+    private transient long contentHash;
+    private transient boolean contentHashValid = false;
+
+    /**
+     * Set, if the digital document of this instance has been frozen.
+     */
+    private transient boolean frozen = false;
+
+    /**
+     * Number of changes of this instance, increased before each change. It
+     * identifies the state the memoized type lists belong to.
+     */
+    private transient int modificationCount;
+    private transient MetadataTypeLists typeLists;
+
     /**
      * Constructor just used to be compatible with JavaBeans.
      *
@@ -237,6 +273,7 @@ public class DocStruct implements DocStructInterface, Serializable {
     }
 
     protected void setDigitalDocument(DigitalDocument dd) {
+        checkNotFrozen();
         this.digdoc = dd;
     }
 
@@ -251,7 +288,9 @@ public class DocStruct implements DocStructInterface, Serializable {
 
         // Usually we had to check, if the new type is allowed. Search for
         // parent and see if the parent allows this type.
+        beforeChange();
         this.type = (DocStructType) inType;
+        metadataChanged();
     }
 
     /**
@@ -285,7 +324,7 @@ public class DocStruct implements DocStructInterface, Serializable {
             return null;
         }
 
-        return this.children;
+        return readOnly(this.children);
     }
 
     /**
@@ -353,6 +392,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @see #getReferenceToAnchor()
      */
     public void setReferenceToAnchor(String in) {
+        beforeChange();
         this.referenceToAnchor = in;
     }
 
@@ -450,6 +490,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @return always true
      */
     public boolean setIdentifier(String in) {
+        beforeChange();
         this.identifier = in;
 
         return true;
@@ -670,6 +711,119 @@ public class DocStruct implements DocStructInterface, Serializable {
         return newStruct;
     }
 
+    /**
+     * Creates a deep copy of this instance with everything it owns, for the
+     * {@link DocumentCopier}. Links to the parent, the digital document and
+     * the content files are resolved later.
+     *
+     * @param copier
+     *            the copier
+     * @return the copy
+     */
+    DocStruct deepCopy(DocumentCopier copier) {
+
+        DocStruct copy = new DocStruct(this.type);
+        copier.put(this, copy);
+
+        copy.allMetadata = copier.copyAllMetadata(this.allMetadata);
+        copy.persons = copier.copyAllMetadata(this.persons);
+        if (this.allMetadataGroups != null) {
+            copy.allMetadataGroups = new ArrayList<MetadataGroupInterface>(this.allMetadataGroups.size());
+            for (MetadataGroupInterface group : this.allMetadataGroups) {
+                copy.allMetadataGroups.add(copier.copyMetadataGroup((MetadataGroup) group));
+            }
+        }
+        if (this.children != null) {
+            copy.children = new ArrayList<DocStructInterface>(this.children.size());
+            for (DocStructInterface child : this.children) {
+                copy.children.add(copier.copyDocStruct((DocStruct) child));
+            }
+        }
+        if (this.contentFileReferences == null) {
+            copy.contentFileReferences = null;
+        } else {
+            copy.contentFileReferences = new ArrayList<ContentFileReference>(this.contentFileReferences.size());
+            for (ContentFileReference cfr : this.contentFileReferences) {
+                ContentFileReference cfrCopy = new ContentFileReference();
+                copier.put(cfr, cfrCopy);
+                cfrCopy.setCf(cfr.getCf());
+                if (cfr.getCfa() != null) {
+                    cfrCopy.setCfa(cfr.getCfa().copy());
+                }
+                copy.contentFileReferences.add(cfrCopy);
+            }
+        }
+        for (ReferenceInterface ref : this.docStructRefsTo) {
+            copy.docStructRefsTo.add(copier.copyReference((Reference) ref));
+        }
+        for (ReferenceInterface ref : this.docStructRefsFrom) {
+            copy.docStructRefsFrom.add(copier.copyReference((Reference) ref));
+        }
+
+        copy.parent = this.parent;
+        copy.digdoc = this.digdoc;
+        copy.identifier = this.identifier;
+        copy.origObject = this.origObject;
+        copy.logical = this.logical;
+        copy.physical = this.physical;
+        copy.referenceToAnchor = this.referenceToAnchor;
+        copy.amdSec = copier.copyAmdSec(this.amdSec);
+        copy.techMdList = this.techMdList == null ? null : new ArrayList<Md>(this.techMdList);
+
+        return copy;
+    }
+
+    /**
+     * Resolves the links of this copy to its parent and digital document.
+     *
+     * @param copier
+     *            the copier
+     */
+    void resolveCopy(DocumentCopier copier) {
+        this.parent = copier.resolve(this.parent);
+        this.digdoc = copier.resolve(this.digdoc);
+    }
+
+    /**
+     * Creates a copy of the state of this instance for a
+     * {@link DocumentSnapshot}. The copy has its own lists, but shares the
+     * children, meta-data, content files and references with this instance.
+     *
+     * @return the copy
+     */
+    DocStruct copyState() {
+
+        DocStruct state = new DocStruct(this.type);
+        state.allMetadata = this.allMetadata == null ? null : new ArrayList<MetadataInterface>(this.allMetadata);
+        state.persons = this.persons == null ? null : new ArrayList<PersonInterface>(this.persons);
+        state.allMetadataGroups = this.allMetadataGroups == null ? null : new ArrayList<MetadataGroupInterface>(this.allMetadataGroups);
+        state.children = this.children == null ? null : new ArrayList<DocStructInterface>(this.children);
+        if (this.contentFileReferences == null) {
+            state.contentFileReferences = null;
+        } else {
+            state.contentFileReferences = new ArrayList<ContentFileReference>(this.contentFileReferences.size());
+            for (ContentFileReference cfr : this.contentFileReferences) {
+                ContentFileReference cfrState = new ContentFileReference();
+                cfrState.setCf(cfr.getCf());
+                cfrState.setCfa(cfr.getCfa());
+                state.contentFileReferences.add(cfrState);
+            }
+        }
+        state.docStructRefsTo.addAll(this.docStructRefsTo);
+        state.docStructRefsFrom.addAll(this.docStructRefsFrom);
+        state.parent = this.parent;
+        state.digdoc = this.digdoc;
+        state.identifier = this.identifier;
+        state.origObject = this.origObject;
+        state.logical = this.logical;
+        state.physical = this.physical;
+        state.referenceToAnchor = this.referenceToAnchor;
+        state.amdSec = this.amdSec;
+        state.techMdList = this.techMdList == null ? null : new ArrayList<Md>(this.techMdList);
+
+        return state;
+    }
+
     /**
      * Returns a partial copy the structural tree with all structural elements
      * down to one level below the given anchor class, and meta-data attached
@@ -891,10 +1045,10 @@ public class DocStruct implements DocStructInterface, Serializable {
             return null;
         }
         if (in.equals("to")) {
-            return this.docStructRefsTo;
+            return readOnly(this.docStructRefsTo);
         }
         if (in.equals("from")) {
-            return this.docStructRefsFrom;
+            return readOnly(this.docStructRefsFrom);
         }
 
         return null;
@@ -908,7 +1062,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public Collection<ReferenceInterface> getAllToReferences() {
-        return this.docStructRefsTo;
+        return readOnly(this.docStructRefsTo);
     }
 
     /**
@@ -949,7 +1103,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public List<ReferenceInterface> getAllFromReferences() {
-        return this.docStructRefsFrom;
+        return readOnly(this.docStructRefsFrom);
     }
 
     /**
@@ -996,6 +1150,7 @@ public class DocStruct implements DocStructInterface, Serializable {
         // child because of its DocStructType.
 
         // Add child to this parent.
+        beforeChange();
         this.parent = inParent;
 
         return true;
@@ -1014,7 +1169,9 @@ public class DocStruct implements DocStructInterface, Serializable {
 
     /**
      * Returns all meta-data groups from this instance. If no
-     * {@link MetadataGroup} is available, null is returned.
+     * {@link MetadataGroup} is available, null is returned. Changes made to
+     * the returned list are noticed like changes made by the methods of this
+     * instance; they are not checked against the DocStructType, though.
      *
      * @return all meta-data groups from this instance
      */
@@ -1025,7 +1182,7 @@ public class DocStruct implements DocStructInterface, Serializable {
             return null;
         }
 
-        return this.allMetadataGroups;
+        return observed(this.allMetadataGroups);
     }
 
     /**
@@ -1038,14 +1195,18 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @return always true
      */
     public boolean setAllMetadataGroups(List<MetadataGroupInterface> inList) {
+        beforeChange();
         this.allMetadataGroups = inList;
+        this.metadataGroupIndex = null;
 
         return true;
     }
 
     /**
      * Returns all meta-data from this instance. If no {@link Metadata} is
-     * available, {@code null} is returned.
+     * available, {@code null} is returned. Changes made to the returned list
+     * are noticed like changes made by the methods of this instance; they are
+     * not checked against the DocStructType, though.
      *
      * @return all meta-data from this instance
      */
@@ -1056,7 +1217,7 @@ public class DocStruct implements DocStructInterface, Serializable {
             return null;
         }
 
-        return this.allMetadata;
+        return observed(this.allMetadata);
     }
 
     /**
@@ -1093,19 +1254,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @return whether this has an object of that type
      */
     public boolean hasMetadataGroupType(MetadataGroupType inMDT) {
-
-        // Check metadata.
-        List<MetadataGroupInterface> allMDs = this.getAllMetadataGroups();
-        if (allMDs != null) {
-            for (MetadataGroupInterface md : allMDs) {
-                MetadataGroupType mdt = ((MetadataGroup) md).getType();
-                if (inMDT != null && inMDT.getName().equals(mdt.getName())) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return inMDT != null && hasMetadataGroup(inMDT.getName());
     }
 
     /**
@@ -1117,30 +1266,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @return whether this has an object of that type
      */
     public boolean hasMetadataType(MetadataType inMDT) {
-
-        // Check metadata.
-        List<MetadataInterface> allMDs = this.getAllMetadata();
-        if (allMDs != null) {
-            for (MetadataInterface md : allMDs) {
-                MetadataType mdt = ((Metadata) md).getType();
-                if (inMDT != null && inMDT.getName().equals(mdt.getName())) {
-                    return true;
-                }
-            }
-        }
-
-        // Check persons.
-        List<PersonInterface> allPersons = this.getAllPersons();
-        if (allPersons != null) {
-            for (PersonInterface per : allPersons) {
-                MetadataType mdt = ((Person) per).getType();
-                if (inMDT != null && inMDT.getName().equals(mdt.getName())) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return inMDT != null && hasMetadata(inMDT.getName());
     }
 
     /**
@@ -1150,7 +1276,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @see ContentFileReference
      */
     public List<ContentFileReference> getAllContentFileReferences() {
-        return this.contentFileReferences;
+        return readOnly(this.contentFileReferences);
     }
 
     /**
@@ -1176,16 +1302,19 @@ public class DocStruct implements DocStructInterface, Serializable {
         }
 
         // Add the file, existence check is done in FileSet.addFile() now.
+        beforeChange(fs);
         fs.addFile(theFile);
 
         if (this.contentFileReferences == null) {
-            this.contentFileReferences = new LinkedList<ContentFileReference>();
+            this.contentFileReferences = new ArrayList<ContentFileReference>();
         }
         // Now we can add the reference to the ContentFile, if the reference is
         // not existing yet.
         ContentFileReference cfr = new ContentFileReference();
         cfr.setCf((ContentFile) theFile);
         if (!this.contentFileReferences.contains(cfr)) {
+            beforeChange();
+            beforeChange(theFile);
             this.contentFileReferences.add(cfr);
             ((ContentFile) theFile).addDocStructAsReference(this);
         }
@@ -1207,9 +1336,10 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     public void addContentFile(ContentFile inCF, ContentFileArea inArea) {
 
+        beforeChange();
         if (this.contentFileReferences == null) {
             // Re-added this line, maybe was it's deletion an error?
-            this.contentFileReferences = new LinkedList<ContentFileReference>();
+            this.contentFileReferences = new ArrayList<ContentFileReference>();
         }
 
         // Check if ContentFile belongs already to the FileSet.
@@ -1218,6 +1348,7 @@ public class DocStruct implements DocStructInterface, Serializable {
         Collection<ContentFileInterface> allCFs = fs.getAllFiles();
         if (!allCFs.contains(inCF)) {
             // Doesn't contain this content file.
+            beforeChange(fs);
             fs.addFile(inCF);
         }
 
@@ -1225,6 +1356,7 @@ public class DocStruct implements DocStructInterface, Serializable {
         ContentFileReference cfr = new ContentFileReference();
         cfr.setCfa(inArea);
         cfr.setCf(inCF);
+        beforeChange(inCF);
         this.contentFileReferences.add(cfr);
         inCF.addDocStructAsReference(this);
 
@@ -1246,16 +1378,20 @@ public class DocStruct implements DocStructInterface, Serializable {
 
         boolean removed = false;
 
-        List<ContentFileReference> copiedContentFileReferences = new LinkedList<ContentFileReference>(this.contentFileReferences);
-
-        for (ContentFileReference cfr : copiedContentFileReferences) {
-            if (cfr.getCf() != null && cfr.getCf().equals(theContentFile)) {
-                // The ContentFile is in the Reference; so remove file and
-                // reference.
-                this.contentFileReferences.remove(cfr);
-                ContentFile cf = cfr.getCf();
-                cf.removeDocStructAsReference(this);
-                removed = true;
+        if (this.contentFileReferences != null) {
+            Iterator<ContentFileReference> iterator = this.contentFileReferences.iterator();
+            while (iterator.hasNext()) {
+                ContentFileReference cfr = iterator.next();
+                if (cfr.getCf() != null && cfr.getCf().equals(theContentFile)) {
+                    // The ContentFile is in the Reference; so remove file and
+                    // reference.
+                    beforeChange();
+                    beforeChange(cfr.getCf());
+                    iterator.remove();
+                    ContentFile cf = cfr.getCf();
+                    cf.removeDocStructAsReference(this);
+                    removed = true;
+                }
             }
         }
 
@@ -1290,8 +1426,11 @@ public class DocStruct implements DocStructInterface, Serializable {
         ref.setSource(this);
         ref.setTarget((DocStruct) inDocStruct);
         ref.setType(theType);
+        beforeChange();
+        ((DocStruct) inDocStruct).beforeChange();
         this.docStructRefsTo.add(ref);
         ((DocStruct) inDocStruct).docStructRefsFrom.add(ref);
+        referenceChanged(ref, true);
         return ref;
     }
 
@@ -1315,8 +1454,11 @@ public class DocStruct implements DocStructInterface, Serializable {
         ref.setTarget(this);
         ref.setSource(inDocStruct);
         ref.setType(theType);
+        beforeChange();
+        inDocStruct.beforeChange();
         this.docStructRefsFrom.add(ref);
         inDocStruct.docStructRefsTo.add(ref);
+        referenceChanged(ref, true);
         return ref;
     }
 
@@ -1331,23 +1473,45 @@ public class DocStruct implements DocStructInterface, Serializable {
     @Override
     public void removeReferenceTo(DocStructInterface inStruct) {
 
-        @SuppressWarnings({"rawtypes", "unchecked" })
-        List<Reference> ll = new LinkedList<Reference>((Collection) this.docStructRefsTo);
-
-        for (Reference ref : ll) {
+        Iterator<ReferenceInterface> iterator = this.docStructRefsTo.iterator();
+        while (iterator.hasNext()) {
+            Reference ref = (Reference) iterator.next();
             if (ref.getTarget().equals(inStruct)) {
                 // Remove reference from this instance.
-                this.docStructRefsTo.remove(ref);
+                beforeChange();
+                ref.getTarget().beforeChange();
+                iterator.remove();
                 DocStruct targetStruct = ref.getTarget();
                 List<ReferenceInterface> ll2 = targetStruct.docStructRefsFrom;
                 // Remove the reference from target.
                 if (ll2 != null) {
                     ll2.remove(ref);
                 }
+                referenceChanged(ref, false);
             }
         }
     }
 
+    /**
+     * Notifies the digital documents of the source and target of a reference
+     * that it has been added or removed.
+     *
+     * @param ref
+     *            the reference
+     * @param added
+     *            true, if the reference has been added
+     */
+    private static void referenceChanged(Reference ref, boolean added) {
+        DigitalDocument sourceDocument = ref.getSource() == null ? null : ref.getSource().digdoc;
+        DigitalDocument targetDocument = ref.getTarget() == null ? null : ref.getTarget().digdoc;
+        if (sourceDocument != null) {
+            sourceDocument.referenceChanged(ref, added);
+        }
+        if (targetDocument != null && targetDocument != sourceDocument) {
+            targetDocument.referenceChanged(ref, added);
+        }
+    }
+
     /**
      * Removes an incoming reference. An incoming {@link Reference} is a
      * reference from another {@code DocStruct} to this instance. The
@@ -1360,19 +1524,21 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     public boolean removeReferenceFrom(DocStruct inStruct) {
 
-        @SuppressWarnings({"rawtypes", "unchecked" })
-        List<Reference> ll = new LinkedList<Reference>((Collection) this.docStructRefsFrom);
-
-        for (Reference ref : ll) {
+        Iterator<ReferenceInterface> iterator = this.docStructRefsFrom.iterator();
+        while (iterator.hasNext()) {
+            Reference ref = (Reference) iterator.next();
             if (ref.getTarget().equals(inStruct)) {
                 // Remove reference from this instance.
-                this.docStructRefsFrom.remove(ref);
+                beforeChange();
+                ref.getTarget().beforeChange();
+                iterator.remove();
                 DocStruct targetStruct = ref.getTarget();
                 List<ReferenceInterface> ll2 = targetStruct.docStructRefsTo;
                 // Remove the reference from source.
                 if (ll2 != null) {
                     ll2.remove(ref);
                 }
+                referenceChanged(ref, false);
             }
         }
 
@@ -1410,12 +1576,12 @@ public class DocStruct implements DocStructInterface, Serializable {
 
         MetadataGroupType inMdType = ((MetadataGroup) theMetadataGroup).getType();
         String inMdName = inMdType.getName();
-        // Integer, number of metadata allowed for this metadatatype.
-        String maxnumberallowed;
+        // Number of metadata allowed for this metadatatype.
+        DocStructType.Cardinality maxnumberallowed;
         // Integer, number of metadata already available.
         int number;
         // Metadata can only be inserted if set to true.
-        boolean insert = false;
+        boolean insert;
         // Prefs MetadataType.
         MetadataGroupType prefsMdType;
 
@@ -1428,10 +1594,13 @@ public class DocStruct implements DocStructInterface, Serializable {
         }
 
         prefsMdType = this.type.getMetadataGroupByGroup(inMdType);
+        boolean deferred = deferValidation();
 
         // Ask DocStructType instance to get MetadataType by Type. At this point
         // we are creating a local copy of the MetadataType object.
-        if (prefsMdType == null && !(inMdName.startsWith(HIDDEN_METADATA_CHAR))) {
+        if (prefsMdType == null && deferred) {
+            prefsMdType = inMdType;
+        } else if (prefsMdType == null && !(inMdName.startsWith(HIDDEN_METADATA_CHAR))) {
             MetadataTypeNotAllowedException e = new MetadataTypeNotAllowedException("Metadata not allowed for DocStruct '" + this.getType().getName() + "'");
             logger.error(e.getMessage());
             throw e;
@@ -1440,47 +1609,38 @@ public class DocStruct implements DocStructInterface, Serializable {
         // Check, if it's an internal MetadataType - all internal types begin
         // with the HIDDEN_METADATA_CHAR, we can have as many as we want.
         if (inMdName.startsWith(HIDDEN_METADATA_CHAR)) {
-            maxnumberallowed = "*";
+            maxnumberallowed = DocStructType.Cardinality.ZERO_OR_MORE;
             prefsMdType = inMdType;
+        } else if (deferred) {
+            // Checked when the batch is committed.
+            maxnumberallowed = DocStructType.Cardinality.ZERO_OR_MORE;
         } else {
-            maxnumberallowed = this.type.getNumberOfMetadataGroups(prefsMdType);
+            maxnumberallowed = this.type.getCardinalityOfMetadataGroup(prefsMdType);
         }
 
         // Check, if another Metadata instance is allowed.
         //
         // How many metadata are already available.
-        number = countMDofthisType(inMdName);
-
-        // As many as we want (zero or more).
-        if (maxnumberallowed.equals("*")) {
-            insert = true;
-        }
-
-        // Once or more.
-        if (maxnumberallowed.equals("+") || maxnumberallowed.equals("+")) {
-            insert = true;
-        }
-
-        // Only one, if we have already one, we cannot add it.
-        if (maxnumberallowed.equalsIgnoreCase("1m") || maxnumberallowed.equalsIgnoreCase("1o")) {
-            if (number < 1) {
-                insert = true;
-            } else {
-                insert = false;
-            }
-        }
+        number = deferred ? 0 : countMDofthisType(inMdName);
+        insert = maxnumberallowed.allowsAnother(number);
 
         // Add metadata.
         if (insert) {
+            beforeChange();
             // Set type to MetadataType of the DocStructType.
             ((MetadataGroup) theMetadataGroup).setType(prefsMdType);
             // Set this document structure as myDocStruct.
             ((MetadataGroup) theMetadataGroup).setDocStruct(this);
+            if (getStringPool() != null) {
+                ((MetadataGroup) theMetadataGroup).internValues(getStringPool());
+            }
+            TypeNameIndex<MetadataGroup> index = getMetadataGroupIndex();
             if (this.allMetadataGroups == null) {
                 // Create list, if not already available.
                 this.allMetadataGroups = new LinkedList<MetadataGroupInterface>();
             }
             this.allMetadataGroups.add(theMetadataGroup);
+            index.add((MetadataGroup) theMetadataGroup);
         } else {
             logger.debug("Not allowed to add metadata '" + inMdName + "'");
             MetadataTypeNotAllowedException mtnae = new MetadataTypeNotAllowedException("Metadata not allowed for DocStruct '" + this.getType().getName() + "'");
@@ -1504,8 +1664,13 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public void removeMetadataGroup(MetadataGroupInterface inMD) {
+        beforeChange();
+        beforeChange(inMD);
         ((MetadataGroup) inMD).myDocStruct = null;
-        this.allMetadataGroups.remove(inMD);
+        TypeNameIndex<MetadataGroup> index = getMetadataGroupIndex();
+        if (this.allMetadataGroups.remove(inMD)) {
+            index.remove((MetadataGroup) inMD);
+        }
     }
 
     /**
@@ -1558,10 +1723,16 @@ public class DocStruct implements DocStructInterface, Serializable {
         // Ask DocStructType instance to get a new MetadataType object of the
         // same kind.
         MetadataGroupType mdType = this.type.getMetadataGroupByGroup(theOldMd.getType());
+        beforeChange();
         theNewMd.setType(mdType);
+        if (getStringPool() != null) {
+            theNewMd.internValues(getStringPool());
+        }
 
+        TypeNameIndex<MetadataGroup> index = getMetadataGroupIndex();
         this.allMetadataGroups.remove(theOldMd);
         this.allMetadataGroups.add(counter, theNewMd);
+        index.replace(theOldMd, theNewMd);
 
         return true;
     }
@@ -1580,12 +1751,8 @@ public class DocStruct implements DocStructInterface, Serializable {
         List<MetadataGroup> resultList = new LinkedList<MetadataGroup>();
 
         // Check all metadata.
-        if (inType != null && this.allMetadataGroups != null) {
-            for (MetadataGroupInterface md : this.allMetadataGroups) {
-                if (((MetadataGroup) md).getType() != null && ((MetadataGroup) md).getType().getName().equals(inType.getName())) {
-                    resultList.add((MetadataGroup) md);
-                }
-            }
+        if (inType != null) {
+            resultList.addAll(getMetadataGroupIndex().get(inType.getName()));
         }
 
         return resultList;
@@ -1623,12 +1790,12 @@ public class DocStruct implements DocStructInterface, Serializable {
 
         MetadataType inMdType = ((Metadata) theMetadata).getType();
         String inMdName = inMdType.getName();
-        // Integer, number of metadata allowed for this metadatatype.
-        String maxnumberallowed;
+        // Number of metadata allowed for this metadatatype.
+        DocStructType.Cardinality maxnumberallowed;
         // Integer, number of metadata already available.
         int number;
         // Metadata can only be inserted if set to true.
-        boolean insert = false;
+        boolean insert;
         // Prefs MetadataType.
         MetadataType prefsMdType;
 
@@ -1641,10 +1808,13 @@ public class DocStruct implements DocStructInterface, Serializable {
         }
 
         prefsMdType = this.type.getMetadataTypeByType(inMdType);
+        boolean deferred = deferValidation();
 
         // Ask DocStructType instance to get MetadataType by Type. At this point
         // we are creating a local copy of the MetadataType object.
-        if (prefsMdType == null && !(inMdName.startsWith(HIDDEN_METADATA_CHAR))) {
+        if (prefsMdType == null && deferred) {
+            prefsMdType = inMdType;
+        } else if (prefsMdType == null && !(inMdName.startsWith(HIDDEN_METADATA_CHAR))) {
             MetadataTypeNotAllowedException e = new MetadataTypeNotAllowedException("Metadata of " + (inMdType == null ? "unknown type" : "type '" + inMdType.getName() + "'") + " not allowed for DocStruct '" + this.getType().getName() + "'");
             logger.error(e.getMessage());
             throw e;
@@ -1653,47 +1823,39 @@ public class DocStruct implements DocStructInterface, Serializable {
         // Check, if it's an internal MetadataType - all internal types begin
         // with the HIDDEN_METADATA_CHAR, we can have as many as we want.
         if (inMdName.startsWith(HIDDEN_METADATA_CHAR)) {
-            maxnumberallowed = "*";
+            maxnumberallowed = DocStructType.Cardinality.ZERO_OR_MORE;
             prefsMdType = inMdType;
+        } else if (deferred) {
+            // Checked when the batch is committed.
+            maxnumberallowed = DocStructType.Cardinality.ZERO_OR_MORE;
         } else {
-            maxnumberallowed = this.type.getNumberOfMetadataType(prefsMdType);
+            maxnumberallowed = this.type.getCardinalityOfMetadataType(prefsMdType);
         }
 
         // Check, if another Metadata instance is allowed.
         //
         // How many metadata are already available.
-        number = countMDofthisType(inMdName);
-
-        // As many as we want (zero or more).
-        if (maxnumberallowed.equals("*")) {
-            insert = true;
-        }
-
-        // Once or more.
-        if (maxnumberallowed.equals("+") || maxnumberallowed.equals("+")) {
-            insert = true;
-        }
-
-        // Only one, if we have already one, we cannot add it.
-        if (maxnumberallowed.equalsIgnoreCase("1m") || maxnumberallowed.equalsIgnoreCase("1o")) {
-            if (number < 1) {
-                insert = true;
-            } else {
-                insert = false;
-            }
-        }
+        number = deferred ? 0 : countMDofthisType(inMdName);
+        insert = maxnumberallowed.allowsAnother(number);
 
         // Add metadata.
         if (insert) {
+            beforeChange();
             // Set type to MetadataType of the DocStructType.
             theMetadata.setType(prefsMdType);
             // Set this document structure as myDocStruct.
             theMetadata.setDocStruct(this);
+            if (getStringPool() != null) {
+                ((Metadata) theMetadata).internValues(getStringPool());
+            }
+            TypeNameIndex<Metadata> index = getMetadataIndex();
             if (this.allMetadata == null) {
                 // Create list, if not already available.
                 this.allMetadata = new LinkedList<MetadataInterface>();
             }
             this.allMetadata.add((theMetadata));
+            index.add((Metadata) theMetadata);
+            metadataChanged();
         } else {
             logger.debug("Not allowed to add metadata '" + inMdName + "'");
             MetadataTypeNotAllowedException mtnae = new MetadataTypeNotAllowedException("Metadata of " + (inMdType == null ? "unknown type" : "type '" + inMdType.getName() + "'") + " not allowed for DocStruct '" + this.getType().getName() + "'");
@@ -1716,8 +1878,14 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public void removeMetadata(MetadataInterface inMD) {
+        beforeChange();
+        beforeChange(inMD);
         ((Metadata) inMD).myDocStruct = null;
-        this.allMetadata.remove(inMD);
+        TypeNameIndex<Metadata> index = getMetadataIndex();
+        if (this.allMetadata.remove(inMD)) {
+            index.remove((Metadata) inMD);
+            metadataChanged();
+        }
     }
 
     /**
@@ -1770,10 +1938,17 @@ public class DocStruct implements DocStructInterface, Serializable {
         // Ask DocStructType instance to get a new MetadataType object of the
         // same kind.
         MetadataType mdType = this.type.getMetadataTypeByType(theOldMd.getType());
+        beforeChange();
         theNewMd.setType(mdType);
+        if (getStringPool() != null) {
+            theNewMd.internValues(getStringPool());
+        }
 
+        TypeNameIndex<Metadata> index = getMetadataIndex();
         this.allMetadata.remove(theOldMd);
         this.allMetadata.add(counter, theNewMd);
+        index.replace(theOldMd, theNewMd);
+        metadataChanged();
 
         return true;
     }
@@ -1793,22 +1968,11 @@ public class DocStruct implements DocStructInterface, Serializable {
 
         List<Metadata> resultList = new LinkedList<Metadata>();
 
-        // Check all metadata.
-        if (inType != null && this.allMetadata != null) {
-            for (MetadataInterface md : this.allMetadata) {
-                if (((Metadata) md).getType() != null && ((Metadata) md).getType().getName().equals(inType.getName())) {
-                    resultList.add((Metadata) md);
-                }
-            }
-        }
-
-        // Check all persons.
-        if (inType != null && this.persons != null) {
-            for (PersonInterface md : this.persons) {
-                if (((Person) md).getType() != null && ((Person) md).getType().getName().equals(inType.getName())) {
-                    resultList.add((Person) md);
-                }
-            }
+        if (inType != null) {
+            // Check all metadata.
+            resultList.addAll(getMetadataIndex().get(inType.getName()));
+            // Check all persons.
+            resultList.addAll(getPersonIndex().get(inType.getName()));
         }
 
         return resultList;
@@ -1833,13 +1997,7 @@ public class DocStruct implements DocStructInterface, Serializable {
         }
 
         // Check all persons.
-        if (this.persons != null) {
-            for (PersonInterface per : this.persons) {
-                if (((Person) per).getType() != null && ((Person) per).getType().getName().equals(inType.getName())) {
-                    resultList.add(per);
-                }
-            }
-        }
+        resultList.addAll(getPersonIndex().get(inType.getName()));
 
         // List is empty.
         if (resultList.size() == 0) {
@@ -1941,21 +2099,7 @@ public class DocStruct implements DocStructInterface, Serializable {
     }
 
     private boolean hasMetadataGroup(String metadataGroupTypeName) {
-
-        if (this.allMetadataGroups != null) {
-            for (MetadataGroupInterface md : this.allMetadataGroups) {
-                MetadataGroupType mdt = ((MetadataGroup) md).getType();
-                if (mdt == null) {
-                    continue;
-                }
-                String name = mdt.getName();
-                if (name.equals(metadataGroupTypeName)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return getMetadataGroupIndex().count(metadataGroupTypeName) > 0;
     }
 
     /**
@@ -1970,6 +2114,19 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @return all meta-data group types that shall always be displayed
      */
     public List<MetadataTypeInterface> getDefaultDisplayMetadataTypes() {
+        MetadataTypeLists lists = getTypeLists();
+        if (lists.defaultDisplayMetadataTypes == null) {
+            lists.defaultDisplayMetadataTypes = MetadataTypeLists.keep(buildDefaultDisplayMetadataTypes());
+        }
+        return handOut(lists.defaultDisplayMetadataTypes);
+    }
+
+    /**
+     * Computes the result of {@link #getDefaultDisplayMetadataTypes()}.
+     *
+     * @return all meta-data group types that shall always be displayed
+     */
+    private List<MetadataTypeInterface> buildDefaultDisplayMetadataTypes() {
 
         List<MetadataTypeInterface> result = new LinkedList<MetadataTypeInterface>();
 
@@ -2020,34 +2177,7 @@ public class DocStruct implements DocStructInterface, Serializable {
     }
 
     private boolean hasMetadata(String metadataTypeName) {
-
-        if (this.allMetadata != null) {
-            for (MetadataInterface md : this.allMetadata) {
-                MetadataType mdt = ((Metadata) md).getType();
-                if (mdt == null) {
-                    continue;
-                }
-                String name = mdt.getName();
-                if (name.equals(metadataTypeName)) {
-                    return true;
-                }
-            }
-        }
-
-        if (this.persons != null) {
-            for (PersonInterface per : this.persons) {
-                MetadataType mdt = ((Person) per).getType();
-                if (mdt == null) {
-                    continue;
-                }
-                String name = mdt.getName();
-                if (name.equals(metadataTypeName)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return getMetadataIndex().count(metadataTypeName) > 0 || getPersonIndex().count(metadataTypeName) > 0;
     }
 
     /**
@@ -2056,49 +2186,92 @@ public class DocStruct implements DocStructInterface, Serializable {
      * returned from {@link MetadataType#getName()}.
      * <p>
      * This method does not only get the number of {@link Metadata} elements,
-     * but also the number of {@link Person} objects belonging to this instance.
+     * but also the number of {@link MetadataGroup} objects belonging to this
+     * instance. {@link Person} objects are not counted.
      *
      * @param inTypeName
      *            meta-data type name
      * @return number of meta-data elements
      */
     public int countMDofthisType(String inTypeName) {
+        // Persons have never been counted here, as the former implementation
+        // compared their MetadataType to the name. Counting them now would
+        // make addPerson() reject documents which could be read so far.
+        return getMetadataIndex().count(inTypeName) + getMetadataGroupIndex().count(inTypeName);
+    }
 
-        MetadataType testtype;
-        int counter = 0;
-
-        if (this.allMetadata != null) {
-            for (MetadataInterface md : this.allMetadata) {
-                testtype = ((Metadata) md).getType();
-                if (testtype != null && testtype.getName().equals(inTypeName)) {
-                    // Another one is available.
-                    counter++;
-                }
-            }
+    /**
+     * Returns the index of all meta-data by type name. It is rebuilt, if it
+     * does not exist yet or if it has been dropped, e.g. because the list of
+     * meta-data was changed directly.
+     *
+     * @return the meta-data index
+     */
+    @SuppressWarnings({"unchecked", "rawtypes" })
+    private TypeNameIndex<Metadata> getMetadataIndex() {
+        if (this.metadataIndex == null || !this.metadataIndex.isCurrent(this.allMetadata)) {
+            this.metadataIndex = new TypeNameIndex<Metadata>((List) this.allMetadata);
         }
+        return this.metadataIndex;
+    }
 
-        if (allMetadataGroups != null) {
-            for (MetadataGroupInterface mdg : allMetadataGroups) {
-                MetadataGroupType mgt = ((MetadataGroup) mdg).getType();
-                if (mgt != null && mgt.getName().equals(inTypeName)) {
-                    // Another one is available.
-                    counter++;
-                }
-            }
+    /**
+     * Returns the index of all persons by type name, see
+     * {@link #getMetadataIndex()}.
+     *
+     * @return the person index
+     */
+    @SuppressWarnings({"unchecked", "rawtypes" })
+    private TypeNameIndex<Person> getPersonIndex() {
+        if (this.personIndex == null || !this.personIndex.isCurrent(this.persons)) {
+            this.personIndex = new TypeNameIndex<Person>((List) this.persons);
+        }
+        return this.personIndex;
+    }
 
+    /**
+     * Returns the index of all meta-data groups by type name, see
+     * {@link #getMetadataIndex()}.
+     *
+     * @return the meta-data group index
+     */
+    @SuppressWarnings({"unchecked", "rawtypes" })
+    private TypeNameIndex<MetadataGroup> getMetadataGroupIndex() {
+        if (this.metadataGroupIndex == null || !this.metadataGroupIndex.isCurrent(this.allMetadataGroups)) {
+            this.metadataGroupIndex = new TypeNameIndex<MetadataGroup>((List) this.allMetadataGroups);
         }
+        return this.metadataGroupIndex;
+    }
 
-        if (this.persons != null) {
-            for (PersonInterface per : this.persons) {
-                testtype = ((Person) per).getType();
-                if (testtype != null && testtype.equals(inTypeName)) {
-                    // Another one is available.
-                    counter++;
-                }
-            }
+    /**
+     * Returns the memoized type lists of this instance. They are dropped, if
+     * this instance has been changed since they were computed.
+     *
+     * @return the type lists for the current state
+     */
+    private MetadataTypeLists getTypeLists() {
+        if (this.typeLists == null
+                || !this.typeLists.isCurrent(this.modificationCount, this.type, this.allMetadata, this.persons, this.allMetadataGroups)) {
+            this.typeLists = new MetadataTypeLists(this.modificationCount, this.type, this.allMetadata, this.persons, this.allMetadataGroups);
         }
+        return this.typeLists;
+    }
 
-        return counter;
+    /**
+     * Returns a memoized type list as it should be handed out. Callers may
+     * change the lists they get, so they get a copy, unless this instance has
+     * been frozen.
+     *
+     * @param list
+     *            a memoized type list
+     * @return null, if the list is empty, else a copy or an unmodifiable view
+     *         of it
+     */
+    private <T> List<T> handOut(List<T> list) {
+        if (list.isEmpty()) {
+            return null;
+        }
+        return this.frozen ? Collections.unmodifiableList(list) : new ArrayList<T>(list);
     }
 
     /**
@@ -2115,6 +2288,19 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public List<MetadataGroupTypeInterface> getAddableMetadataGroupTypes() {
+        MetadataTypeLists lists = getTypeLists();
+        if (lists.addableMetadataGroupTypes == null) {
+            lists.addableMetadataGroupTypes = MetadataTypeLists.keep(buildAddableMetadataGroupTypes());
+        }
+        return handOut(lists.addableMetadataGroupTypes);
+    }
+
+    /**
+     * Computes the result of {@link #getAddableMetadataGroupTypes()}.
+     *
+     * @return all meta-data group types that users can add to this instance
+     */
+    private List<MetadataGroupTypeInterface> buildAddableMetadataGroupTypes() {
 
         // If e.g. the topstruct has no Metadata, or something...
         if (this.type == null) {
@@ -2132,11 +2318,11 @@ public class DocStruct implements DocStructInterface, Serializable {
             // Metadata beginning with the HIDDEN_METADATA_CHAR are internal
             // metadata are not user addable.
             if (!mdt.getName().startsWith(HIDDEN_METADATA_CHAR)) {
-                String maxnumber = this.type.getNumberOfMetadataGroups(mdt);
+                DocStructType.Cardinality maxnumber = this.type.getCardinalityOfMetadataGroup(mdt);
 
                 // Metadata can only be available once; so we have to check if
                 // it is already available.
-                if (maxnumber.equals("1m") || maxnumber.equals("1o")) {
+                if (maxnumber == DocStructType.Cardinality.ONE_MANDATORY || maxnumber == DocStructType.Cardinality.ONE_OPTIONAL) {
                     // Check metadata here only.
                     List<? extends MetadataGroup> availableMD = this.getAllMetadataGroupsByType(mdt);
 
@@ -2171,6 +2357,19 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @return all meta-data group types that can be added to this instance
      */
     public List<MetadataGroupType> getPossibleMetadataGroupTypes() {
+        MetadataTypeLists lists = getTypeLists();
+        if (lists.possibleMetadataGroupTypes == null) {
+            lists.possibleMetadataGroupTypes = MetadataTypeLists.keep(buildPossibleMetadataGroupTypes());
+        }
+        return handOut(lists.possibleMetadataGroupTypes);
+    }
+
+    /**
+     * Computes the result of {@link #getPossibleMetadataGroupTypes()}.
+     *
+     * @return all meta-data group types that can be added to this instance
+     */
+    private List<MetadataGroupType> buildPossibleMetadataGroupTypes() {
         // If e.g. the topstruct has no Metadata, or something...
         if (this.type == null) {
             return null;
@@ -2184,11 +2383,11 @@ public class DocStruct implements DocStructInterface, Serializable {
         // if they are still addable.
         for (MetadataGroupType mdt : allTypes) {
 
-            String maxnumber = this.type.getNumberOfMetadataGroups(mdt);
+            DocStructType.Cardinality maxnumber = this.type.getCardinalityOfMetadataGroup(mdt);
 
             // Metadata can only be available once; so we have to check if
             // it is already available.
-            if (maxnumber.equals("1m") || maxnumber.equals("1o")) {
+            if (maxnumber == DocStructType.Cardinality.ONE_MANDATORY || maxnumber == DocStructType.Cardinality.ONE_OPTIONAL) {
                 // Check metadata here only.
                 List<? extends MetadataGroup> availableMD = this.getAllMetadataGroupsByType(mdt);
 
@@ -2224,6 +2423,19 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public List<MetadataTypeInterface> getAddableMetadataTypes() {
+        MetadataTypeLists lists = getTypeLists();
+        if (lists.addableMetadataTypes == null) {
+            lists.addableMetadataTypes = MetadataTypeLists.keep(buildAddableMetadataTypes());
+        }
+        return handOut(lists.addableMetadataTypes);
+    }
+
+    /**
+     * Computes the result of {@link #getAddableMetadataTypes()}.
+     *
+     * @return all meta-data types that users can add to this instance
+     */
+    private List<MetadataTypeInterface> buildAddableMetadataTypes() {
 
         // If e.g. the topstruct has no Metadata, or something...
         if (this.type == null) {
@@ -2241,11 +2453,11 @@ public class DocStruct implements DocStructInterface, Serializable {
             // Metadata beginning with the HIDDEN_METADATA_CHAR are internal
             // metadata are not user addable.
             if (!mdt.getName().startsWith(HIDDEN_METADATA_CHAR)) {
-                String maxnumber = this.type.getNumberOfMetadataType(mdt);
+                DocStructType.Cardinality maxnumber = this.type.getCardinalityOfMetadataType(mdt);
 
                 // Metadata can only be available once; so we have to check if
                 // it is already available.
-                if (maxnumber.equals("1m") || maxnumber.equals("1o")) {
+                if (maxnumber == DocStructType.Cardinality.ONE_MANDATORY || maxnumber == DocStructType.Cardinality.ONE_OPTIONAL) {
                     // Check metadata here only.
                     List<? extends Metadata> availableMD = this.getAllMetadataByType(mdt);
 
@@ -2298,6 +2510,19 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public List<MetadataTypeInterface> getPossibleMetadataTypes() {
+        MetadataTypeLists lists = getTypeLists();
+        if (lists.possibleMetadataTypes == null) {
+            lists.possibleMetadataTypes = MetadataTypeLists.keep(buildPossibleMetadataTypes());
+        }
+        return handOut(lists.possibleMetadataTypes);
+    }
+
+    /**
+     * Computes the result of {@link #getPossibleMetadataTypes()}.
+     *
+     * @return all meta-data types that can be added to this instance
+     */
+    private List<MetadataTypeInterface> buildPossibleMetadataTypes() {
         // If e.g. the topstruct has no Metadata, or something...
         if (this.type == null) {
             return null;
@@ -2311,11 +2536,11 @@ public class DocStruct implements DocStructInterface, Serializable {
         // if they are still addable.
         for (MetadataTypeInterface mdt : allTypes) {
 
-            String maxnumber = this.type.getNumberOfMetadataType(mdt);
+            DocStructType.Cardinality maxnumber = this.type.getCardinalityOfMetadataType(mdt);
 
             // Metadata can only be available once; so we have to check if
             // it is already available.
-            if (maxnumber.equals("1m") || maxnumber.equals("1o")) {
+            if (maxnumber == DocStructType.Cardinality.ONE_MANDATORY || maxnumber == DocStructType.Cardinality.ONE_OPTIONAL) {
                 // Check metadata here only.
                 List<? extends Metadata> availableMD = this.getAllMetadataByType(mdt);
 
@@ -2401,26 +2626,19 @@ public class DocStruct implements DocStructInterface, Serializable {
         }
 
         DocStructType childtype;
-        boolean allowed = false;
 
         // Check, if type of child is allowed.
         childtype = ((DocStruct) inchild).getType();
-        // Get all allowed types.
-        for (String tempType : this.type.getAllAllowedDocStructTypes()) {
-            if ((childtype.getName()).equals(tempType)) {
-                allowed = true;
-            }
-        }
-
-        if (!allowed) {
+        if (!deferValidation() && !this.type.isDocStructTypeAllowedAsChild(childtype)) {
             TypeNotAllowedAsChildException tnaace = new TypeNotAllowedAsChildException("Child of type '" + childtype.getName() + "' is not allowed for parent; unfortunately we don't have any information about the parent");
             logger.error("DocStruct type '" + childtype + "' not allowed as child of type '" + this.getType().getName() + "'");
             throw tnaace;
         }
 
+        beforeChange();
         // Create List for children, if not already available.
         if (this.children == null) {
-            this.children = new LinkedList<DocStructInterface>();
+            this.children = new ArrayList<DocStructInterface>();
         }
 
         // Set status to logical or physical.
@@ -2432,13 +2650,23 @@ public class DocStruct implements DocStructInterface, Serializable {
         }
 
         ((DocStruct) inchild).setParent(this);
+        if (getStringPool() != null) {
+            ((DocStruct) inchild).internValues(getStringPool());
+        }
 
+        int position;
         if (index == null) {
             // Add child to end of List.
+            position = children.size();
             children.add(inchild);
         } else {
-            children.add(index.intValue(), inchild);
+            position = index.intValue();
+            children.add(position, inchild);
         }
+        if (this.childPositions != null) {
+            this.childPositions.added(this.children, position);
+        }
+        childrenChanged();
 
         // Child was added.
     }
@@ -2482,7 +2710,12 @@ public class DocStruct implements DocStructInterface, Serializable {
     @Override
     public void removeChild(DocStructInterface inchild) {
 
-        if (this.children.remove(inchild)) {
+        int position = getChildPosition(inchild);
+        if (position >= 0) {
+            beforeChange();
+            this.children.remove(position);
+            this.childPositions.removed(inchild, position);
+            childrenChanged();
             // Delete reference to parent.
             ((DocStruct) inchild).setParent(null);
             // It's not in the logical tree anymore.
@@ -2514,24 +2747,22 @@ public class DocStruct implements DocStructInterface, Serializable {
         if (position < 0) {
             return false;
         }
-        if (position > this.children.size()) {
-            position = this.children.size();
-        }
         // Remove child first.
-        if (!this.children.remove(inchild)) {
+        int oldPosition = getChildPosition(inchild);
+        if (oldPosition < 0) {
             return false;
         }
+        beforeChange();
+        this.children.remove(oldPosition);
+        this.childPositions.removed(inchild, oldPosition);
+        if (position > this.children.size()) {
+            position = this.children.size();
+        }
 
         // Add to the new position.
-        try {
-            this.children.add(position, inchild);
-        } catch (UnsupportedOperationException uoe) {
-            return false;
-        } catch (ClassCastException cce) {
-            return false;
-        } catch (IllegalArgumentException iae) {
-            return false;
-        }
+        this.children.add(position, inchild);
+        this.childPositions.added(this.children, position);
+        childrenChanged();
 
         return true;
     }
@@ -2548,20 +2779,14 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     public boolean moveChildafter(DocStruct inchild, DocStruct below) {
 
-        DocStruct test;
-
-        for (int i = 0; i < this.children.size(); ++i) {
-            test = (DocStruct) this.children.get(i);
-            // Child found.
-            if (test.equals(below)) {
-                if (moveChild(inchild, i + 1)) {
-                    return true;
-                }
-                return false;
-            }
+        int position = getChildPosition(below);
+        int oldPosition = getChildPosition(inchild);
+        if (position < 0 || oldPosition < 0) {
+            return false;
         }
 
-        return false;
+        // The positions behind the moved child shift when it is removed.
+        return moveChild(inchild, oldPosition < position ? position : position + 1);
     }
 
     /**
@@ -2576,20 +2801,14 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     public boolean moveChildbefore(DocStruct inchild, DocStruct above) {
 
-        DocStruct test;
-
-        for (int i = 0; i < this.children.size(); ++i) {
-            test = (DocStruct) this.children.get(i);
-            // Child found.
-            if (test.equals(above)) {
-                if (moveChild(inchild, i)) {
-                    return true;
-                }
-                return false;
-            }
+        int position = getChildPosition(above);
+        int oldPosition = getChildPosition(inchild);
+        if (position < 0 || oldPosition < 0) {
+            return false;
         }
 
-        return false;
+        // The positions behind the moved child shift when it is removed.
+        return moveChild(inchild, oldPosition < position ? position - 1 : position);
     }
 
     /**
@@ -2600,18 +2819,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @return position, or {@code -1} if child is not in the list
      */
     public int getPositionofChild(DocStruct inchild) {
-
-        DocStruct test;
-
-        for (int i = 0; i < this.children.size(); ++i) {
-            test = (DocStruct) this.children.get(i);
-            // Child found.
-            if (test.equals(inchild)) {
-                return i;
-            }
-        }
-
-        return -1;
+        return getChildPosition(inchild);
     }
 
     /**
@@ -2627,25 +2835,13 @@ public class DocStruct implements DocStructInterface, Serializable {
     @Override
     public DocStructInterface getNextChild(DocStructInterface inChild) {
 
-        DocStruct nextchild;
-        DocStruct test;
-
-        for (int i = 0; i < this.children.size(); ++i) {
-            test = (DocStruct) this.children.get(i);
-            // Child found.
-            if (test.equals(inChild)) {
-                if (i != this.children.size()) {
-                    nextchild = (DocStruct) this.children.get(i + 1);
-                    return nextchild;
-                }
-
-                // This is already the last child.
-                return null;
-            }
+        int position = getChildPosition(inChild);
+        // inChild is not member of children, or already the last child.
+        if (position < 0 || position + 1 >= this.children.size()) {
+            return null;
         }
 
-        // inChild is not member of children.
-        return null;
+        return this.children.get(position + 1);
     }
 
     /**
@@ -2660,25 +2856,554 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     public DocStruct getPreviousChild(DocStruct inChild) {
 
-        DocStruct prevchild;
-        DocStruct test;
+        int position = getChildPosition(inChild);
+        // inChild is not member of children, or already the first child.
+        if (position <= 0) {
+            return null;
+        }
 
-        for (int i = 0; i < this.children.size(); ++i) {
-            test = (DocStruct) this.children.get(i);
-            // CHild found.
-            if (test.equals(inChild)) {
-                if (i != 0) {
-                    prevchild = (DocStruct) this.children.get(i - 1);
-                    return prevchild;
-                }
+        return (DocStruct) this.children.get(position - 1);
+    }
 
-                // This is already the last child.
-                return null;
+    /**
+     * Notifies the digital document that the children of this instance have
+     * changed.
+     */
+    private void childrenChanged() {
+        if (this.digdoc != null) {
+            this.digdoc.childrenChanged(this);
+        }
+    }
+
+    /**
+     * Notifies the digital document that the type or the meta-data of this
+     * instance have changed.
+     */
+    void metadataChanged() {
+        if (this.digdoc != null) {
+            this.digdoc.docStructChanged();
+        }
+    }
+
+    /**
+     * Notifies this instance that the type of one of its meta-data, persons
+     * or meta-data groups has changed. The entry is still filed under its
+     * old type name, so the matching index is rebuilt on next use.
+     *
+     * @param part
+     *            the Metadata, Person or MetadataGroup whose type has changed
+     */
+    void metadataTypeChanged(Object part) {
+        if (part instanceof Person) {
+            if (this.personIndex != null) {
+                this.personIndex.invalidate();
+            }
+        } else if (part instanceof Metadata) {
+            if (this.metadataIndex != null) {
+                this.metadataIndex.invalidate();
+            }
+        } else if (part instanceof MetadataGroup) {
+            if (this.metadataGroupIndex != null) {
+                this.metadataGroupIndex.invalidate();
             }
         }
+        metadataChanged();
+    }
 
-        // inChild is not member of children.
-        return null;
+    /**
+     * Notifies the digital document that this instance is about to be
+     * changed, so that its open snapshots can keep its state.
+     */
+    private void beforeChange() {
+        beforeChange(this);
+    }
+
+    /**
+     * Notifies the digital document that an object of this instance is about
+     * to be changed, so that its open snapshots can keep its state.
+     *
+     * @param part
+     *            a DocStruct, Metadata, MetadataGroup, ContentFile or FileSet
+     */
+    void beforeChange(Object part) {
+        checkNotFrozen();
+        invalidateContentHash();
+        this.modificationCount++;
+        if (this.digdoc != null) {
+            this.digdoc.beforeChange(part);
+        }
+    }
+
+    /**
+     * Returns the intern pool of the document of this instance.
+     *
+     * @return the pool, or null, if the document does not use compact storage
+     * @see DigitalDocument#setCompactStorage(boolean)
+     */
+    StringPool getStringPool() {
+        return this.digdoc == null ? null : this.digdoc.getStringPool();
+    }
+
+    /**
+     * Replaces the values of the meta-data, persons and meta-data groups of
+     * this instance and its descendants by the equal instances of the pool, or
+     * adds them to it.
+     *
+     * @param pool
+     *            intern pool of the document
+     */
+    void internValues(StringPool pool) {
+        if (this.allMetadata != null) {
+            for (MetadataInterface metadata : this.allMetadata) {
+                ((Metadata) metadata).internValues(pool);
+            }
+        }
+        if (this.persons != null) {
+            for (PersonInterface person : this.persons) {
+                ((Person) person).internValues(pool);
+            }
+        }
+        if (this.allMetadataGroups != null) {
+            for (MetadataGroupInterface group : this.allMetadataGroups) {
+                ((MetadataGroup) group).internValues(pool);
+            }
+        }
+        if (this.children != null) {
+            for (DocStructInterface child : this.children) {
+                ((DocStruct) child).internValues(pool);
+            }
+        }
+    }
+
+    /**
+     * Adds a meta-data element to this new instance without checking it
+     * against the {@code DocStructType}. Used by the
+     * {@link PaginationBuilder}, which checks the types once for all pages.
+     *
+     * @param metadata
+     *            meta-data element, whose type has been checked by the caller
+     */
+    void addCheckedMetadata(Metadata metadata) {
+        checkNotFrozen();
+        metadata.myDocStruct = this;
+        if (this.allMetadata == null) {
+            this.allMetadata = new ArrayList<MetadataInterface>(2);
+        }
+        this.allMetadata.add(metadata);
+        if (this.metadataIndex != null) {
+            this.metadataIndex.add(metadata);
+        }
+    }
+
+    /**
+     * Links a content file, which is not yet linked to any instance, to this
+     * new instance. The file is not added to the {@link FileSet}. Used by the
+     * {@link PaginationBuilder}.
+     *
+     * @param contentFile
+     *            the new content file
+     */
+    void addNewContentFile(ContentFile contentFile) {
+        checkNotFrozen();
+        ContentFileReference cfr = new ContentFileReference();
+        cfr.setCf(contentFile);
+        if (this.contentFileReferences == null) {
+            this.contentFileReferences = new ArrayList<ContentFileReference>(1);
+        }
+        this.contentFileReferences.add(cfr);
+        contentFile.addDocStructAsReference(this);
+    }
+
+    /**
+     * Appends new children, which do not have a parent yet, in one pass. The
+     * types of the children are not checked; this must have been done by the
+     * caller, see {@link PaginationBuilder}. The list of children is pre-sized
+     * and the digital document is notified only once.
+     *
+     * @param newChildren
+     *            children without a parent
+     */
+    void appendCheckedChildren(List<DocStruct> newChildren) {
+
+        beforeChange();
+        if (this.children == null) {
+            this.children = new ArrayList<DocStructInterface>(newChildren.size());
+        } else if (this.children instanceof ArrayList) {
+            ((ArrayList<DocStructInterface>) this.children).ensureCapacity(this.children.size() + newChildren.size());
+        }
+
+        StringPool pool = getStringPool();
+        for (DocStruct child : newChildren) {
+            child.setLogical(this.logical);
+            child.setPhysical(this.physical);
+            child.parent = this;
+            if (pool != null) {
+                child.internValues(pool);
+            }
+            this.children.add(child);
+            if (this.childPositions != null) {
+                this.childPositions.added(this.children, this.children.size() - 1);
+            }
+        }
+        childrenChanged();
+    }
+
+    /**
+     * Returns this instance and its descendants in pre-order, that is each
+     * instance before its children. The tree is traversed without recursion.
+     *
+     * @return an iterable, whose iterators are {@link DocStructTraversal}s
+     */
+    public Iterable<DocStruct> preOrder() {
+        return new Iterable<DocStruct>() {
+            @Override
+            public Iterator<DocStruct> iterator() {
+                return new DocStructTraversal(Collections.singletonList(DocStruct.this));
+            }
+        };
+    }
+
+    /**
+     * Returns this instance and its descendants in post-order, that is each
+     * instance after its children. The tree is traversed without recursion.
+     *
+     * @return an iterable over this instance and its descendants
+     */
+    public Iterable<DocStruct> postOrder() {
+        return new Iterable<DocStruct>() {
+            @Override
+            public Iterator<DocStruct> iterator() {
+                return new PostOrderIterator(DocStruct.this);
+            }
+        };
+    }
+
+    /**
+     * Returns whether the checks of the types and numbers of meta-data,
+     * persons and children are deferred, because a batch is open on the
+     * digital document. In this case, this instance is noted to be checked
+     * when the batch is committed.
+     *
+     * @return true, if the checks are deferred
+     * @see DigitalDocument#beginBatch()
+     */
+    private boolean deferValidation() {
+        if (this.digdoc == null || !this.digdoc.isBatchOpen()) {
+            return false;
+        }
+        this.digdoc.batchChanged(this);
+        return true;
+    }
+
+    /**
+     * Checks the meta-data, persons, meta-data groups and children of this
+     * instance against its {@code DocStructType}, as {@code addMetadata()},
+     * {@code addPerson()}, {@code addMetadataGroup()} and {@code addChild()}
+     * do. Used when a batch is committed.
+     *
+     * @param violations
+     *            list to add a message for each violation to
+     * @see DigitalDocument#commitBatch()
+     */
+    void collectViolations(List<String> violations) {
+
+        if (this.type == null) {
+            return;
+        }
+        String where = " for DocStruct '" + this.type.getName() + "'";
+
+        Set<String> checked = new HashSet<String>();
+        if (this.allMetadata != null) {
+            for (MetadataInterface metadata : this.allMetadata) {
+                MetadataType mdType = ((Metadata) metadata).getType();
+                if (mdType == null || mdType.getName().startsWith(HIDDEN_METADATA_CHAR) || !checked.add(mdType.getName())) {
+                    continue;
+                }
+                MetadataType prefsMdType = this.type.getMetadataTypeByType(mdType);
+                if (prefsMdType == null) {
+                    violations.add("Metadata of type '" + mdType.getName() + "' not allowed" + where);
+                } else {
+                    int number = countMDofthisType(mdType.getName());
+                    if (!this.type.getCardinalityOfMetadataType(prefsMdType).allowsAnother(number - 1)) {
+                        violations.add(number + " metadata of type '" + mdType.getName() + "' exceed the allowed number" + where);
+                    }
+                }
+            }
+        }
+        // Persons are not counted, see countMDofthisType().
+        Set<String> checkedPersons = new HashSet<String>();
+        if (this.persons != null) {
+            for (PersonInterface person : this.persons) {
+                MetadataType mdType = ((Person) person).getType();
+                if (mdType != null && this.type.getMetadataTypeByType(mdType) == null && checkedPersons.add(mdType.getName())) {
+                    violations.add("Person of type '" + mdType.getName() + "' not allowed" + where);
+                }
+            }
+        }
+        if (this.allMetadataGroups != null) {
+            for (MetadataGroupInterface group : this.allMetadataGroups) {
+                MetadataGroupType groupType = ((MetadataGroup) group).getType();
+                if (groupType == null || groupType.getName().startsWith(HIDDEN_METADATA_CHAR) || !checked.add(groupType.getName())) {
+                    continue;
+                }
+                MetadataGroupType prefsGroupType = this.type.getMetadataGroupByGroup(groupType);
+                if (prefsGroupType == null) {
+                    violations.add("Metadata group of type '" + groupType.getName() + "' not allowed" + where);
+                } else {
+                    int number = countMDofthisType(groupType.getName());
+                    if (!this.type.getCardinalityOfMetadataGroup(prefsGroupType).allowsAnother(number - 1)) {
+                        violations.add(number + " metadata groups of type '" + groupType.getName() + "' exceed the allowed number" + where);
+                    }
+                }
+            }
+        }
+        if (this.children != null) {
+            Set<DocStructType> childTypes = new HashSet<DocStructType>();
+            for (DocStructInterface child : this.children) {
+                DocStructType childType = ((DocStruct) child).getType();
+                if (childType != null && childTypes.add(childType) && !this.type.isDocStructTypeAllowedAsChild(childType)) {
+                    violations.add("DocStruct type '" + childType.getName() + "' not allowed as child of DocStruct '" + this.type.getName() + "'");
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes this instance and its descendants read-only, together with their
+     * meta-data, persons, meta-data groups and content files. The lists are
+     * compacted into array lists; the getters return unmodifiable views of
+     * them and the mutators throw an {@code UnsupportedOperationException}
+     * afterwards. The lazily built indexes, the content hash and the type
+     * lists are built in advance, so that reading does not change any state.
+     *
+     * @see DigitalDocument#freeze()
+     */
+    void freeze() {
+
+        if (this.frozen) {
+            return;
+        }
+
+        this.allMetadata = compact(this.allMetadata);
+        this.persons = compact(this.persons);
+        this.allMetadataGroups = compact(this.allMetadataGroups);
+        this.children = compact(this.children);
+        this.contentFileReferences = compact(this.contentFileReferences);
+        this.techMdList = compact(this.techMdList);
+        ((ArrayList<ReferenceInterface>) this.docStructRefsTo).trimToSize();
+        ((ArrayList<ReferenceInterface>) this.docStructRefsFrom).trimToSize();
+
+        if (this.allMetadata != null) {
+            for (MetadataInterface metadata : this.allMetadata) {
+                ((Metadata) metadata).freeze();
+            }
+        }
+        if (this.persons != null) {
+            for (PersonInterface person : this.persons) {
+                ((Person) person).freeze();
+            }
+        }
+        if (this.allMetadataGroups != null) {
+            for (MetadataGroupInterface group : this.allMetadataGroups) {
+                ((MetadataGroup) group).freeze();
+            }
+        }
+        if (this.contentFileReferences != null) {
+            for (ContentFileReference cfr : this.contentFileReferences) {
+                if (cfr.getCf() != null) {
+                    cfr.getCf().freeze();
+                }
+            }
+        }
+        if (this.children != null) {
+            for (DocStructInterface child : this.children) {
+                ((DocStruct) child).freeze();
+            }
+        }
+
+        // Build the lazy indexes now, they must not be built by concurrent
+        // readers.
+        getMetadataIndex();
+        getPersonIndex();
+        getMetadataGroupIndex();
+        if (this.children != null && !this.children.isEmpty()) {
+            getChildPosition(this.children.get(0));
+        }
+        getContentHash();
+        getAddableMetadataTypes();
+        getPossibleMetadataTypes();
+        getAddableMetadataGroupTypes();
+        getPossibleMetadataGroupTypes();
+        getDefaultDisplayMetadataTypes();
+
+        this.frozen = true;
+    }
+
+    /**
+     * Returns whether this instance has been frozen.
+     *
+     * @return true, if this instance is read-only
+     * @see DigitalDocument#freeze()
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /**
+     * Returns a list of this instance as it should be handed out.
+     *
+     * @param list
+     *            a list of this instance, may be null
+     * @return the list, or an unmodifiable view of it, if this instance has
+     *         been frozen
+     */
+    private <T> List<T> readOnly(List<T> list) {
+        return this.frozen && list != null ? Collections.unmodifiableList(list) : list;
+    }
+
+    /**
+     * Returns a list of meta-data, persons or meta-data groups of this
+     * instance as it should be handed out: an unmodifiable view, if this
+     * instance has been frozen, else a view which notices changes, so that
+     * they are handled like changes made by the methods of this instance.
+     *
+     * @param list
+     *            the meta-data, person or meta-data group list
+     * @return the view
+     */
+    private <T> List<T> observed(final List<T> list) {
+        if (this.frozen) {
+            return readOnly(list);
+        }
+        return new ObservedList<T>(list, new ObservedList.Listener() {
+            @Override
+            public void beforeChange() {
+                listChanged(list);
+            }
+        });
+    }
+
+    /**
+     * Notes a direct change of a list handed out by {@link #observed(List)},
+     * before it is made. The index of the list is rebuilt on next use.
+     *
+     * @param list
+     *            the list about to be changed
+     */
+    private void listChanged(List<?> list) {
+        beforeChange();
+        if (list == this.allMetadata) {
+            this.metadataIndex = null;
+        } else if (list == this.persons) {
+            this.personIndex = null;
+        } else if (list == this.allMetadataGroups) {
+            this.metadataGroupIndex = null;
+        }
+        metadataChanged();
+    }
+
+    /**
+     * Copies a list into an array list of the exact size.
+     *
+     * @param list
+     *            list to copy, may be null
+     * @return the copy, or null
+     */
+    private static <T> List<T> compact(List<T> list) {
+        return list == null ? null : new ArrayList<T>(list);
+    }
+
+    /**
+     * Throws an exception, if this instance has been frozen.
+     *
+     * @throws UnsupportedOperationException
+     *             if this instance is read-only
+     */
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("DocStruct '" + (this.type == null ? null : this.type.getName())
+                    + "' belongs to a frozen DigitalDocument and can not be modified");
+        }
+    }
+
+    /**
+     * Returns a hash of the content of this instance and its descendants. It
+     * covers the type, the logical and physical flags, the anchor reference,
+     * the meta-data, persons and meta-data groups regardless of their order,
+     * the content files in order and the children in order, each with their
+     * own content hash. References are not covered, see
+     * {@link DigitalDocument#getContentHash()}.
+     * <p>
+     * The hash is computed on first use and kept until this instance or one
+     * of its descendants, meta-data or content files is changed. Changes made
+     * directly to the lists of children and content files returned by this
+     * class are not noticed.
+     *
+     * @return the content hash
+     */
+    public long getContentHash() {
+
+        if (this.contentHashValid) {
+            return this.contentHash;
+        }
+
+        long hash = ContentHash.start(ContentHash.DOC_STRUCT);
+        hash = ContentHash.add(hash, this.type == null ? null : this.type.getName());
+        hash = ContentHash.add(hash, this.logical);
+        hash = ContentHash.add(hash, this.physical);
+        hash = ContentHash.add(hash, this.referenceToAnchor);
+        hash = ContentHash.add(hash, ContentHash.unordered(this.allMetadata));
+        hash = ContentHash.add(hash, ContentHash.unordered(this.persons));
+        hash = ContentHash.add(hash, ContentHash.unordered(this.allMetadataGroups));
+        if (this.contentFileReferences != null) {
+            for (ContentFileReference cfr : this.contentFileReferences) {
+                hash = ContentHash.add(hash, cfr.getCf() == null ? 0L : cfr.getCf().getContentHash());
+                ContentFileArea area = cfr.getCfa();
+                if (area != null) {
+                    hash = ContentHash.add(hash, area.getType());
+                    hash = ContentHash.add(hash, area.getFrom());
+                    hash = ContentHash.add(hash, area.getTo());
+                }
+            }
+        }
+        if (this.children != null) {
+            for (DocStructInterface child : this.children) {
+                hash = ContentHash.add(hash, ((DocStruct) child).getContentHash());
+            }
+        }
+
+        this.contentHash = hash;
+        this.contentHashValid = true;
+        return hash;
+    }
+
+    /**
+     * Drops the content hashes of this instance and its ancestors. Ancestors
+     * of an instance without a valid hash never have a valid hash either, so
+     * the walk stops there.
+     */
+    void invalidateContentHash() {
+        for (DocStruct docStruct = this; docStruct != null && docStruct.contentHashValid; docStruct = docStruct.parent) {
+            docStruct.contentHashValid = false;
+        }
+    }
+
+    /**
+     * Returns the position of a child, using the index of the children.
+     * Children are compared by identity.
+     *
+     * @param child
+     *            child to look for
+     * @return position, or {@code -1} if it is not a child of this instance
+     */
+    private int getChildPosition(Object child) {
+        if (this.children == null) {
+            return -1;
+        }
+        if (this.childPositions == null) {
+            this.childPositions = new PositionIndex();
+        }
+        return this.childPositions.indexOf(this.children, child);
     }
 
     /**
@@ -2692,20 +3417,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public boolean isDocStructTypeAllowedAsChild(DocStructTypeInterface inType) {
-
-        List<String> allTypes = this.type.getAllAllowedDocStructTypes();
-        String typename = inType.getName();
-        String testname;
-
-        for (int i = 0; i < allTypes.size(); ++i) {
-            testname = allTypes.get(i);
-            // Jep, it's in here.
-            if (testname.equals(typename)) {
-                return true;
-            }
-        }
-
-        return false;
+        return this.type.isDocStructTypeAllowedAsChild(inType);
     }
 
     /**
@@ -2722,19 +3434,10 @@ public class DocStruct implements DocStructInterface, Serializable {
         // How many metadata of this type do we have already.
         int typesavailable = countMDofthisType(inMDType.getName());
         // How many types must be at least available.
-        String maxnumbersallowed = this.type.getNumberOfMetadataGroups(inMDType);
+        DocStructType.Cardinality maxnumbersallowed = this.type.getCardinalityOfMetadataGroup(inMDType);
 
-        if (typesavailable == 1 && maxnumbersallowed.equals("+")) {
-            // There must be at least one.
-            return false;
-        }
-
-        if (typesavailable == 1 && maxnumbersallowed.equals("1m")) {
-            // There must be at least one.
-            return false;
-        }
-
-        return true;
+        // There must be at least one for "+" and "1m".
+        return maxnumbersallowed.allowsRemoval(typesavailable);
     }
 
     /**
@@ -2755,26 +3458,17 @@ public class DocStruct implements DocStructInterface, Serializable {
         // How many metadata of this type do we have already.
         int typesavailable = countMDofthisType(inMDType.getName());
         // How many types must be at least available.
-        String maxnumbersallowed = this.type.getNumberOfMetadataType(inMDType);
+        DocStructType.Cardinality maxnumbersallowed = this.type.getCardinalityOfMetadataType(inMDType);
 
-        if (typesavailable == 1 && maxnumbersallowed.equals("+")) {
-            // There must be at least one.
-            return false;
-        }
-
-        if (typesavailable == 1 && maxnumbersallowed.equals("1m")) {
-            // There must be at least one.
-            return false;
-        }
-
-        return true;
+        // There must be at least one for "+" and "1m".
+        return maxnumbersallowed.allowsRemoval(typesavailable);
     }
 
     @Override
     public void addPerson(PersonInterface in) throws MetadataTypeNotAllowedException, IncompletePersonObjectException {
 
         // Max number of persons (from configuration).
-        String maxnumberallowed = null;
+        DocStructType.Cardinality maxnumberallowed = null;
         // Number of persons currently available.
         int number = 0;
         // Store, wether we can or cannot add information.
@@ -2790,43 +3484,40 @@ public class DocStruct implements DocStructInterface, Serializable {
         // Get MetadataType of this person get MetadataType from docstructType
         // object with the same name.
         MetadataType mdtype = this.type.getMetadataTypeByType(((Person) in).getType());
-        if (mdtype == null) {
-            MetadataTypeNotAllowedException mtnae = new MetadataTypeNotAllowedException();
-            logger.error("MetadataType " + ((Person) in).getType().getName() + " is not available for DocStruct '" + this.getType().getName() + "'");
-            throw mtnae;
-        }
-
-        // Check, if docstruct may have this person ??? depends on the role
-        // value of person.
-        maxnumberallowed = this.type.getNumberOfMetadataType(mdtype);
-
-        // Check, if another Person of this type is allowed. How many persons
-        // are already available.
-        number = countMDofthisType(mdtype.getName());
-
-        // As many as we want (zero or more).
-        if (maxnumberallowed.equals("*")) {
-            insert = true;
-        }
-        // One or more.
-        if (maxnumberallowed.equals("+") || maxnumberallowed.equals("+")) {
+        if (deferValidation()) {
+            // Checked when the batch is committed.
             insert = true;
-        }
-        // Only one, if we have already one, we cannot add it.
-        if (maxnumberallowed.equals("1m") || maxnumberallowed.equals("1o")) {
-            if (number < 1) {
-                insert = true;
-            } else {
-                insert = false;
+        } else {
+            if (mdtype == null) {
+                MetadataTypeNotAllowedException mtnae = new MetadataTypeNotAllowedException();
+                logger.error("MetadataType " + ((Person) in).getType().getName() + " is not available for DocStruct '" + this.getType().getName() + "'");
+                throw mtnae;
             }
+
+            // Check, if docstruct may have this person ??? depends on the role
+            // value of person.
+            maxnumberallowed = this.type.getCardinalityOfMetadataType(mdtype);
+
+            // Check, if another Person of this type is allowed. How many persons
+            // are already available.
+            number = countMDofthisType(mdtype.getName());
+            insert = maxnumberallowed.allowsAnother(number);
         }
 
         // We can add this person.
         if (insert) {
+            beforeChange();
+            // Set this document structure as the DocStruct of the person.
+            ((Person) in).setDocStruct(this);
+            if (getStringPool() != null) {
+                ((Person) in).internValues(getStringPool());
+            }
+            TypeNameIndex<Person> index = getPersonIndex();
             if (this.persons == null) {
                 this.persons = new LinkedList<PersonInterface>();
             }
             this.persons.add(in);
+            index.add((Person) in);
 
             return;
         }
@@ -2854,12 +3545,20 @@ public class DocStruct implements DocStructInterface, Serializable {
             throw new IncompletePersonObjectException("Incomplete person: MetadataType is null");
         }
 
-        this.persons.remove(in);
+        beforeChange();
+        beforeChange(in);
+        ((Person) in).myDocStruct = null;
+        TypeNameIndex<Person> index = getPersonIndex();
+        if (this.persons.remove(in)) {
+            index.remove((Person) in);
+        }
     }
 
     /**
      * Returns a list of all persons. If no {@link Person} objects are
-     * available, {@code null} is returned.
+     * available, {@code null} is returned. Changes made to the returned list
+     * are noticed like changes made by the methods of this instance; they are
+     * not checked against the DocStructType, though.
      *
      * @return all persons
      */
@@ -2870,7 +3569,7 @@ public class DocStruct implements DocStructInterface, Serializable {
             return null;
         }
 
-        return this.persons;
+        return observed(this.persons);
     }
 
     public boolean isLogical() {
@@ -2879,6 +3578,11 @@ public class DocStruct implements DocStructInterface, Serializable {
 
     public void setLogical(boolean logical) {
 
+        checkNotFrozen();
+
+        if (this.logical != logical) {
+            beforeChange();
+        }
         this.logical = logical;
 
         List<DocStructInterface> childList = this.getAllChildren();
@@ -2904,7 +3608,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Deprecated
     public void setOrig_object(Object theOrigObject) {
-        this.origObject = theOrigObject;
+        setOrigObject(theOrigObject);
     }
 
     public Object getOrigObject() {
@@ -2912,6 +3616,7 @@ public class DocStruct implements DocStructInterface, Serializable {
     }
 
     public void setOrigObject(Object theOrigObject) {
+        beforeChange();
         this.origObject = theOrigObject;
     }
 
@@ -2921,6 +3626,11 @@ public class DocStruct implements DocStructInterface, Serializable {
 
     public void setPhysical(boolean physical) {
 
+        checkNotFrozen();
+
+        if (this.physical != physical) {
+            beforeChange();
+        }
         this.physical = physical;
 
         List<DocStructInterface> childList = this.getAllChildren();
@@ -2958,7 +3668,6 @@ public class DocStruct implements DocStructInterface, Serializable {
         // set.
         List<MetadataTypeInterface> dmt = this.getDefaultDisplayMetadataTypes();
 
-        List<MetadataInterface> allMDs = this.getAllMetadata();
         // No default metadata.
         if (dmt == null) {
             return null;
@@ -2969,20 +3678,8 @@ public class DocStruct implements DocStructInterface, Serializable {
         while (mdtIterator.hasNext()) {
             MetadataType mdt = (MetadataType) mdtIterator.next();
 
-            // Check, if mdt is already in the allMDs Metadata list.
-            boolean notIncluded = true;
-            for (int i = 0; i < allMDs.size(); i++) {
-                Metadata md = (Metadata) allMDs.get(i);
-                MetadataType mdt2 = md.getType();
-
-                // Compare the display MetadataType and the type of current
-                // Metadata.
-                if (mdt.getName().equals(mdt2.getName())) {
-                    // Is included; need not to be displayed seperatly.
-                    notIncluded = false;
-                    break;
-                }
-            }
+            // Check, if mdt is already in the Metadata list.
+            boolean notIncluded = getMetadataIndex().count(mdt.getName()) == 0;
 
             // Create new Metadata or Person element.
             if (notIncluded) {
@@ -3086,6 +3783,8 @@ public class DocStruct implements DocStructInterface, Serializable {
     @Override
     public void deleteUnusedPersonsAndMetadata() {
 
+        beforeChange();
+
         // Handle Persons first: Person objects are available.
         if (this.getAllPersons() != null) {
             List<PersonInterface> personlist = this.getAllPersons();
@@ -3141,8 +3840,10 @@ public class DocStruct implements DocStructInterface, Serializable {
     }
 
     /**
-     * Sorts the meta-data and persons in this instance according to their
-     * occurrence in the {@code Preferences} file.
+     * Sorts the meta-data, persons and meta-data groups in this instance
+     * according to their occurrence in the {@code Preferences} file. The sort
+     * is stable; entries of types not defined for the DocStructType keep their
+     * order at the end.
      *
      * @param thePrefs
      *            preferences file to use for sorting
@@ -3150,19 +3851,7 @@ public class DocStruct implements DocStructInterface, Serializable {
     @SuppressWarnings({"unchecked", "rawtypes" })
     public synchronized void sortMetadata(Prefs thePrefs) {
 
-        List<MetadataInterface> newMetadata = new LinkedList<MetadataInterface>();
-        List<PersonInterface> newPersons = new LinkedList<PersonInterface>();
-        List<Metadata> oldMetadata = new LinkedList<Metadata>();
-        List<Person> oldPersons = new LinkedList<Person>();
-
-        if (this.allMetadata != null) {
-            oldMetadata = new LinkedList<Metadata>((Collection) this.allMetadata);
-        }
-        if (this.persons != null) {
-            oldPersons = new LinkedList<Person>((Collection) this.persons);
-        }
-
-        // Get all MetadataTypes defined in the prefs for this DocStruct.
+        // Get the DocStructType defined in the prefs for this DocStruct.
         DocStructType docStructType = thePrefs.getDocStrctTypeByName(this.getType().getName());
 
         // If the DocStructType is NOT existing, we have no metadata to sort,
@@ -3171,51 +3860,32 @@ public class DocStruct implements DocStructInterface, Serializable {
             return;
         }
 
-        List<MetadataTypeInterface> prefsMetadataTypeList = docStructType.getAllMetadataTypes();
-
-        // Iterate over all that metadata types.
-        for (MetadataTypeInterface mType : prefsMetadataTypeList) {
-
-            // Go through all persons of the current DocStruct.
-            List<PersonInterface> op = this.getAllPersons();
-            if (op != null && !op.isEmpty()) {
-                for (PersonInterface p : op) {
-                    if (((Person) p).getType() != null && mType.getName().equals(((Person) p).getType().getName())) {
-                        // Add to the new list and remove from the old, if names
-                        // do match.
-                        newPersons.add(p);
-                        oldPersons.remove(p);
-                    }
-                }
-            }
-
-            // Go through all metadata of the curretn DocStruct.
-            List<MetadataInterface> om = this.getAllMetadata();
-            if (om != null && !om.isEmpty()) {
-                for (MetadataInterface m : om) {
-                    if (mType.getName().equals(((Metadata) m).getType().getName())) {
-                        // Add to the new list and remove from the old, if names
-                        // do match.
-                        newMetadata.add(m);
-                        oldMetadata.remove(m);
-                    }
-                }
-            }
-        }
-
-        // Add left-over types.
-        if (oldPersons != null && oldPersons.size() > 0) {
-            newPersons.addAll(oldPersons);
+        // Sort by the positions of the types in the DocStructType, which are
+        // computed once per DocStructType.
+        RankComparator metadataOrder = new RankComparator(docStructType.getMetadataRanks());
+        List<MetadataInterface> newMetadata = new LinkedList<MetadataInterface>();
+        List<PersonInterface> newPersons = new LinkedList<PersonInterface>();
+        if (this.allMetadata != null) {
+            newMetadata.addAll(this.allMetadata);
+            Collections.sort((List) newMetadata, metadataOrder);
         }
-        if (oldMetadata != null && oldMetadata.size() > 0) {
-            newMetadata.addAll(oldMetadata);
+        if (this.persons != null) {
+            newPersons.addAll(this.persons);
+            Collections.sort((List) newPersons, metadataOrder);
         }
 
         // Re-set the lists.
+        beforeChange();
         this.allMetadata = newMetadata;
         this.persons = newPersons;
+        this.metadataIndex = null;
+        this.personIndex = null;
 
-        // TODO groups
+        if (this.allMetadataGroups != null) {
+            List<MetadataGroupInterface> newGroups = new LinkedList<MetadataGroupInterface>(this.allMetadataGroups);
+            Collections.sort((List) newGroups, new RankComparator(docStructType.getMetadataGroupRanks()));
+            this.allMetadataGroups = newGroups;
+        }
     }
 
     /**
@@ -3243,8 +3913,11 @@ public class DocStruct implements DocStructInterface, Serializable {
         personList.addAll(newPersons);
 
         // Re-set the lists.
+        beforeChange();
         this.allMetadata = metadataList;
         this.persons = personList;
+        this.metadataIndex = null;
+        this.personIndex = null;
         // TODO groups
     }
 
@@ -3427,9 +4100,10 @@ public class DocStruct implements DocStructInterface, Serializable {
         // needed.
         if (DigitalDocument.quickPairCheck(this.getAllChildren(), docStruct.getAllChildren()) != DigitalDocument.ListPairCheck.isEqual) {
 
+            List<DocStructInterface> otherChildren = docStruct.getAllChildren();
+            int i = 0;
             for (DocStructInterface ds1 : this.getAllChildren()) {
-                int i = this.getAllChildren().indexOf(ds1);
-                if (!ds1.equals(docStruct.getAllChildren().get(i))) {
+                if (!ds1.equals(otherChildren.get(i++))) {
                     return false;
                 }
             }
@@ -3612,6 +4286,38 @@ public class DocStruct implements DocStructInterface, Serializable {
 
     }
 
+    /**
+     * Compares meta-data, persons or meta-data groups according to the ranks
+     * of their type names. Types without a rank come last.
+     */
+    private static class RankComparator implements Comparator<Object> {
+
+        private final Map<String, Integer> ranks;
+
+        RankComparator(Map<String, Integer> ranks) {
+            this.ranks = ranks;
+        }
+
+        @Override
+        public int compare(Object o1, Object o2) {
+            int r1 = rank(o1);
+            int r2 = rank(o2);
+            return r1 < r2 ? -1 : (r1 == r2 ? 0 : 1);
+        }
+
+        private int rank(Object o) {
+            String typeName = null;
+            if (o instanceof Metadata && ((Metadata) o).getType() != null) {
+                typeName = ((Metadata) o).getType().getName();
+            } else if (o instanceof MetadataGroup && ((MetadataGroup) o).getType() != null) {
+                typeName = ((MetadataGroup) o).getType().getName();
+            }
+            Integer rank = typeName == null ? null : this.ranks.get(typeName);
+            return rank == null ? Integer.MAX_VALUE : rank.intValue();
+        }
+
+    }
+
     /**
      * Compares meta-data groups according to their type names alphabetically.
      */
@@ -3633,14 +4339,16 @@ public class DocStruct implements DocStructInterface, Serializable {
     }
 
     public void setAmdSec(AmdSec amdSec) {
+        beforeChange();
         this.amdSec = amdSec;
     }
 
     public List<Md> getTechMds() {
-        return techMdList;
+        return readOnly(techMdList);
     }
 
     public void addTechMd(Md techMd) {
+        beforeChange();
         if (techMdList == null) {
             techMdList = new ArrayList<Md>();
         }
@@ -3651,6 +4359,7 @@ public class DocStruct implements DocStructInterface, Serializable {
 
     public void setTechMds(List<Md> mds) {
         if (mds != null) {
+            beforeChange();
             this.techMdList = mds;
         }
     }
@@ -3674,8 +4383,10 @@ public class DocStruct implements DocStructInterface, Serializable {
     @Override
     public void setImageName(String newfilename) {
         if (contentFileReferences != null && !contentFileReferences.isEmpty()) {
+            beforeChange();
             for (ContentFileReference cfr : contentFileReferences) {
                 if (cfr.getCf() != null) {
+                    beforeChange(cfr.getCf());
                     cfr.getCf().setLocation(newfilename);
                     return;
                 } else {
@@ -3728,6 +4439,13 @@ public class DocStruct implements DocStructInterface, Serializable {
      *             if this DocStruct does not contain the DocStruct
      */
     public String indexOf(DocStruct d, String afterIndex) throws NoSuchElementException {
+        // If the DocStruct is a descendant of this instance, its index can be
+        // found by following the parent links.
+        String ancestorIndex = indexOfDescendant(d, afterIndex);
+        if (ancestorIndex != null) {
+            return ancestorIndex;
+        }
+
         int from = 0;
         String subIndex = null;
         if (afterIndex != null) {
@@ -3756,6 +4474,68 @@ public class DocStruct implements DocStructInterface, Serializable {
         throw new NoSuchElementException("No " + d + " in " + this);
     }
 
+    /**
+     * Returns the index of a descendant of this DocStruct, following the
+     * parent links from the descendant up to this instance.
+     *
+     * @param d
+     *            DocStruct to search for
+     * @param afterIndex
+     *            index after which the DocStruct must be found, may be null
+     * @return the index, separated by comma, or null if the DocStruct is not a
+     *         descendant of this instance or not after the given index
+     */
+    private String indexOfDescendant(DocStruct d, String afterIndex) {
+        LinkedList<Integer> path = new LinkedList<Integer>();
+        DocStruct node = d;
+        while (node != this) {
+            DocStruct nodeParent = node.getParent();
+            if (nodeParent == null) {
+                return null;
+            }
+            int position = nodeParent.getChildPosition(node);
+            if (position < 0) {
+                return null;
+            }
+            path.addFirst(Integer.valueOf(position));
+            node = nodeParent;
+        }
+        if (path.isEmpty()) {
+            return null;
+        }
+
+        // The index must be after the given one, and not below it.
+        if (afterIndex != null) {
+            String[] after = afterIndex.split(",");
+            int level = 0;
+            for (Integer position : path) {
+                if (level == after.length) {
+                    return null;
+                }
+                int afterPosition = Integer.parseInt(after[level]);
+                if (position.intValue() != afterPosition) {
+                    if (position.intValue() < afterPosition) {
+                        return null;
+                    }
+                    break;
+                }
+                level++;
+            }
+            if (level == path.size()) {
+                return null;
+            }
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (Integer position : path) {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(position);
+        }
+        return result.toString();
+    }
+
     /**
      * Retrieves the name of the anchor structure, if any, or null otherwise.
      * Anchors are a special type of document structure, which group other
@@ -3931,6 +4711,15 @@ public class DocStruct implements DocStructInterface, Serializable {
      */
     @Override
     public DocStruct getChild(String type, String identifierField, String identifier) throws NoSuchElementException {
+        if (this.digdoc != null && this.digdoc.isLookupIndexesEnabled() && identifier != null && isInDocument()) {
+            for (DocStruct candidate : this.digdoc.getLookupIndex().getByMetadataValue(identifierField, identifier)) {
+                if (candidate.getParent() == this && (type.equals("*") || candidate.getType() != null && type.equals(candidate.getType().getName()))) {
+                    return candidate;
+                }
+            }
+            throw new NoSuchElementException("No child " + type + " with " + identifierField + " = " + identifier + " in "
+                    + this + '.');
+        }
         List<DocStructInterface> children = getAllChildrenByTypeAndMetadataType(type, identifierField);
         if (children == null) {
             children = Collections.emptyList();
@@ -3947,6 +4736,20 @@ public class DocStruct implements DocStructInterface, Serializable {
                 + this + '.');
     }
 
+    /**
+     * Returns whether this instance is part of the logical or physical tree of
+     * its digital document.
+     *
+     * @return true, if the top of the tree is a top DocStruct of the document
+     */
+    private boolean isInDocument() {
+        DocStruct top = this;
+        while (top.parent != null) {
+            top = top.parent;
+        }
+        return top == this.digdoc.getLogicalDocStruct() || top == this.digdoc.getPhysicalDocStruct();
+    }
+
     /**
      * The function getMetadataByType() returns a list of all meta data elements
      * that are associated with this element and of a given type.
@@ -3956,15 +4759,7 @@ public class DocStruct implements DocStructInterface, Serializable {
      * @return a list of all meta data elements of that type
      */
     public List<Metadata> getMetadataByType(String typeName) {
-        LinkedList<Metadata> result = new LinkedList<Metadata>();
-        if (allMetadata != null) {
-            for (MetadataInterface metadata : allMetadata) {
-                if (((Metadata) metadata).getType().getName().equals(typeName)) {
-                    result.add((Metadata) metadata);
-                }
-            }
-        }
-        return result;
+        return new LinkedList<Metadata>(getMetadataIndex().get(typeName));
     }
 
     /**
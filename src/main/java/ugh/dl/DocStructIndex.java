@@ -0,0 +1,173 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / DocStructIndex.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*******************************************************************************
+ * <p>
+ * An index of all DocStructs of a DigitalDocument by the name of their type and by the values of their metadata. Both indexes list the DocStructs
+ * in the order of the trees, the physical tree first. Like {@link DigitalDocument#getAllDocStructsByType(String)}, the index by type does not
+ * contain the top DocStructs. The index by metadata value is built separately for each metadata type asked for.
+ * </p>
+ *
+ * <p>
+ * The index is dropped by its DigitalDocument whenever a DocStruct of the document is changed, and rebuilt on the next lookup.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#setLookupIndexesEnabled(boolean)
+ *
+ ******************************************************************************/
+
+final class DocStructIndex {
+
+    private final DigitalDocument digitalDocument;
+    private Map<String, List<DocStruct>> docStructsByType;
+    // Built per metadata type on first use; concurrent, as a frozen document may be read by several threads.
+    private final ConcurrentMap<String, Map<String, List<DocStruct>>> docStructsByMetadataValue =
+            new ConcurrentHashMap<String, Map<String, List<DocStruct>>>();
+
+    /***************************************************************************
+     * @param digitalDocument the indexed document
+     **************************************************************************/
+    DocStructIndex(DigitalDocument digitalDocument) {
+        this.digitalDocument = digitalDocument;
+    }
+
+    /***************************************************************************
+     * @param typeName name of the DocStructType
+     * @return all DocStructs of the type below the top DocStructs; the list must not be modified
+     **************************************************************************/
+    List<DocStruct> getByType(String typeName) {
+        buildTypeIndex();
+        return get(this.docStructsByType, typeName);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Builds the index by type, if necessary.
+     * </p>
+     **************************************************************************/
+    void buildTypeIndex() {
+        if (this.docStructsByType == null) {
+            this.docStructsByType = new HashMap<String, List<DocStruct>>();
+            if (this.digitalDocument.getPhysicalDocStruct() != null) {
+                collectByType(this.digitalDocument.getPhysicalDocStruct());
+            }
+            if (this.digitalDocument.getLogicalDocStruct() != null) {
+                collectByType(this.digitalDocument.getLogicalDocStruct());
+            }
+        }
+    }
+
+    /***************************************************************************
+     * @param metadataTypeName name of the MetadataType
+     * @param value value of the metadata
+     * @return all DocStructs with a metadata of the type and value; the list must not be modified
+     **************************************************************************/
+    List<DocStruct> getByMetadataValue(String metadataTypeName, String value) {
+        if (metadataTypeName == null) {
+            return Collections.emptyList();
+        }
+        Map<String, List<DocStruct>> docStructsByValue = this.docStructsByMetadataValue.get(metadataTypeName);
+        if (docStructsByValue == null) {
+            docStructsByValue = new HashMap<String, List<DocStruct>>();
+            if (this.digitalDocument.getPhysicalDocStruct() != null) {
+                collectByMetadataValue(this.digitalDocument.getPhysicalDocStruct(), metadataTypeName, docStructsByValue);
+            }
+            if (this.digitalDocument.getLogicalDocStruct() != null) {
+                collectByMetadataValue(this.digitalDocument.getLogicalDocStruct(), metadataTypeName, docStructsByValue);
+            }
+            Map<String, List<DocStruct>> built = this.docStructsByMetadataValue.putIfAbsent(metadataTypeName, docStructsByValue);
+            if (built != null) {
+                docStructsByValue = built;
+            }
+        }
+        return get(docStructsByValue, value);
+    }
+
+    /***************************************************************************
+     * @param docStruct DocStruct whose descendants are added
+     **************************************************************************/
+    private void collectByType(DocStruct docStruct) {
+        for (DocStruct descendant : docStruct.preOrder()) {
+            DocStructType type = descendant.getType();
+            if (descendant != docStruct && type != null && type.getName() != null) {
+                put(this.docStructsByType, type.getName(), descendant);
+            }
+        }
+    }
+
+    /***************************************************************************
+     * @param docStruct DocStruct which is added with its descendants
+     * @param metadataTypeName
+     * @param docStructsByValue
+     **************************************************************************/
+    private static void collectByMetadataValue(DocStruct docStruct, String metadataTypeName, Map<String, List<DocStruct>> docStructsByValue) {
+        for (DocStruct descendant : docStruct.preOrder()) {
+            for (Metadata metadata : descendant.getMetadataByType(metadataTypeName)) {
+                if (metadata.getValue() != null) {
+                    List<DocStruct> docStructs = docStructsByValue.get(metadata.getValue());
+                    // Add each DocStruct once only per value.
+                    if (docStructs == null || docStructs.get(docStructs.size() - 1) != descendant) {
+                        put(docStructsByValue, metadata.getValue(), descendant);
+                    }
+                }
+            }
+        }
+    }
+
+    /***************************************************************************
+     * @param map
+     * @param key
+     * @param docStruct
+     **************************************************************************/
+    private static void put(Map<String, List<DocStruct>> map, String key, DocStruct docStruct) {
+        List<DocStruct> docStructs = map.get(key);
+        if (docStructs == null) {
+            docStructs = new ArrayList<DocStruct>(2);
+            map.put(key, docStructs);
+        }
+        docStructs.add(docStruct);
+    }
+
+    /***************************************************************************
+     * @param map
+     * @param key
+     * @return the list for the key, or an empty list
+     **************************************************************************/
+    private static List<DocStruct> get(Map<String, List<DocStruct>> map, String key) {
+        List<DocStruct> docStructs = map.get(key);
+        if (docStructs == null) {
+            return Collections.emptyList();
+        }
+        return docStructs;
+    }
+
+}
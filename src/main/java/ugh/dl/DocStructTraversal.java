@@ -0,0 +1,253 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / DocStructTraversal.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.kitodo.api.ugh.DocStructInterface;
+
+/*******************************************************************************
+ * <p>
+ * Iterates over DocStructs and their descendants in pre-order, without recursion, so that deep trees can not overflow the stack. Like a
+ * spliterator, a traversal can be split with {@link #trySplit()} into a traversal over a prefix of the remaining DocStructs and itself, which
+ * keeps the rest; {@link #forEachParallel(ForkJoinPool, Visitor)} uses this to visit the DocStructs on a fork-join pool.
+ * </p>
+ *
+ * <p>
+ * A traversal can be used once only. The trees must not be changed while they are traversed; to traverse them in parallel, the document
+ * should be frozen (see {@link DigitalDocument#freeze()}).
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#traverse(Tree)
+ * @see DocStruct#preOrder()
+ *
+ ******************************************************************************/
+
+public final class DocStructTraversal implements Iterator<DocStruct> {
+
+    /***************************************************************************
+     * <p>
+     * Selects the trees of a DigitalDocument to traverse.
+     * </p>
+     **************************************************************************/
+    public static enum Tree {
+        LOGICAL,
+        PHYSICAL,
+        // The physical tree first, then the logical tree.
+        BOTH
+    }
+
+    /***************************************************************************
+     * <p>
+     * Callback, which is called for each DocStruct of a traversal. If the traversal runs in parallel, it is called from several threads.
+     * </p>
+     **************************************************************************/
+    public static interface Visitor {
+
+        /***********************************************************************
+         * @param docStruct a DocStruct of the traversal
+         **********************************************************************/
+        void visit(DocStruct docStruct);
+
+    }
+
+    // A DocStruct to return before the pending subtrees, without its
+    // descendants, which are already pending; set by trySplit().
+    private DocStruct head;
+
+    // Roots of the subtrees still to traverse, in order.
+    private final Deque<DocStruct> pending;
+
+    /***************************************************************************
+     * @param roots DocStructs to traverse with their descendants, in order; nulls are skipped
+     **************************************************************************/
+    DocStructTraversal(Collection<DocStruct> roots) {
+        this.pending = new ArrayDeque<DocStruct>(Math.max(roots.size(), 16));
+        for (DocStruct root : roots) {
+            if (root != null) {
+                this.pending.addLast(root);
+            }
+        }
+    }
+
+    /***************************************************************************
+     * @param head DocStruct to return first, without descendants; may be null
+     * @param pending roots of the subtrees to traverse
+     **************************************************************************/
+    private DocStructTraversal(DocStruct head, Deque<DocStruct> pending) {
+        this.head = head;
+        this.pending = pending;
+    }
+
+    /***************************************************************************
+     * @return true, if there are DocStructs left
+     **************************************************************************/
+    @Override
+    public boolean hasNext() {
+        return this.head != null || !this.pending.isEmpty();
+    }
+
+    /***************************************************************************
+     * @return the next DocStruct in pre-order
+     **************************************************************************/
+    @Override
+    public DocStruct next() {
+
+        if (this.head != null) {
+            DocStruct result = this.head;
+            this.head = null;
+            return result;
+        }
+        DocStruct result = this.pending.pollFirst();
+        if (result == null) {
+            throw new NoSuchElementException();
+        }
+        List<DocStructInterface> children = result.getAllChildren();
+        if (children != null) {
+            for (int i = children.size() - 1; i >= 0; i--) {
+                this.pending.addFirst((DocStruct) children.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException always
+     **************************************************************************/
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("DocStructs can not be removed by a traversal");
+    }
+
+    /***************************************************************************
+     * <p>
+     * Calls the visitor for each remaining DocStruct, in pre-order.
+     * </p>
+     *
+     * @param visitor
+     **************************************************************************/
+    public void forEachRemaining(Visitor visitor) {
+        while (hasNext()) {
+            visitor.visit(next());
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Splits off a traversal over a prefix of the remaining DocStructs: the first half of the pending subtrees. This traversal keeps the rest.
+     * If only one subtree is pending, its root is split off together with the first half of its children.
+     * </p>
+     *
+     * @return the traversal over the prefix, or null, if the remaining DocStructs can not be split
+     **************************************************************************/
+    public DocStructTraversal trySplit() {
+
+        if (this.head == null && this.pending.size() == 1) {
+            // Descend into the only subtree.
+            List<DocStructInterface> children = this.pending.peekFirst().getAllChildren();
+            if (children == null || children.size() < 2) {
+                return null;
+            }
+            this.head = this.pending.pollFirst();
+            for (DocStructInterface child : children) {
+                this.pending.addLast((DocStruct) child);
+            }
+        }
+        if (this.pending.size() < 2) {
+            return null;
+        }
+
+        int prefixSize = this.pending.size() / 2;
+        Deque<DocStruct> prefix = new ArrayDeque<DocStruct>(Math.max(prefixSize, 16));
+        for (int i = 0; i < prefixSize; i++) {
+            prefix.addLast(this.pending.pollFirst());
+        }
+        DocStructTraversal result = new DocStructTraversal(this.head, prefix);
+        this.head = null;
+
+        return result;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Calls the visitor for each remaining DocStruct on the fork-join pool, in no particular order, and waits for all calls to finish.
+     * </p>
+     *
+     * @param pool the pool to run on
+     * @param visitor must be thread-safe
+     **************************************************************************/
+    public void forEachParallel(ForkJoinPool pool, Visitor visitor) {
+        pool.invoke(new VisitTask(this, visitor, pool.getParallelism() * 4));
+    }
+
+    /***************************************************************************
+     * <p>
+     * Visits the DocStructs of a traversal, after splitting off parts for other tasks, as long as the budget of parts allows it.
+     * </p>
+     **************************************************************************/
+    private static final class VisitTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -6120924374560158231L;
+
+        private final DocStructTraversal traversal;
+        private final Visitor visitor;
+        private final int parts;
+
+        VisitTask(DocStructTraversal traversal, Visitor visitor, int parts) {
+            this.traversal = traversal;
+            this.visitor = visitor;
+            this.parts = parts;
+        }
+
+        @Override
+        protected void compute() {
+
+            List<VisitTask> forked = new ArrayList<VisitTask>();
+            int remainingParts = this.parts;
+            while (remainingParts > 1) {
+                DocStructTraversal prefix = this.traversal.trySplit();
+                if (prefix == null) {
+                    break;
+                }
+                VisitTask task = new VisitTask(prefix, this.visitor, remainingParts / 2);
+                task.fork();
+                forked.add(task);
+                remainingParts -= remainingParts / 2;
+            }
+            this.traversal.forEachRemaining(this.visitor);
+            for (VisitTask task : forked) {
+                task.join();
+            }
+        }
+    }
+
+}
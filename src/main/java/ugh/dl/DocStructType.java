@@ -22,11 +22,16 @@ package ugh.dl;
  ******************************************************************************/
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.kitodo.api.ugh.DocStructTypeInterface;
 import org.kitodo.api.ugh.MetadataTypeInterface;
@@ -78,7 +83,42 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
     // be children of this one here.
     protected List<String> allChildrenTypes;
 
-    private final List allMetadataGroups;
+    private List allMetadataGroups;
+
+    // Set, if the Prefs holding this type have been compiled.
+    private boolean frozen = false;
+
+    // Prefs this type is registered with, to be notified on name and language
+    // changes.
+    private transient Prefs prefs;
+
+    // Cardinality tables, the entries of allMetadataTypes and
+    // allMetadataGroups by type name. Built lazily and kept in sync by the add
+    // and remove methods.
+    private transient Map<String, MetadataTypeForDocStructType> metadataTypeTable;
+    private transient Map<String, MetadataGroupForDocStructType> metadataGroupTable;
+    // List sizes at table build time, to detect direct list modifications.
+    private transient int tabledMetadataTypes;
+    private transient int tabledMetadataGroups;
+
+    // Dense ID of this type, assigned by the Prefs it is registered with.
+    private transient int typeId = -1;
+    // Type IDs of the allowed children and of the allowed metadata types,
+    // built lazily. They are rebuilt if the Prefs' type generation or the
+    // lists of this type change.
+    private transient BitSet allowedChildrenBits;
+    private transient BitSet allowedMetadataBits;
+    private transient int allowedChildrenGeneration;
+    private transient int allowedMetadataGeneration;
+    private transient int bitsChildrenTypes;
+    private transient int bitsMetadataTypes;
+    // Positions of the MetadataTypes and MetadataGroupTypes in the lists of
+    // this type by name, to sort metadata in the order of the ruleset. Built
+    // lazily, like the cardinality tables.
+    private transient Map<String, Integer> metadataRanks;
+    private transient Map<String, Integer> metadataGroupRanks;
+    private transient int rankedMetadataTypes;
+    private transient int rankedMetadataGroups;
 
     /***************************************************************************
      * <p>
@@ -97,7 +137,11 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean setName(String in) {
+        checkNotFrozen();
         this.name = in;
+        if (this.prefs != null) {
+            this.prefs.docStrctTypeChanged(true);
+        }
         return true;
     }
 
@@ -123,6 +167,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      **************************************************************************/
     @Deprecated
     public void setTopMost(boolean in) {
+        checkNotFrozen();
         this.topmost = in;
     }
 
@@ -137,6 +182,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      * @param in
      **************************************************************************/
     public void setHasFileSet(boolean in) {
+        checkNotFrozen();
         this.hasfileset = in;
     }
 
@@ -151,6 +197,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      * @param hasfileset the hasfileset to set
      **************************************************************************/
     public void setHasfileset(boolean hasfileset) {
+        checkNotFrozen();
         this.hasfileset = hasfileset;
     }
 
@@ -165,9 +212,42 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      * @param topmost the topmost to set
      **************************************************************************/
     public void setTopmost(boolean topmost) {
+        checkNotFrozen();
         this.topmost = topmost;
     }
 
+    /***************************************************************************
+     * <p>
+     * Registers the Prefs which hold this DocStructType, so that its name indexes can be updated on name and language changes.
+     * </p>
+     *
+     * @param thePrefs
+     **************************************************************************/
+    void setPrefs(Prefs thePrefs) {
+        this.prefs = thePrefs;
+    }
+
+    /***************************************************************************
+     * @return the Prefs this DocStructType is registered with, or null
+     **************************************************************************/
+    Prefs getPrefs() {
+        return this.prefs;
+    }
+
+    /***************************************************************************
+     * @param theTypeId the dense ID assigned by the Prefs
+     **************************************************************************/
+    void setTypeId(int theTypeId) {
+        this.typeId = theTypeId;
+    }
+
+    /***************************************************************************
+     * @return the dense ID assigned by the Prefs; only valid together with getPrefs()
+     **************************************************************************/
+    int getTypeId() {
+        return this.typeId;
+    }
+
     /***************************************************************************
      * <p>
      * Sets information, wether this type is an anchor (virtual structure entity) or not.
@@ -176,6 +256,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      * @param inBool
      **************************************************************************/
     public void setAnchorClass(String anchorClass) {
+        checkNotFrozen();
         this.anchorClass = anchorClass;
     }
 
@@ -206,7 +287,11 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      **************************************************************************/
     public boolean setAllLanguages(HashMap<String, String> in) {
 
+        checkNotFrozen();
         this.allLanguages = in;
+        if (this.prefs != null) {
+            this.prefs.docStrctTypeChanged(false);
+        }
 
         return true;
     }
@@ -233,21 +318,17 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      **************************************************************************/
     public boolean addLanguage(String lang, String value) {
 
-        Map.Entry<String, String> test;
-        String key;
+        checkNotFrozen();
 
         // Check, if language already available.
-        Iterator<Map.Entry<String, String>> it = this.allLanguages.entrySet().iterator();
-        while (it.hasNext()) {
-            test = it.next();
-            key = test.getKey();
-            if (key.equals(lang)) {
-                // Language is already available.
-                return false;
-            }
+        if (this.allLanguages.containsKey(lang)) {
+            return false;
         }
 
         this.allLanguages.put(lang, value);
+        if (this.prefs != null) {
+            this.prefs.docStrctTypeChanged(false);
+        }
 
         return true;
     }
@@ -294,23 +375,20 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      **************************************************************************/
     public boolean removeLanguage(String lang) {
 
-        Map.Entry<String, String> test;
-        String key;
+        checkNotFrozen();
 
         // Check, if language already available.
-        Iterator<Map.Entry<String, String>> it = this.allLanguages.entrySet().iterator();
-        while (it.hasNext()) {
-            test = it.next();
-            key = test.getKey();
-            if (key.equals(lang)) {
-                this.allLanguages.remove(lang);
-                // Language is available, so remove it.
-                return true;
-            }
+        if (!this.allLanguages.containsKey(lang)) {
+            // Language unavailable, could not be removed.
+            return false;
         }
 
-        // Language unavailable, could not be removed.
-        return false;
+        this.allLanguages.remove(lang);
+        if (this.prefs != null) {
+            this.prefs.docStrctTypeChanged(false);
+        }
+
+        return true;
     }
 
     /***************************************************************************
@@ -327,6 +405,8 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
             MetadataTypeForDocStructType mdtfdst = new MetadataTypeForDocStructType(mdt);
             this.allMetadataTypes.add(mdtfdst);
         }
+        this.metadataTypeTable = null;
+        this.allowedMetadataBits = null;
 
         return true;
     }
@@ -400,17 +480,33 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
     @Override
     public String getNumberOfMetadataType(MetadataTypeInterface inType) {
 
-        Iterator<MetadataTypeForDocStructType> it = this.allMetadataTypes.iterator();
-        while (it.hasNext()) {
-            MetadataTypeForDocStructType mdtfdst = it.next();
-            if (mdtfdst.getMetadataType().getName().equals(inType.getName())) {
-                return mdtfdst.getNumber();
-            }
+        MetadataTypeForDocStructType mdtfdst = getMetadataTypeTable().get(inType.getName());
+        if (mdtfdst != null) {
+            return mdtfdst.getNumber();
         }
 
         return "0";
     }
 
+    /***************************************************************************
+     * <p>
+     * Gets the cardinality of a special MetadataType for this special document structure type, which is the parsed form of
+     * {@link #getNumberOfMetadataType(MetadataTypeInterface)}. MetadataTypes are compared using the internal name.
+     * </p>
+     *
+     * @param inType MetadataType - can be a global type
+     * @return the cardinality; Cardinality.NONE, if the MetadataType is not allowed
+     **************************************************************************/
+    public Cardinality getCardinalityOfMetadataType(MetadataTypeInterface inType) {
+
+        MetadataTypeForDocStructType mdtfdst = getMetadataTypeTable().get(inType.getName());
+        if (mdtfdst != null) {
+            return mdtfdst.getCardinality();
+        }
+
+        return Cardinality.NONE;
+    }
+
     /***************************************************************************
      * <p>
      * Gives very general information if a given MDType is allowed in a documentstructure of the type represented by this instance, or not.
@@ -421,27 +517,24 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      **************************************************************************/
     public boolean isMDTypeAllowed(MetadataType inMDType) {
 
-        Iterator<MetadataType> it = this.allMetadataTypes.iterator();
-        while (it.hasNext()) {
-            MetadataType mdt = it.next();
-            if (mdt.getName().equals(inMDType.getName())) {
-                return true; // it is already available
-            }
+        if (this.prefs != null && inMDType.getPrefs() == this.prefs && inMDType.getTypeId() >= 0) {
+            return getAllowedMetadataBits().get(inMDType.getTypeId());
         }
 
-        return false; // sorry, not available
+        return getMetadataTypeTable().containsKey(inMDType.getName());
     }
 
     /***************************************************************************
      * <p>
      * Adds a MetadataType object to this DocStructType instance; this means, that all document structures of this type can have at least one metadata
-     * object of this type because for each DocStructType object we have separate MetadataType objects, the MetadataType instance given as the only
-     * parameter is duplicated; the copy of the given instance is added. If successful, the copy is returned - otherwise null is returned.
+     * object of this type. A MetadataType of a Prefs instance is shared by all DocStructTypes allowing it, other MetadataTypes are duplicated (see
+     * {@link #getLocalMetadataType(MetadataType)}). The number of possible occurrences is stored with this DocStructType. If successful, the added
+     * MetadataType is returned - otherwise null is returned.
      * </p>
      *
      * @param type MetadataType object which should be added
      * @param inNumber number, how often Metadata of type can be added to a DocStruct object of this kind
-     * @return newly created copy of the MetadataType object; if not successful null is returned
+     * @return the added MetadataType object; if not successful null is returned
      **************************************************************************/
     public MetadataType addMetadataType(MetadataType type, String inNumber) {
 
@@ -453,28 +546,24 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
             return null;
         }
 
-        // Make a copy of this object and add the copy - necessary, cause we
-        // have own instances for each document structure type.
-        myType = type.copy();
+        myType = getLocalMetadataType(type);
 
         MetadataTypeForDocStructType mdtfdst = new MetadataTypeForDocStructType(myType);
         mdtfdst.setNumber(inNumber);
-        this.allMetadataTypes.add(mdtfdst);
+        appendMetadataTypeEntry(mdtfdst);
 
         return myType;
     }
 
     /***************************************************************************
      * <p>
-     * Adds a MetadataType object to this DocStructType instance; this means, that all document structures of this type can have at least one metadata
-     * object of this type because for each DocStructType object we have separate MetadataType objects, the MetadataType instance given as the only
-     * parameter is duplicated; the copy of the given instance is added. If successful, the copy is returned - otherwise null is returned.
+     * Adds a MetadataType object to this DocStructType instance, see {@link #addMetadataType(MetadataType, String)}.
      * </p>
      *
      * @param type MetadataType object which should be added
      * @param inNumber number, how often Metadata of type can be added to a DocStruct object of this kind
      * @param isDefault if set to true, this metadatatype will be displayed (even if it's empty)
-     * @return newly created copy of the MetadataType object; if not successful null is returned
+     * @return the added MetadataType object; if not successful null is returned
      **************************************************************************/
     public MetadataType addMetadataType(MetadataType type, String inNumber, boolean isDefault, boolean isInvisible) {
 
@@ -486,19 +575,34 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
             return null;
         }
 
-        // Make a copy of this object and add the copy - necessary, cause we
-        // have own instances for each document structure type.
-        myType = type.copy();
+        myType = getLocalMetadataType(type);
 
         MetadataTypeForDocStructType mdtfdst = new MetadataTypeForDocStructType(myType);
         mdtfdst.setNumber(inNumber);
         mdtfdst.setDefaultdisplay(isDefault);
         mdtfdst.setInvisible(isInvisible);
-        this.allMetadataTypes.add(mdtfdst);
+        appendMetadataTypeEntry(mdtfdst);
 
         return myType;
     }
 
+    /***************************************************************************
+     * <p>
+     * Returns the MetadataType object to be stored with this DocStructType. MetadataTypes of a Prefs instance are shared, so that there is only one
+     * MetadataType object per name; all properties depending on the DocStructType are kept in its MetadataTypeForDocStructType. MetadataTypes not
+     * belonging to any Prefs are copied, as they may still be changed by the caller.
+     * </p>
+     *
+     * @param type MetadataType object to be added
+     * @return the given MetadataType or a copy of it
+     **************************************************************************/
+    private static MetadataType getLocalMetadataType(MetadataType type) {
+        if (type.getPrefs() != null) {
+            return type;
+        }
+        return type.copy();
+    }
+
     /***************************************************************************
      * <p>
      * Checks, if the MetadataType has already been added and is already available in the list of all MetadataTypes.
@@ -508,26 +612,104 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      * @return true, if is is already available
      **************************************************************************/
     private boolean isMetadataTypeAlreadyAvailable(MetadataType type) {
+        return getMetadataTypeTable().containsKey(type.getName());
+    }
 
-        MetadataTypeForDocStructType test;
-        String testname;
-        String typename;
+    /***************************************************************************
+     * <p>
+     * Appends an entry to the list of all MetadataTypes and updates the cardinality table.
+     * </p>
+     *
+     * @param mdtfdst
+     **************************************************************************/
+    private void appendMetadataTypeEntry(MetadataTypeForDocStructType mdtfdst) {
+        Map<String, MetadataTypeForDocStructType> table = getMetadataTypeTable();
+        this.allMetadataTypes.add(mdtfdst);
+        if (!table.containsKey(mdtfdst.getMetadataType().getName())) {
+            table.put(mdtfdst.getMetadataType().getName(), mdtfdst);
+        }
+        this.tabledMetadataTypes = this.allMetadataTypes.size();
+        this.allowedMetadataBits = null;
+    }
 
-        // Check, if MetadataType is already available.
-        Iterator<MetadataTypeForDocStructType> it = this.allMetadataTypes.iterator();
-        while (it.hasNext()) {
-            test = it.next();
-            MetadataType mdt = test.getMetadataType();
-            testname = mdt.getName();
-            typename = type.getName();
+    /***************************************************************************
+     * <p>
+     * Returns the cardinality table of all MetadataTypes. The table is (re)built, if it does not exist yet or if the list of MetadataTypes was
+     * changed directly. If a name is used more than once, the first entry in the list wins, as it did with the former linear search.
+     * </p>
+     *
+     * @return A map from MetadataType name to the entry of the MetadataType.
+     **************************************************************************/
+    private Map<String, MetadataTypeForDocStructType> getMetadataTypeTable() {
+
+        Map<String, MetadataTypeForDocStructType> table = this.metadataTypeTable;
+        if (table == null || this.tabledMetadataTypes != this.allMetadataTypes.size()) {
+            table = new HashMap<String, MetadataTypeForDocStructType>(this.allMetadataTypes.size() * 2);
+            Iterator<MetadataTypeForDocStructType> it = this.allMetadataTypes.iterator();
+            while (it.hasNext()) {
+                MetadataTypeForDocStructType mdtfdst = it.next();
+                if (!table.containsKey(mdtfdst.getMetadataType().getName())) {
+                    table.put(mdtfdst.getMetadataType().getName(), mdtfdst);
+                }
+            }
+            this.tabledMetadataTypes = this.allMetadataTypes.size();
+            this.metadataTypeTable = table;
+        }
 
-            if (testname.equals(typename)) {
-                // It is already available.
-                return true;
+        return table;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the rank table of all MetadataTypes, which maps each name to the position of its first entry in the list of all MetadataTypes. The
+     * table is (re)built, if it does not exist yet or if the list of MetadataTypes was changed.
+     * </p>
+     *
+     * @return A map from MetadataType name to its rank; must not be modified.
+     **************************************************************************/
+    Map<String, Integer> getMetadataRanks() {
+
+        Map<String, Integer> ranks = this.metadataRanks;
+        if (ranks == null || this.rankedMetadataTypes != this.allMetadataTypes.size()) {
+            ranks = new HashMap<String, Integer>(this.allMetadataTypes.size() * 2);
+            Iterator<MetadataTypeForDocStructType> it = this.allMetadataTypes.iterator();
+            while (it.hasNext()) {
+                String name = it.next().getMetadataType().getName();
+                if (!ranks.containsKey(name)) {
+                    ranks.put(name, Integer.valueOf(ranks.size()));
+                }
             }
+            this.rankedMetadataTypes = this.allMetadataTypes.size();
+            this.metadataRanks = ranks;
         }
 
-        return false;
+        return ranks;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the rank table of all MetadataGroupTypes, see {@link #getMetadataRanks()}.
+     * </p>
+     *
+     * @return A map from MetadataGroupType name to its rank; must not be modified.
+     **************************************************************************/
+    Map<String, Integer> getMetadataGroupRanks() {
+
+        Map<String, Integer> ranks = this.metadataGroupRanks;
+        if (ranks == null || this.rankedMetadataGroups != this.allMetadataGroups.size()) {
+            ranks = new HashMap<String, Integer>(this.allMetadataGroups.size() * 2);
+            Iterator<MetadataGroupForDocStructType> it = this.allMetadataGroups.iterator();
+            while (it.hasNext()) {
+                String name = it.next().getMetadataGroup().getName();
+                if (!ranks.containsKey(name)) {
+                    ranks.put(name, Integer.valueOf(ranks.size()));
+                }
+            }
+            this.rankedMetadataGroups = this.allMetadataGroups.size();
+            this.metadataGroupRanks = ranks;
+        }
+
+        return ranks;
     }
 
     /***************************************************************************
@@ -547,6 +729,9 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
             MetadataTypeForDocStructType mdtfdst = it.next();
             if (mdtfdst.getMetadataType().equals(type)) {
                 this.allMetadataTypes.remove(mdtfdst);
+                this.metadataTypeTable = null;
+                this.metadataRanks = null;
+                this.allowedMetadataBits = null;
                 return true;
             }
         }
@@ -564,8 +749,9 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
 
     /***************************************************************************
      * <p>
-     * Retrieves the local MetadataType object (created when adding a global MetadataType object). This is necessary, if you just like to have the
-     * global MetadataType (from Preferences).
+     * Retrieves the local MetadataType object, which has been stored when adding a global MetadataType object. For MetadataTypes of a Prefs
+     * instance, this is the global MetadataType itself. The number of possible occurrences for this DocStructType is available by
+     * {@link #getNumberOfMetadataType(MetadataTypeInterface)}.
      * </p>
      *
      * @param inMDType global MetadataType object (from Preferences)
@@ -573,15 +759,9 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      **************************************************************************/
     public MetadataType getMetadataTypeByType(MetadataType inMDType) {
 
-        // Check, if MetadataType is already available.
-        Iterator<MetadataTypeForDocStructType> it = this.allMetadataTypes.iterator();
-        while (it.hasNext()) {
-            MetadataTypeForDocStructType mdtfdst = it.next();
-            MetadataType mdt = mdtfdst.getMetadataType();
-
-            if (mdt.getName().equals(inMDType.getName())) {
-                return mdt;
-            }
+        MetadataTypeForDocStructType mdtfdst = getMetadataTypeTable().get(inMDType.getName());
+        if (mdtfdst != null) {
+            return mdtfdst.getMetadataType();
         }
 
         return null;
@@ -609,6 +789,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
 
         // Check if the DocStruct is not existing yet, and add it then.
         if (this.allChildrenTypes.isEmpty() || !this.allChildrenTypes.contains(inString)) {
+            this.allowedChildrenBits = null;
             return this.allChildrenTypes.add(inString);
         }
 
@@ -654,6 +835,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
     public boolean removeDocStructTypeAsChild(String inString) {
 
         if (this.allChildrenTypes.remove(inString)) {
+            this.allowedChildrenBits = null;
             return true;
         }
 
@@ -690,6 +872,108 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
         return this.allChildrenTypes;
     }
 
+    /***************************************************************************
+     * <p>
+     * Checks, if DocStructs of the given type are allowed as children of DocStructs of this type. DocStructTypes are compared using the internal
+     * name; for types of the same Prefs, this is a single bit test.
+     * </p>
+     *
+     * @param inType
+     * @return true, if the type is allowed as child
+     **************************************************************************/
+    public boolean isDocStructTypeAllowedAsChild(DocStructTypeInterface inType) {
+
+        if (this.prefs != null && inType instanceof DocStructType && ((DocStructType) inType).prefs == this.prefs
+                && ((DocStructType) inType).typeId >= 0) {
+            return getAllowedChildrenBits().get(((DocStructType) inType).typeId);
+        }
+
+        return this.allChildrenTypes.contains(inType.getName());
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the IDs of all DocStructTypes of the Prefs, which are allowed as children. The set is (re)built, if it does not exist yet, if a type
+     * was registered with or renamed in the Prefs, or if the list of allowed children was changed directly.
+     * </p>
+     *
+     * @return the allowed children as set of type IDs
+     **************************************************************************/
+    private BitSet getAllowedChildrenBits() {
+
+        int generation = this.prefs.getTypeGeneration();
+        BitSet bits = this.allowedChildrenBits;
+        if (bits == null || this.allowedChildrenGeneration != generation || this.bitsChildrenTypes != this.allChildrenTypes.size()) {
+            Set<String> names = new HashSet<String>(this.allChildrenTypes);
+            bits = new BitSet();
+            for (DocStructTypeInterface dst : this.prefs.getAllDocStructTypes()) {
+                if (names.contains(dst.getName())) {
+                    bits.set(((DocStructType) dst).typeId);
+                }
+            }
+            this.allowedChildrenGeneration = generation;
+            this.bitsChildrenTypes = this.allChildrenTypes.size();
+            this.allowedChildrenBits = bits;
+        }
+
+        return bits;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the IDs of all MetadataTypes of the Prefs, which are allowed for this type, see {@link #getAllowedChildrenBits()}. Local MetadataType
+     * copies of this type get the IDs of their global types.
+     * </p>
+     *
+     * @return the allowed metadata types as set of type IDs
+     **************************************************************************/
+    private BitSet getAllowedMetadataBits() {
+
+        int generation = this.prefs.getTypeGeneration();
+        BitSet bits = this.allowedMetadataBits;
+        if (bits == null || this.allowedMetadataGeneration != generation || this.bitsMetadataTypes != this.allMetadataTypes.size()) {
+            Map<String, MetadataTypeForDocStructType> table = getMetadataTypeTable();
+            bits = new BitSet();
+            for (MetadataType mdt : this.prefs.getAllMetadataTypes()) {
+                if (table.containsKey(mdt.getName())) {
+                    bits.set(mdt.getTypeId());
+                }
+            }
+            Iterator<MetadataTypeForDocStructType> it = this.allMetadataTypes.iterator();
+            while (it.hasNext()) {
+                MetadataType local = it.next().getMetadataType();
+                // Shared MetadataTypes of other Prefs keep their IDs.
+                if (local.getPrefs() != null && local.getPrefs() != this.prefs) {
+                    continue;
+                }
+                MetadataType global = this.prefs.getMetadataTypeByName(local.getName());
+                local.setPrefs(this.prefs);
+                local.setTypeId(global == null ? -1 : global.getTypeId());
+            }
+            this.allowedMetadataGeneration = generation;
+            this.bitsMetadataTypes = this.allMetadataTypes.size();
+            this.allowedMetadataBits = bits;
+        }
+
+        return bits;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Builds all lookup tables of this type. Called for types of compiled Prefs, whose tables must not be built lazily by concurrent readers.
+     * </p>
+     **************************************************************************/
+    void buildLookupTables() {
+        getMetadataTypeTable();
+        getMetadataGroupTable();
+        getMetadataRanks();
+        getMetadataGroupRanks();
+        if (this.prefs != null) {
+            getAllowedChildrenBits();
+            getAllowedMetadataBits();
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -729,6 +1013,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
             MetadataGroupForDocStructType mdtfdst = new MetadataGroupForDocStructType(mdt);
             this.allMetadataGroups.add(mdtfdst);
         }
+        this.metadataGroupTable = null;
 
         return true;
     }
@@ -787,17 +1072,33 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      **************************************************************************/
     public String getNumberOfMetadataGroups(MetadataGroupType inType) {
 
-        Iterator<MetadataGroupForDocStructType> it = this.allMetadataGroups.iterator();
-        while (it.hasNext()) {
-            MetadataGroupForDocStructType mdtfdst = it.next();
-            if (mdtfdst.getMetadataGroup().getName().equals(inType.getName())) {
-                return mdtfdst.getNumber();
-            }
+        MetadataGroupForDocStructType mdtfdst = getMetadataGroupTable().get(inType.getName());
+        if (mdtfdst != null) {
+            return mdtfdst.getNumber();
         }
 
         return "0";
     }
 
+    /***************************************************************************
+     * <p>
+     * Gets the cardinality of a special MetadataGroup for this special document structure type, which is the parsed form of
+     * {@link #getNumberOfMetadataGroups(MetadataGroupType)}. MetadataGroups are compared using the internal name.
+     * </p>
+     *
+     * @param inType MetadataGroup - can be a global type
+     * @return the cardinality; Cardinality.NONE, if the MetadataGroup is not allowed
+     **************************************************************************/
+    public Cardinality getCardinalityOfMetadataGroup(MetadataGroupType inType) {
+
+        MetadataGroupForDocStructType mdtfdst = getMetadataGroupTable().get(inType.getName());
+        if (mdtfdst != null) {
+            return mdtfdst.getCardinality();
+        }
+
+        return Cardinality.NONE;
+    }
+
     /***************************************************************************
      * <p>
      * Gives very general information if a given MDType is allowed in a documentstructure of the type represented by this instance, or not.
@@ -807,16 +1108,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      * @return true, if it is allowed; otherwise false
      **************************************************************************/
     public boolean isMDTGroupAllowed(MetadataGroupType inMDType) {
-
-        Iterator<MetadataGroupType> it = this.allMetadataGroups.iterator();
-        while (it.hasNext()) {
-            MetadataGroupType mdt = it.next();
-            if (mdt.getName().equals(inMDType.getName())) {
-                return true; // it is already available
-            }
-        }
-
-        return false; // sorry, not available
+        return getMetadataGroupTable().containsKey(inMDType.getName());
     }
 
     /***************************************************************************
@@ -836,6 +1128,8 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
             MetadataGroupForDocStructType mdtfdst = it.next();
             if (mdtfdst.getMetadataGroup().equals(type)) {
                 this.allMetadataGroups.remove(mdtfdst);
+                this.metadataGroupTable = null;
+                this.metadataGroupRanks = null;
                 return true;
             }
         }
@@ -856,15 +1150,9 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      **************************************************************************/
     public MetadataGroupType getMetadataGroupByGroup(MetadataGroupType inMDType) {
 
-        // Check, if MetadataType is already available.
-        Iterator<MetadataGroupForDocStructType> it = this.allMetadataGroups.iterator();
-        while (it.hasNext()) {
-            MetadataGroupForDocStructType mdtfdst = it.next();
-            MetadataGroupType mdt = mdtfdst.getMetadataGroup();
-
-            if (mdt.getName().equals(inMDType.getName())) {
-                return mdt;
-            }
+        MetadataGroupForDocStructType mdtfdst = getMetadataGroupTable().get(inMDType.getName());
+        if (mdtfdst != null) {
+            return mdtfdst.getMetadataGroup();
         }
 
         return null;
@@ -898,7 +1186,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
 
         MetadataGroupForDocStructType mdtfdst = new MetadataGroupForDocStructType(myType);
         mdtfdst.setNumber(inNumber);
-        this.allMetadataGroups.add(mdtfdst);
+        appendMetadataGroupEntry(mdtfdst);
 
         return myType;
     }
@@ -933,7 +1221,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
         mdtfdst.setNumber(inNumber);
         mdtfdst.setDefaultdisplay(isDefault);
         mdtfdst.setInvisible(isInvisible);
-        this.allMetadataGroups.add(mdtfdst);
+        appendMetadataGroupEntry(mdtfdst);
 
         return myType;
     }
@@ -947,29 +1235,93 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
      * @return true, if is is already available
      **************************************************************************/
     private boolean isMetadataGroupAlreadyAvailable(MetadataGroupType type) {
+        return getMetadataGroupTable().containsKey(type.getName());
+    }
 
-        MetadataGroupForDocStructType test;
-        String testname;
-        String typename;
-
-        // Check, if MetadataType is already available.
-        Iterator<MetadataGroupForDocStructType> it = this.allMetadataGroups.iterator();
-        while (it.hasNext()) {
-            test = it.next();
-            MetadataGroupType mdt = test.getMetadataGroup();
-            testname = mdt.getName();
-            typename = type.getName();
+    /***************************************************************************
+     * <p>
+     * Appends an entry to the list of all MetadataGroups and updates the cardinality table.
+     * </p>
+     *
+     * @param mdtfdst
+     **************************************************************************/
+    private void appendMetadataGroupEntry(MetadataGroupForDocStructType mdtfdst) {
+        Map<String, MetadataGroupForDocStructType> table = getMetadataGroupTable();
+        this.allMetadataGroups.add(mdtfdst);
+        if (!table.containsKey(mdtfdst.getMetadataGroup().getName())) {
+            table.put(mdtfdst.getMetadataGroup().getName(), mdtfdst);
+        }
+        this.tabledMetadataGroups = this.allMetadataGroups.size();
+    }
 
-            if (testname.equals(typename)) {
-                // It is already available.
-                return true;
+    /***************************************************************************
+     * <p>
+     * Returns the cardinality table of all MetadataGroups, see {@link #getMetadataTypeTable()}.
+     * </p>
+     *
+     * @return A map from MetadataGroup name to the entry of the MetadataGroup.
+     **************************************************************************/
+    private Map<String, MetadataGroupForDocStructType> getMetadataGroupTable() {
+
+        Map<String, MetadataGroupForDocStructType> table = this.metadataGroupTable;
+        if (table == null || this.tabledMetadataGroups != this.allMetadataGroups.size()) {
+            table = new HashMap<String, MetadataGroupForDocStructType>(this.allMetadataGroups.size() * 2);
+            Iterator<MetadataGroupForDocStructType> it = this.allMetadataGroups.iterator();
+            while (it.hasNext()) {
+                MetadataGroupForDocStructType mdtfdst = it.next();
+                if (!table.containsKey(mdtfdst.getMetadataGroup().getName())) {
+                    table.put(mdtfdst.getMetadataGroup().getName(), mdtfdst);
+                }
             }
+            this.tabledMetadataGroups = this.allMetadataGroups.size();
+            this.metadataGroupTable = table;
         }
 
-        return false;
+        return table;
     }
 
 
+    /***************************************************************************
+     * <p>
+     * Makes this DocStructType read-only. Called when the Prefs holding this type are compiled; all mutators will throw an
+     * UnsupportedOperationException afterwards.
+     * </p>
+     **************************************************************************/
+    void freeze() {
+
+        if (this.frozen) {
+            return;
+        }
+
+        Iterator<MetadataTypeForDocStructType> it = this.allMetadataTypes.iterator();
+        while (it.hasNext()) {
+            MetadataTypeForDocStructType mdtfdst = it.next();
+            mdtfdst.getMetadataType().freeze();
+            mdtfdst.getCardinality();
+        }
+        Iterator<MetadataGroupForDocStructType> groups = this.allMetadataGroups.iterator();
+        while (groups.hasNext()) {
+            MetadataGroupForDocStructType mdgfdst = groups.next();
+            mdgfdst.getMetadataGroup().freeze();
+            mdgfdst.getCardinality();
+        }
+
+        this.allMetadataTypes = Collections.unmodifiableList(new ArrayList(this.allMetadataTypes));
+        this.allMetadataGroups = Collections.unmodifiableList(new ArrayList(this.allMetadataGroups));
+        this.allChildrenTypes = Collections.unmodifiableList(new ArrayList<String>(this.allChildrenTypes));
+        buildLookupTables();
+        this.frozen = true;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException if this DocStructType is read-only
+     **************************************************************************/
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("DocStructType '" + this.name + "' belongs to compiled Prefs and can not be modified");
+        }
+    }
+
     /***************************************************************************
      * <p>
      * Just a small class to store the MetadataType together with number (which depends on the DocStructType).
@@ -983,6 +1335,8 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
         private MetadataType mdt = null;
         // Number of metadatatypes for this docStruct.
         private String num = null;
+        // Parsed form of num, see getCardinality().
+        private transient Cardinality cardinality = null;
         // Just a filter to display only default metadata types.
         private boolean defaultdisplay = false;
         // Just a filter to avoid displaying invisible fields.
@@ -1000,6 +1354,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
          **********************************************************************/
         public void setNumber(String in) {
             this.num = in;
+            this.cardinality = null;
         }
 
         /***********************************************************************
@@ -1009,6 +1364,16 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
             return this.num;
         }
 
+        /***********************************************************************
+         * @return the cardinality given by the number
+         **********************************************************************/
+        public Cardinality getCardinality() {
+            if (this.cardinality == null) {
+                this.cardinality = Cardinality.forNumber(this.num);
+            }
+            return this.cardinality;
+        }
+
         /***********************************************************************
          * @return
          **********************************************************************/
@@ -1056,6 +1421,8 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
         private MetadataGroupType mdg = null;
         // Number of metadatatypes for this docStruct.
         private String num = null;
+        // Parsed form of num, see getCardinality().
+        private transient Cardinality cardinality = null;
         // Just a filter to display only default metadata types.
         private boolean defaultdisplay = false;
         // Just a filter to avoid displaying invisible fields.
@@ -1073,6 +1440,7 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
          **********************************************************************/
         public void setNumber(String in) {
             this.num = in;
+            this.cardinality = null;
         }
 
         /***********************************************************************
@@ -1082,6 +1450,16 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
             return this.num;
         }
 
+        /***********************************************************************
+         * @return the cardinality given by the number
+         **********************************************************************/
+        public Cardinality getCardinality() {
+            if (this.cardinality == null) {
+                this.cardinality = Cardinality.forNumber(this.num);
+            }
+            return this.cardinality;
+        }
+
         /***********************************************************************
          * @return
          **********************************************************************/
@@ -1121,5 +1499,88 @@ public class DocStructType implements DocStructTypeInterface, Serializable {
 
     }
 
+    /***************************************************************************
+     * <p>
+     * How often metadata of a certain type may be added to a DocStruct of this type; the parsed form of the numbers "1m", "1o", "+" and "*" used
+     * in the ruleset.
+     * </p>
+     **************************************************************************/
+    public static enum Cardinality {
+
+        /** Not allowed at all. */
+        NONE("0", false, 0),
+        /** Exactly one, mandatory ("1m"). */
+        ONE_MANDATORY("1m", true, 1),
+        /** At most one, optional ("1o"). */
+        ONE_OPTIONAL("1o", false, 1),
+        /** One or more ("+"). */
+        ONE_OR_MORE("+", true, Integer.MAX_VALUE),
+        /** As many as we want, zero or more ("*"). */
+        ZERO_OR_MORE("*", false, Integer.MAX_VALUE);
+
+        private final String number;
+        private final boolean mandatory;
+        private final int maximum;
+
+        private Cardinality(String number, boolean mandatory, int maximum) {
+            this.number = number;
+            this.mandatory = mandatory;
+            this.maximum = maximum;
+        }
+
+        /***********************************************************************
+         * @param number the number from the ruleset
+         * @return the cardinality; NONE, if the number is unknown
+         **********************************************************************/
+        public static Cardinality forNumber(String number) {
+            if (number == null) {
+                return NONE;
+            }
+            for (Cardinality cardinality : values()) {
+                if (cardinality.number.equalsIgnoreCase(number)) {
+                    return cardinality;
+                }
+            }
+            return NONE;
+        }
+
+        /***********************************************************************
+         * @return the number as used in the ruleset
+         **********************************************************************/
+        public String getNumber() {
+            return this.number;
+        }
+
+        /***********************************************************************
+         * @return true, if at least one metadata of the type must be present
+         **********************************************************************/
+        public boolean isMandatory() {
+            return this.mandatory;
+        }
+
+        /***********************************************************************
+         * @return true, if more than one metadata of the type may be present
+         **********************************************************************/
+        public boolean isRepeatable() {
+            return this.maximum > 1;
+        }
+
+        /***********************************************************************
+         * @param available number of metadata of the type already present
+         * @return true, if another metadata of the type may be added
+         **********************************************************************/
+        public boolean allowsAnother(int available) {
+            return available < this.maximum;
+        }
+
+        /***********************************************************************
+         * @param available number of metadata of the type already present
+         * @return true, if a metadata of the type may be removed
+         **********************************************************************/
+        public boolean allowsRemoval(int available) {
+            return !(this.mandatory && available == 1);
+        }
+
+    }
 
 }
@@ -0,0 +1,365 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / DocumentCopier.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*******************************************************************************
+ * <p>
+ * Creates deep copies of DigitalDocuments and their parts, without a serialization round-trip.
+ * </p>
+ *
+ * <p>
+ * An object is copied together with all parts it owns: a DigitalDocument owns its top DocStructs, its FileSet and its AmdSec; a DocStruct owns
+ * its children, metadata, persons, metadata groups, content file references and references; a FileSet owns its ContentFiles. Each object is
+ * copied once only, so objects reachable on several ways are shared in the copy as they are in the original.
+ * </p>
+ *
+ * <p>
+ * Links to objects which are not owned, such as the parent of a DocStruct, the DocStruct of a Metadata, the ContentFile of a content file
+ * reference or the source and target of a reference, point to the copy if the linked object has been copied by this copier, and to the original
+ * otherwise. DocStructTypes, MetadataTypes and MetadataGroupTypes are shared with the Prefs; techMD sections and the objects a DocStruct or
+ * Metadata has been read from are shared as well.
+ * </p>
+ *
+ * <p>
+ * A copier may be used for several calls to copy related objects; links are resolved against everything copied so far. It is not thread safe.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#copyDigitalDocument()
+ *
+ ******************************************************************************/
+
+public class DocumentCopier {
+
+    // Copies by original.
+    private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    // Copies whose links have not been resolved yet.
+    private final List<Object> unresolved = new ArrayList<Object>();
+
+    // Snapshot to copy the objects from, or null to copy the live objects.
+    private final DocumentSnapshot snapshot;
+
+    /***************************************************************************
+     * <p>
+     * Creates a copier for the live objects.
+     * </p>
+     **************************************************************************/
+    public DocumentCopier() {
+        this.snapshot = null;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Creates a copier, which copies the objects as they were when the snapshot was taken.
+     * </p>
+     *
+     * @param snapshot
+     **************************************************************************/
+    DocumentCopier(DocumentSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /***************************************************************************
+     * @param original
+     * @return a deep copy of the DigitalDocument
+     **************************************************************************/
+    public DigitalDocument copy(DigitalDocument original) {
+        DigitalDocument result = copyDigitalDocument(original);
+        resolve();
+        return result;
+    }
+
+    /***************************************************************************
+     * @param original
+     * @return a deep copy of the DocStruct and its descendants
+     **************************************************************************/
+    public DocStruct copy(DocStruct original) {
+        DocStruct result = copyDocStruct(original);
+        resolve();
+        return result;
+    }
+
+    /***************************************************************************
+     * @param original
+     * @return a copy of the Metadata
+     **************************************************************************/
+    public Metadata copy(Metadata original) {
+        Metadata result = copyMetadata(original);
+        resolve();
+        return result;
+    }
+
+    /***************************************************************************
+     * @param original
+     * @return a copy of the Person
+     **************************************************************************/
+    public Person copy(Person original) {
+        return (Person) copy((Metadata) original);
+    }
+
+    /***************************************************************************
+     * @param original
+     * @return a deep copy of the MetadataGroup
+     **************************************************************************/
+    public MetadataGroup copy(MetadataGroup original) {
+        MetadataGroup result = copyMetadataGroup(original);
+        resolve();
+        return result;
+    }
+
+    /***************************************************************************
+     * @param original
+     * @return a copy of the ContentFile
+     **************************************************************************/
+    public ContentFile copy(ContentFile original) {
+        ContentFile result = copyContentFile(original);
+        resolve();
+        return result;
+    }
+
+    /***************************************************************************
+     * @param original
+     * @return a deep copy of the FileSet and its ContentFiles
+     **************************************************************************/
+    public FileSet copy(FileSet original) {
+        FileSet result = copyFileSet(original);
+        resolve();
+        return result;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes the copy of an object. Must be called by the copying code before the owned parts are copied.
+     * </p>
+     *
+     * @param original
+     * @param copy
+     **************************************************************************/
+    void put(Object original, Object copy) {
+        this.copies.put(original, copy);
+        this.unresolved.add(copy);
+    }
+
+    /***************************************************************************
+     * @param original an object, may be null
+     * @return the copy of the object, if it has been copied, otherwise the object itself
+     **************************************************************************/
+    @SuppressWarnings("unchecked")
+    <T> T resolve(T original) {
+        Object copy = this.copies.get(original);
+        return copy == null ? original : (T) copy;
+    }
+
+    /***************************************************************************
+     * @param originals a list of linked objects, may be null
+     * @return a new list with the resolved objects, or null
+     **************************************************************************/
+    <T> List<T> resolveAll(Collection<T> originals) {
+        if (originals == null) {
+            return null;
+        }
+        List<T> result = new ArrayList<T>(originals.size());
+        for (T original : originals) {
+            result.add(resolve(original));
+        }
+        return result;
+    }
+
+    /***************************************************************************
+     * @param original may be null
+     * @return the copy
+     **************************************************************************/
+    DigitalDocument copyDigitalDocument(DigitalDocument original) {
+        if (original == null) {
+            return null;
+        }
+        DigitalDocument copy = (DigitalDocument) this.copies.get(original);
+        return copy != null ? copy : noteCopy(original, source(original).deepCopy(this));
+    }
+
+    /***************************************************************************
+     * @param original may be null
+     * @return the copy
+     **************************************************************************/
+    DocStruct copyDocStruct(DocStruct original) {
+        if (original == null) {
+            return null;
+        }
+        DocStruct copy = (DocStruct) this.copies.get(original);
+        return copy != null ? copy : noteCopy(original, source(original).deepCopy(this));
+    }
+
+    /***************************************************************************
+     * @param original may be null
+     * @return the copy
+     **************************************************************************/
+    Metadata copyMetadata(Metadata original) {
+        if (original == null) {
+            return null;
+        }
+        Metadata copy = (Metadata) this.copies.get(original);
+        return copy != null ? copy : noteCopy(original, source(original).deepCopy(this));
+    }
+
+    /***************************************************************************
+     * @param original may be null
+     * @return the copy
+     **************************************************************************/
+    MetadataGroup copyMetadataGroup(MetadataGroup original) {
+        if (original == null) {
+            return null;
+        }
+        MetadataGroup copy = (MetadataGroup) this.copies.get(original);
+        return copy != null ? copy : noteCopy(original, source(original).deepCopy(this));
+    }
+
+    /***************************************************************************
+     * @param original may be null
+     * @return the copy
+     **************************************************************************/
+    ContentFile copyContentFile(ContentFile original) {
+        if (original == null) {
+            return null;
+        }
+        ContentFile copy = (ContentFile) this.copies.get(original);
+        return copy != null ? copy : noteCopy(original, source(original).deepCopy(this));
+    }
+
+    /***************************************************************************
+     * @param original may be null
+     * @return the copy
+     **************************************************************************/
+    FileSet copyFileSet(FileSet original) {
+        if (original == null) {
+            return null;
+        }
+        FileSet copy = (FileSet) this.copies.get(original);
+        return copy != null ? copy : noteCopy(original, source(original).deepCopy(this));
+    }
+
+    /***************************************************************************
+     * @param original may be null
+     * @return the copy
+     **************************************************************************/
+    Reference copyReference(Reference original) {
+        if (original == null) {
+            return null;
+        }
+        Reference copy = (Reference) this.copies.get(original);
+        return copy != null ? copy : original.deepCopy(this);
+    }
+
+    /***************************************************************************
+     * @param original may be null
+     * @return the copy, sharing the techMD sections
+     **************************************************************************/
+    AmdSec copyAmdSec(AmdSec original) {
+        if (original == null) {
+            return null;
+        }
+        AmdSec copy = (AmdSec) this.copies.get(original);
+        if (copy == null) {
+            copy = new AmdSec(original.getTechMdList() == null ? null : new ArrayList<Md>(original.getTechMdList()));
+            copy.setId(original.getId());
+            this.copies.put(original, copy);
+        }
+        return copy;
+    }
+
+    /***************************************************************************
+     * @param originals a list of owned Metadata, may be null
+     * @return a new list with the copies, or null
+     **************************************************************************/
+    <T> List<T> copyAllMetadata(Collection<T> originals) {
+        if (originals == null) {
+            return null;
+        }
+        List<T> result = new ArrayList<T>(originals.size());
+        for (T original : originals) {
+            @SuppressWarnings("unchecked")
+            T copy = (T) copyMetadata((Metadata) original);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /***************************************************************************
+     * @param original
+     * @return the object to copy for the original, that is its state in the snapshot, if any
+     **************************************************************************/
+    private <T> T source(T original) {
+        return this.snapshot == null ? original : this.snapshot.readState(original);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes the copy of an object, which may have been made from its state in the snapshot.
+     * </p>
+     *
+     * @param original
+     * @param copy
+     * @return the copy
+     **************************************************************************/
+    private <T> T noteCopy(Object original, T copy) {
+        this.copies.put(original, copy);
+        return copy;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Resolves the links of all copies made since the last call. Resolving may copy further objects, e.g. the unique identifier of a
+     * DigitalDocument, which are resolved as well.
+     * </p>
+     **************************************************************************/
+    private void resolve() {
+        for (int i = 0; i < this.unresolved.size(); i++) {
+            Object copy = this.unresolved.get(i);
+            if (copy instanceof DocStruct) {
+                ((DocStruct) copy).resolveCopy(this);
+            } else if (copy instanceof Metadata) {
+                ((Metadata) copy).resolveCopy(this);
+            } else if (copy instanceof MetadataGroup) {
+                ((MetadataGroup) copy).resolveCopy(this);
+            } else if (copy instanceof ContentFile) {
+                ((ContentFile) copy).resolveCopy(this);
+            } else if (copy instanceof ContentFileReference) {
+                ContentFileReference reference = (ContentFileReference) copy;
+                reference.setCf(resolve(reference.getCf()));
+            } else if (copy instanceof Reference) {
+                Reference reference = (Reference) copy;
+                reference.setSource(resolve(reference.getSource()));
+                reference.setTarget(resolve(reference.getTarget()));
+            } else if (copy instanceof DigitalDocument) {
+                ((DigitalDocument) copy).resolveCopy(this);
+            }
+        }
+        this.unresolved.clear();
+    }
+
+}
@@ -0,0 +1,259 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / DocumentSnapshot.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*******************************************************************************
+ * <p>
+ * A read-only view of a DigitalDocument as it was when the snapshot was taken. Taking a snapshot does not copy anything. Instead, the document
+ * keeps a copy of the state of each DocStruct, Metadata, MetadataGroup, ContentFile and FileSet before it is changed for the first time after the
+ * snapshot has been taken; the objects which are not changed are shared between the document and the snapshot.
+ * </p>
+ *
+ * <p>
+ * The objects of the view are the objects of the live document. Use the <code>get</code> methods to read their state in the snapshot: for
+ * example, <code>snapshot.get(docStruct).getAllChildren()</code> returns the children of the DocStruct at the time of the snapshot, whose state
+ * again is read by <code>snapshot.get(child)</code>. The returned objects must not be changed. {@link #toDigitalDocument()} creates an independent
+ * DigitalDocument from the snapshot, e.g. to save it.
+ * </p>
+ *
+ * <p>
+ * The <code>get</code> methods return objects of the live document, if they have not been changed, so they must be called on the thread which
+ * changes the document, or under the same lock. {@link #toDigitalDocument()} and {@link #release()} may be called on any other thread, e.g. to
+ * save the document in the background while it is edited: the copier reads each object of the live document only while it holds the lock of
+ * the snapshot, and the document keeps the state of an object under the same lock before changing it, so the editing thread waits at most for
+ * the copy of one object. The snapshot must be handed over to the other thread safely, e.g. through an executor.
+ * </p>
+ *
+ * <p>
+ * Changes are noticed if they are made by the methods of DocStruct, Metadata, Person and MetadataGroup, or by the methods of DocStruct which
+ * link content files, or directly to the meta-data, person and meta-data group lists of a DocStruct. Changes made directly to other lists
+ * returned by these classes, to a ContentFile or to the FileSet are not noticed. A snapshot should be released if it is no longer needed;
+ * snapshots which are no longer referenced are released automatically.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#snapshot()
+ *
+ ******************************************************************************/
+
+public class DocumentSnapshot {
+
+    private final DigitalDocument document;
+    // The document itself, as it was when the snapshot was taken.
+    private final DigitalDocument documentState;
+    // States of the changed objects by original, or null if released.
+    // Guarded by this snapshot.
+    private Map<Object, Object> states = new IdentityHashMap<Object, Object>();
+
+    /***************************************************************************
+     * @param document the live document
+     **************************************************************************/
+    DocumentSnapshot(DigitalDocument document) {
+        this.document = document;
+        this.documentState = document.copyState();
+    }
+
+    /***************************************************************************
+     * @return the top logical DocStruct at the time of the snapshot
+     **************************************************************************/
+    public DocStruct getLogicalDocStruct() {
+        checkReleased();
+        return this.documentState.getLogicalDocStruct();
+    }
+
+    /***************************************************************************
+     * @return the top physical DocStruct at the time of the snapshot
+     **************************************************************************/
+    public DocStruct getPhysicalDocStruct() {
+        checkReleased();
+        return this.documentState.getPhysicalDocStruct();
+    }
+
+    /***************************************************************************
+     * @return the FileSet at the time of the snapshot
+     **************************************************************************/
+    public FileSet getFileSet() {
+        checkReleased();
+        return get(this.documentState.getFileSet());
+    }
+
+    /***************************************************************************
+     * @param docStruct a DocStruct of the live document
+     * @return the DocStruct as it was when the snapshot was taken; must not be changed
+     **************************************************************************/
+    public DocStruct get(DocStruct docStruct) {
+        return getState(docStruct);
+    }
+
+    /***************************************************************************
+     * @param metadata a Metadata or Person of the live document
+     * @return the Metadata as it was when the snapshot was taken; must not be changed
+     **************************************************************************/
+    public Metadata get(Metadata metadata) {
+        return getState(metadata);
+    }
+
+    /***************************************************************************
+     * @param metadataGroup a MetadataGroup of the live document
+     * @return the MetadataGroup as it was when the snapshot was taken; must not be changed
+     **************************************************************************/
+    public MetadataGroup get(MetadataGroup metadataGroup) {
+        return getState(metadataGroup);
+    }
+
+    /***************************************************************************
+     * @param contentFile a ContentFile of the live document
+     * @return the ContentFile as it was when the snapshot was taken; must not be changed
+     **************************************************************************/
+    public ContentFile get(ContentFile contentFile) {
+        return getState(contentFile);
+    }
+
+    /***************************************************************************
+     * @param fileSet the FileSet of the live document
+     * @return the FileSet as it was when the snapshot was taken; must not be changed
+     **************************************************************************/
+    public FileSet get(FileSet fileSet) {
+        return getState(fileSet);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Creates a new DigitalDocument with deep copies of all objects of the snapshot. The new document is independent of the live document and of
+     * this snapshot. This method may be called on another thread than the one changing the document.
+     * </p>
+     *
+     * @return the new DigitalDocument
+     **************************************************************************/
+    public DigitalDocument toDigitalDocument() {
+        checkReleased();
+        return new DocumentCopier(this).copy(this.document);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Releases the snapshot. The document no longer keeps the states of changed objects for it, and the snapshot can no longer be read. This
+     * method may be called on another thread than the one changing the document; the document drops the snapshot on its next change.
+     * </p>
+     **************************************************************************/
+    public synchronized void release() {
+        this.states = null;
+    }
+
+    /***************************************************************************
+     * @return true, if the snapshot has been released
+     **************************************************************************/
+    public synchronized boolean isReleased() {
+        return this.states == null;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Keeps the state of an object of the live document, which is about to be changed, unless it has been kept before.
+     * </p>
+     *
+     * @param original
+     * @return false, if the snapshot has been released
+     **************************************************************************/
+    synchronized boolean preserve(Object original) {
+
+        if (this.states == null) {
+            return false;
+        }
+        if (!this.states.containsKey(original)) {
+            Object state = copyState(original);
+            if (state != null) {
+                this.states.put(original, state);
+            }
+        }
+
+        return true;
+    }
+
+    /***************************************************************************
+     * @param original an object of the live document, may be null
+     * @return its state at the time of the snapshot
+     **************************************************************************/
+    @SuppressWarnings("unchecked")
+    synchronized <T> T getState(T original) {
+        checkReleased();
+        if (original == this.document) {
+            return (T) this.documentState;
+        }
+        Object state = this.states.get(original);
+        return state == null ? original : (T) state;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the state of an object to copy it on any thread. If the object has not been changed, a copy of its state is made now, while the
+     * document can not change it; so the live object is never read outside of the lock.
+     * </p>
+     *
+     * @param original an object of the live document, may be null
+     * @return its state at the time of the snapshot, not shared with the live document
+     **************************************************************************/
+    @SuppressWarnings("unchecked")
+    synchronized <T> T readState(T original) {
+        checkReleased();
+        if (original == this.document) {
+            return (T) this.documentState;
+        }
+        Object state = this.states.get(original);
+        if (state == null) {
+            state = copyState(original);
+        }
+        return state == null ? original : (T) state;
+    }
+
+    /***************************************************************************
+     * @param original an object of the live document
+     * @return a copy of its current state, or null, if the snapshot does not keep states of objects of its class
+     **************************************************************************/
+    private static Object copyState(Object original) {
+        if (original instanceof DocStruct) {
+            return ((DocStruct) original).copyState();
+        } else if (original instanceof Metadata) {
+            return new DocumentCopier().copy((Metadata) original);
+        } else if (original instanceof MetadataGroup) {
+            return new DocumentCopier().copy((MetadataGroup) original);
+        } else if (original instanceof ContentFile) {
+            return new DocumentCopier().copy((ContentFile) original);
+        } else if (original instanceof FileSet) {
+            return ((FileSet) original).copyState();
+        }
+        return null;
+    }
+
+    /***************************************************************************
+     * @throws IllegalStateException if the snapshot has been released
+     **************************************************************************/
+    private void checkReleased() {
+        if (this.states == null) {
+            throw new IllegalStateException("The snapshot has been released");
+        }
+    }
+
+}
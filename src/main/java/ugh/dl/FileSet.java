@@ -22,7 +22,9 @@ package ugh.dl;
  ******************************************************************************/
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -74,6 +76,9 @@ public class FileSet implements FileSetInterface, Serializable {
     // Contains all virtual fileg groups needed for the zvdd/DFG-viewer METS.
     private List<VirtualFileGroup>    virtualFileGroups;
 
+    // Set, if the document of this FileSet has been frozen.
+    private transient boolean            frozen                = false;
+
     /***************************************************************************
      * <p>
      * Constructor. Creates all lists which store all objects for Images,
@@ -99,12 +104,28 @@ public class FileSet implements FileSetInterface, Serializable {
     @Override
     public void addFile(ContentFileInterface inImage) {
 
+        checkNotFrozen();
+
         // Only add the file, if it is not yet existing in the list.
         if (!this.allImages.contains(inImage)) {
             this.allImages.add(inImage);
         }
     }
 
+    /***************************************************************************
+     * <p>
+     * Adds new ContentFile objects, which are not yet part of the FileSet, without checking for each of them whether it is already existing.
+     * Used by the {@link PaginationBuilder}.
+     * </p>
+     *
+     * @param newFiles
+     *            ContentFiles to be added
+     **************************************************************************/
+    void addNewFiles(Collection<? extends ContentFileInterface> newFiles) {
+        checkNotFrozen();
+        this.allImages.addAll(newFiles);
+    }
+
     /***************************************************************************
      * <p>
      * Removes a ContentFile from the FileSet. If the ContentFile doesn't belong
@@ -116,6 +137,7 @@ public class FileSet implements FileSetInterface, Serializable {
      **************************************************************************/
     @Override
     public void removeFile(ContentFileInterface inImage) {
+        checkNotFrozen();
         this.allImages.remove(inImage);
     }
 
@@ -124,6 +146,7 @@ public class FileSet implements FileSetInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean addMetadata(Metadata inMD) {
+        checkNotFrozen();
         this.allMetadata.add(inMD);
         return true;
     }
@@ -133,6 +156,7 @@ public class FileSet implements FileSetInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean removeMetadata(Metadata inMD) {
+        checkNotFrozen();
         this.removedMetadata.add(inMD);
         this.allMetadata.remove(inMD);
         return true;
@@ -143,6 +167,9 @@ public class FileSet implements FileSetInterface, Serializable {
      **************************************************************************/
     @Override
     public Collection<ContentFileInterface> getAllFiles() {
+        if (this.frozen && this.allImages != null) {
+            return Collections.unmodifiableCollection(this.allImages);
+        }
         return this.allImages;
     }
 
@@ -150,14 +177,14 @@ public class FileSet implements FileSetInterface, Serializable {
      * @return
      **************************************************************************/
     public List<Metadata> getAllMetadata() {
-        return this.allMetadata;
+        return readOnly(this.allMetadata);
     }
 
     /***************************************************************************
      * @return
      **************************************************************************/
     public List<VirtualFileGroup> getVirtualFileGroups() {
-        return this.virtualFileGroups;
+        return readOnly(this.virtualFileGroups);
     }
 
     /**************************************************************************
@@ -165,6 +192,7 @@ public class FileSet implements FileSetInterface, Serializable {
      **************************************************************************/
     public void setVirtualFileGroups(
             List<VirtualFileGroup> theVirtualFileGroupList) {
+        checkNotFrozen();
         this.virtualFileGroups = theVirtualFileGroupList;
     }
 
@@ -173,6 +201,7 @@ public class FileSet implements FileSetInterface, Serializable {
      **************************************************************************/
     @Override
     public void addVirtualFileGroup(VirtualFileGroupInterface theFilegroup) {
+        checkNotFrozen();
         this.virtualFileGroups.add((VirtualFileGroup) theFilegroup);
     }
 
@@ -180,6 +209,7 @@ public class FileSet implements FileSetInterface, Serializable {
      * @param theFilegroup
      **************************************************************************/
     public void removeVirtualFileGroup(VirtualFileGroup theFilegroup) {
+        checkNotFrozen();
         this.virtualFileGroups.remove(theFilegroup);
     }
 
@@ -227,4 +257,127 @@ public class FileSet implements FileSetInterface, Serializable {
         return result;
     }
 
+    /***************************************************************************
+     * <p>
+     * Returns a hash of the files, in order, and of the metadata of this FileSet. It is combined from the content hashes of the files, which are
+     * cached by the files.
+     * </p>
+     *
+     * @return the content hash
+     **************************************************************************/
+    public long getContentHash() {
+        long hash = ContentHash.start(ContentHash.FILE_SET);
+        if (this.allImages != null) {
+            for (ContentFileInterface contentFile : this.allImages) {
+                hash = ContentHash.add(hash, ((ContentFile) contentFile).getContentHash());
+            }
+        }
+        return ContentHash.add(hash, ContentHash.unordered(this.allMetadata));
+    }
+
+    /***************************************************************************
+     * <p>
+     * Makes this FileSet, its files and its metadata read-only. The lists are compacted; they are returned as unmodifiable views and the
+     * mutators throw an UnsupportedOperationException afterwards.
+     * </p>
+     *
+     * @see DigitalDocument#freeze()
+     **************************************************************************/
+    void freeze() {
+        if (this.frozen) {
+            return;
+        }
+        if (this.allImages != null) {
+            this.allImages = new ArrayList<ContentFileInterface>(this.allImages);
+            for (ContentFileInterface contentFile : this.allImages) {
+                ((ContentFile) contentFile).freeze();
+            }
+        }
+        if (this.allMetadata != null) {
+            this.allMetadata = new ArrayList<Metadata>(this.allMetadata);
+            for (Metadata metadata : this.allMetadata) {
+                metadata.freeze();
+            }
+        }
+        if (this.virtualFileGroups != null) {
+            this.virtualFileGroups = new ArrayList<VirtualFileGroup>(this.virtualFileGroups);
+        }
+        this.frozen = true;
+    }
+
+    /***************************************************************************
+     * @return true, if this FileSet has been frozen and is read-only
+     **************************************************************************/
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /***************************************************************************
+     * @param list may be null
+     * @return the list, or an unmodifiable view of it, if this FileSet has been frozen
+     **************************************************************************/
+    private <T> List<T> readOnly(List<T> list) {
+        return this.frozen && list != null ? Collections.unmodifiableList(list) : list;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException if this FileSet has been frozen
+     **************************************************************************/
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("The FileSet belongs to a frozen DigitalDocument and can not be modified");
+        }
+    }
+
+    /***************************************************************************
+     * @return a copy of this instance with new lists, which share the files, metadata and virtual file groups with it
+     **************************************************************************/
+    FileSet copyState() {
+
+        FileSet state = new FileSet();
+        state.allImages = this.allImages == null ? null : new ArrayList<ContentFileInterface>(this.allImages);
+        state.allMetadata = this.allMetadata == null ? null : new ArrayList<Metadata>(this.allMetadata);
+        state.removedMetadata = this.removedMetadata == null ? null : new ArrayList<Metadata>(this.removedMetadata);
+        state.virtualFileGroups = this.virtualFileGroups == null ? null : new ArrayList<VirtualFileGroup>(this.virtualFileGroups);
+
+        return state;
+    }
+
+    /***************************************************************************
+     * @param copier
+     * @return a deep copy of this instance
+     **************************************************************************/
+    FileSet deepCopy(DocumentCopier copier) {
+
+        FileSet copy = new FileSet();
+        copier.put(this, copy);
+        if (this.allImages == null) {
+            copy.allImages = null;
+        } else {
+            copy.allImages = new ArrayList<ContentFileInterface>(this.allImages.size());
+            for (ContentFileInterface contentFile : this.allImages) {
+                copy.allImages.add(copier.copyContentFile((ContentFile) contentFile));
+            }
+        }
+        copy.allMetadata = copier.copyAllMetadata(this.allMetadata);
+        copy.removedMetadata = copier.copyAllMetadata(this.removedMetadata);
+        if (this.virtualFileGroups == null) {
+            copy.virtualFileGroups = null;
+        } else {
+            copy.virtualFileGroups = new ArrayList<VirtualFileGroup>(this.virtualFileGroups.size());
+            for (VirtualFileGroup group : this.virtualFileGroups) {
+                VirtualFileGroup groupCopy = new VirtualFileGroup();
+                groupCopy.setName(group.getName());
+                groupCopy.setPathToFiles(group.getPathToFiles());
+                groupCopy.setMimetype(group.getMimetype());
+                groupCopy.setFileSuffix(group.getFileSuffix());
+                groupCopy.setIdSuffix(group.getIdSuffix());
+                groupCopy.setOrdinary(group.isOrdinary());
+                copy.virtualFileGroups.add(groupCopy);
+            }
+        }
+
+        return copy;
+    }
+
 }
@@ -21,6 +21,10 @@ package ugh.dl;
  * along with this library. If not, see <http://www.gnu.org/licenses/>.
  ******************************************************************************/
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 import org.apache.logging.log4j.LogManager;
@@ -55,26 +59,31 @@ public class Metadata implements MetadataInterface, Serializable {
 
     private static final Logger logger = LogManager.getLogger(Metadata.class);
 
+    // The serialised form of this class, which still contains the fields
+    // moved to MetadataExtras.
+    private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField("MDType", MetadataType.class),
+            new ObjectStreamField("myDocStruct", DocStruct.class), new ObjectStreamField("metadataValue", String.class),
+            new ObjectStreamField("MetadataVQ", String.class), new ObjectStreamField("MetadataVQType", String.class),
+            new ObjectStreamField("nativeObject", Object.class), new ObjectStreamField("authorityURI", String.class),
+            new ObjectStreamField("authorityID", String.class), new ObjectStreamField("authorityValue", String.class),
+            new ObjectStreamField("updated", boolean.class) };
+
     protected MetadataType MDType;
     // Document structure to which this metadata type belongs to.
     protected DocStruct myDocStruct;
 
     private String metadataValue;
-    private String MetadataVQ;
-    private String MetadataVQType;
-
-    // Contains the native object; e.g. the element of a DOM tree
-    @Deprecated
-    private Object nativeObject;
-
-    private String authorityURI;
 
-    private String authorityID;
-
-    private String authorityValue;
+    // Value qualifier, authority file record and native object; null, if none
+    // of them is set. Serialised as the fields of this class, see
+    // serialPersistentFields.
+    private transient MetadataExtras extras;
 
     private boolean updated = false;
 
+    // Set, if the document of this metadata has been frozen.
+    private transient boolean frozen = false;
+
     /***************************************************************************
      * <p>
      * Constructor.
@@ -95,6 +104,26 @@ public class Metadata implements MetadataInterface, Serializable {
         this.MDType = theType;
     }
 
+    /***************************************************************************
+     * <p>
+     * Copy constructor, used by the {@link DocumentCopier}. The DocStruct of the copy is resolved later.
+     * </p>
+     *
+     * @param original
+     * @param copier
+     **************************************************************************/
+    Metadata(Metadata original, DocumentCopier copier) {
+
+        super();
+
+        copier.put(original, this);
+        this.MDType = original.MDType;
+        this.myDocStruct = original.myDocStruct;
+        this.metadataValue = original.metadataValue;
+        this.extras = original.extras == null ? null : original.extras.copy();
+        this.updated = original.updated;
+    }
+
     /***************************************************************************
      * <p>
      * Sets the Document structure entity to which this object belongs to.
@@ -104,6 +133,7 @@ public class Metadata implements MetadataInterface, Serializable {
      **************************************************************************/
     @Override
     public void setDocStruct(DocStructInterface inDoc) {
+        beforeChange();
         this.myDocStruct = (DocStruct) inDoc;
     }
 
@@ -154,7 +184,11 @@ public class Metadata implements MetadataInterface, Serializable {
      **************************************************************************/
     @Override
     public void setType(MetadataTypeInterface inType) {
+        beforeChange();
         this.MDType = (MetadataType) inType;
+        if (this.myDocStruct != null) {
+            this.myDocStruct.metadataTypeChanged(this);
+        }
     }
 
     /***************************************************************************
@@ -180,8 +214,12 @@ public class Metadata implements MetadataInterface, Serializable {
      * @param inValue The value as String.
      **************************************************************************/
     public boolean setValue(String inValue) {
-        this.metadataValue = inValue;
+        beforeChange();
+        this.metadataValue = pooled(inValue);
         this.updated = true;
+        if (this.myDocStruct != null) {
+            this.myDocStruct.metadataChanged();
+        }
         return true;
     }
 
@@ -195,8 +233,12 @@ public class Metadata implements MetadataInterface, Serializable {
      **/
     @Override
     public void setStringValue(String inValue) {
-        this.metadataValue = inValue;
+        beforeChange();
+        this.metadataValue = pooled(inValue);
         this.updated = true;
+        if (this.myDocStruct != null) {
+            this.myDocStruct.metadataChanged();
+        }
     }
 
     /***************************************************************************
@@ -212,9 +254,12 @@ public class Metadata implements MetadataInterface, Serializable {
      *
      **************************************************************************/
     public void setAutorityFile(String authorityID, String authorityURI, String authorityValue) {
-        this.authorityID = authorityID;
-        this.authorityURI = authorityURI;
-        this.authorityValue = authorityValue;
+        beforeChange();
+        MetadataExtras changed = changeExtras();
+        changed.authorityID = pooled(authorityID);
+        changed.authorityURI = pooled(authorityURI);
+        changed.authorityValue = pooled(authorityValue);
+        dropEmptyExtras();
     }
 
     /***************************************************************************
@@ -225,7 +270,7 @@ public class Metadata implements MetadataInterface, Serializable {
      * @return Identifier from authority file.
      **************************************************************************/
     public String getAuthorityID() {
-        return this.authorityID;
+        return this.extras == null ? null : this.extras.authorityID;
     }
 
 
@@ -237,7 +282,7 @@ public class Metadata implements MetadataInterface, Serializable {
      * @return Identifier from value.
      **************************************************************************/
     public String getAuthorityURI() {
-        return this.authorityURI;
+        return this.extras == null ? null : this.extras.authorityURI;
     }
 
     /***************************************************************************
@@ -248,7 +293,7 @@ public class Metadata implements MetadataInterface, Serializable {
      * @return Identifier from value.
      **************************************************************************/
     public String getAuthorityValue() {
-        return this.authorityValue;
+        return this.extras == null ? null : this.extras.authorityValue;
     }
 
     /***************************************************************************
@@ -270,6 +315,7 @@ public class Metadata implements MetadataInterface, Serializable {
      * @param in
      **************************************************************************/
     public void wasUpdated(boolean in) {
+        beforeChange();
         this.updated = in;
     }
 
@@ -306,8 +352,10 @@ public class Metadata implements MetadataInterface, Serializable {
             return false;
         }
 
-        this.MetadataVQ = inVQ;
-        this.MetadataVQType = inVQType;
+        beforeChange();
+        MetadataExtras changed = changeExtras();
+        changed.MetadataVQ = pooled(inVQ);
+        changed.MetadataVQType = pooled(inVQType);
 
         return true;
     }
@@ -320,7 +368,7 @@ public class Metadata implements MetadataInterface, Serializable {
      * @return Value of ValueQualifier as String.
      **************************************************************************/
     public String getValueQualifier() {
-        return this.MetadataVQ;
+        return this.extras == null ? null : this.extras.MetadataVQ;
     }
 
     /***************************************************************************
@@ -331,7 +379,7 @@ public class Metadata implements MetadataInterface, Serializable {
      * @return Type of ValueQualifier as string.
      **************************************************************************/
     public String getValueQualifierType() {
-        return this.MetadataVQType;
+        return this.extras == null ? null : this.extras.MetadataVQType;
     }
 
     /***************************************************************************
@@ -344,7 +392,9 @@ public class Metadata implements MetadataInterface, Serializable {
      **************************************************************************/
     @Deprecated
     public boolean setNativeObject(Object inObj) {
-        this.nativeObject = inObj;
+        beforeChange();
+        changeExtras().nativeObject = inObj;
+        dropEmptyExtras();
 
         return true;
     }
@@ -358,7 +408,7 @@ public class Metadata implements MetadataInterface, Serializable {
      **************************************************************************/
     @Deprecated
     public Object getNativeObject() {
-        return this.nativeObject;
+        return this.extras == null ? null : this.extras.nativeObject;
     }
 
     /*
@@ -429,4 +479,179 @@ public class Metadata implements MetadataInterface, Serializable {
         return true;
     }
 
+    /***************************************************************************
+     * @param copier
+     * @return a copy of this instance
+     **************************************************************************/
+    Metadata deepCopy(DocumentCopier copier) {
+        return new Metadata(this, copier);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Resolves the link to the DocStruct of this copy.
+     * </p>
+     *
+     * @param copier
+     **************************************************************************/
+    void resolveCopy(DocumentCopier copier) {
+        this.myDocStruct = copier.resolve(this.myDocStruct);
+    }
+
+    /***************************************************************************
+     * @return a hash of the type, value and value qualifier of this instance
+     **************************************************************************/
+    long getContentHash() {
+        long hash = ContentHash.start(ContentHash.METADATA);
+        hash = ContentHash.add(hash, this.MDType == null ? null : this.MDType.getName());
+        hash = ContentHash.add(hash, this.metadataValue);
+        hash = ContentHash.add(hash, getValueQualifier());
+        return ContentHash.add(hash, getValueQualifierType());
+    }
+
+    /***************************************************************************
+     * <p>
+     * Replaces the values of this instance by the equal instances of the pool, or adds them to it.
+     * </p>
+     *
+     * @param pool
+     * @see DigitalDocument#setCompactStorage(boolean)
+     **************************************************************************/
+    void internValues(StringPool pool) {
+        this.metadataValue = pool.intern(this.metadataValue);
+        if (this.extras != null) {
+            this.extras.internValues(pool);
+        }
+    }
+
+    /***************************************************************************
+     * @return the extras of this instance, which are created, if not present yet
+     **************************************************************************/
+    private MetadataExtras changeExtras() {
+        if (this.extras == null) {
+            this.extras = new MetadataExtras();
+        }
+        return this.extras;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Removes the extras of this instance, if none of their fields is set anymore.
+     * </p>
+     **************************************************************************/
+    private void dropEmptyExtras() {
+        if (this.extras != null && this.extras.isEmpty()) {
+            this.extras = null;
+        }
+    }
+
+    /***************************************************************************
+     * @return the rarely set fields of this instance, or null, if none is set
+     * @see MetadataConverter
+     **************************************************************************/
+    MetadataExtras getExtras() {
+        return this.extras;
+    }
+
+    /***************************************************************************
+     * @param extras the rarely set fields of this instance, may be null
+     * @see MetadataConverter
+     **************************************************************************/
+    void setExtras(MetadataExtras extras) {
+        this.extras = extras == null || extras.isEmpty() ? null : extras;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Writes this instance in its old serialised form, with the fields of its extras inline.
+     * </p>
+     *
+     * @param out
+     * @throws IOException
+     **************************************************************************/
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        MetadataExtras written = this.extras == null ? new MetadataExtras() : this.extras;
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("MDType", this.MDType);
+        fields.put("myDocStruct", this.myDocStruct);
+        fields.put("metadataValue", this.metadataValue);
+        fields.put("MetadataVQ", written.MetadataVQ);
+        fields.put("MetadataVQType", written.MetadataVQType);
+        fields.put("nativeObject", written.nativeObject);
+        fields.put("authorityURI", written.authorityURI);
+        fields.put("authorityID", written.authorityID);
+        fields.put("authorityValue", written.authorityValue);
+        fields.put("updated", this.updated);
+        out.writeFields();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads this instance from its serialised form.
+     * </p>
+     *
+     * @param in
+     * @throws IOException
+     * @throws ClassNotFoundException
+     **************************************************************************/
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.MDType = (MetadataType) fields.get("MDType", null);
+        this.myDocStruct = (DocStruct) fields.get("myDocStruct", null);
+        this.metadataValue = (String) fields.get("metadataValue", null);
+        MetadataExtras read = new MetadataExtras();
+        read.MetadataVQ = (String) fields.get("MetadataVQ", null);
+        read.MetadataVQType = (String) fields.get("MetadataVQType", null);
+        read.nativeObject = fields.get("nativeObject", null);
+        read.authorityURI = (String) fields.get("authorityURI", null);
+        read.authorityID = (String) fields.get("authorityID", null);
+        read.authorityValue = (String) fields.get("authorityValue", null);
+        setExtras(read);
+        this.updated = fields.get("updated", false);
+    }
+
+    /***************************************************************************
+     * @param value may be null
+     * @return the pooled instance of the value, if the document of this instance uses compact storage, or else the value itself
+     **************************************************************************/
+    String pooled(String value) {
+        StringPool pool = this.myDocStruct == null ? null : this.myDocStruct.getStringPool();
+        return pool == null ? value : pool.intern(value);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Makes this instance read-only; its setters throw an UnsupportedOperationException afterwards.
+     * </p>
+     *
+     * @see DigitalDocument#freeze()
+     **************************************************************************/
+    void freeze() {
+        this.frozen = true;
+    }
+
+    /***************************************************************************
+     * @return true, if this instance has been frozen and is read-only
+     **************************************************************************/
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notifies the DocStruct that this instance is about to be changed, so that the open snapshots of its document can keep its state.
+     * </p>
+     *
+     * @throws UnsupportedOperationException if this instance has been frozen
+     **************************************************************************/
+    void beforeChange() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("Metadata '" + (this.MDType == null ? null : this.MDType.getName())
+                    + "' belongs to a frozen DigitalDocument and can not be modified");
+        }
+        if (this.myDocStruct != null) {
+            this.myDocStruct.beforeChange(this);
+        }
+    }
+
 }
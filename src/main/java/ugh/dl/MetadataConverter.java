@@ -0,0 +1,172 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / MetadataConverter.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.lang.reflect.Field;
+
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.core.util.HierarchicalStreams;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+/*******************************************************************************
+ * <p>
+ * Converts Metadata and Persons from and to XStream XML, in the form they had before their rarely set fields were moved to
+ * {@link MetadataExtras}: these fields are written as elements of the Metadata, like its other fields.
+ * </p>
+ *
+ * <p>
+ * Without this converter, XStream would use the custom serialisation methods of Metadata, and could not read the files written before.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#readXStreamXml(String, Prefs)
+ *
+ ******************************************************************************/
+
+final class MetadataConverter extends ReflectionConverter {
+
+    /***************************************************************************
+     * @param mapper the mapper of the XStream instance
+     * @param reflectionProvider the reflection provider of the XStream instance
+     **************************************************************************/
+    MetadataConverter(Mapper mapper, ReflectionProvider reflectionProvider) {
+        super(mapper, reflectionProvider);
+    }
+
+    @Override
+    public boolean canConvert(Class type) {
+        return type != null && Metadata.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+
+        // The extras are transient, so the reflection converter writes all
+        // other fields.
+        super.marshal(source, writer, context);
+
+        MetadataExtras extras = ((Metadata) source).getExtras();
+        if (extras != null) {
+            writeExtra("MetadataVQ", extras.MetadataVQ, writer, context);
+            writeExtra("MetadataVQType", extras.MetadataVQType, writer, context);
+            writeExtra("nativeObject", extras.nativeObject, writer, context);
+            writeExtra("authorityURI", extras.authorityURI, writer, context);
+            writeExtra("authorityID", extras.authorityID, writer, context);
+            writeExtra("authorityValue", extras.authorityValue, writer, context);
+        }
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+
+        Metadata result = (Metadata) this.reflectionProvider.newInstance(context.getRequiredType());
+        MetadataExtras extras = new MetadataExtras();
+
+        while (reader.hasMoreChildren()) {
+            reader.moveDown();
+            String name = reader.getNodeName();
+
+            if ("nativeObject".equals(name)) {
+                extras.nativeObject = context.convertAnother(result, readType(reader, Object.class));
+            } else if (isExtra(name)) {
+                String value = (String) context.convertAnother(result, readType(reader, String.class));
+                if ("MetadataVQ".equals(name)) {
+                    extras.MetadataVQ = value;
+                } else if ("MetadataVQType".equals(name)) {
+                    extras.MetadataVQType = value;
+                } else if ("authorityURI".equals(name)) {
+                    extras.authorityURI = value;
+                } else if ("authorityID".equals(name)) {
+                    extras.authorityID = value;
+                } else {
+                    extras.authorityValue = value;
+                }
+            } else {
+                String fieldName = this.mapper.realMember(result.getClass(), name);
+                Field field = this.reflectionProvider.getFieldOrNull(result.getClass(), fieldName);
+                if (field == null) {
+                    throw new ConversionException("No field '" + name + "' in " + result.getClass().getName());
+                }
+                Object value = context.convertAnother(result, readType(reader, field.getType()));
+                this.reflectionProvider.writeField(result, fieldName, value, field.getDeclaringClass());
+            }
+
+            reader.moveUp();
+        }
+
+        result.setExtras(extras);
+        return result;
+    }
+
+    /***************************************************************************
+     * @param name name of an element of a Metadata
+     * @return true, if the element holds a string field of the extras
+     **************************************************************************/
+    private static boolean isExtra(String name) {
+        return "MetadataVQ".equals(name) || "MetadataVQType".equals(name) || "authorityURI".equals(name) || "authorityID".equals(name)
+                || "authorityValue".equals(name);
+    }
+
+    /***************************************************************************
+     * @param reader positioned at the element of a field
+     * @param declaredType the declared type of the field
+     * @return the type given by the class attribute of the element, or else the default implementation of the declared type
+     **************************************************************************/
+    private Class<?> readType(HierarchicalStreamReader reader, Class<?> declaredType) {
+        String classAttribute = HierarchicalStreams.readClassAttribute(reader, this.mapper);
+        return classAttribute == null ? this.mapper.defaultImplementationOf(declaredType) : this.mapper.realClass(classAttribute);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Writes a field of the extras as the reflection converter would have written it, if it is set.
+     * </p>
+     *
+     * @param name the name of the field
+     * @param value the value of the field, may be null
+     * @param writer
+     * @param context
+     **************************************************************************/
+    private void writeExtra(String name, Object value, HierarchicalStreamWriter writer, MarshallingContext context) {
+
+        if (value == null) {
+            return;
+        }
+
+        writer.startNode(name);
+        if (value.getClass() != String.class) {
+            String classAttribute = this.mapper.aliasForSystemAttribute("class");
+            if (classAttribute != null) {
+                writer.addAttribute(classAttribute, this.mapper.serializedClass(value.getClass()));
+            }
+        }
+        context.convertAnother(value);
+        writer.endNode();
+    }
+
+}
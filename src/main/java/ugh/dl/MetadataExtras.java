@@ -0,0 +1,85 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / MetadataExtras.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+/*******************************************************************************
+ * <p>
+ * Holds the rarely set fields of a Metadata instance: its value qualifier, its authority file record and its native object. Most Metadata
+ * instances have none of them, so they only carry a null reference instead of six.
+ * </p>
+ *
+ * <p>
+ * The fields keep their names from Metadata, under which they are still serialised.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see Metadata
+ *
+ ******************************************************************************/
+
+final class MetadataExtras {
+
+    String MetadataVQ;
+    String MetadataVQType;
+    String authorityURI;
+    String authorityID;
+    String authorityValue;
+    Object nativeObject;
+
+    /***************************************************************************
+     * @return a copy of this instance
+     **************************************************************************/
+    MetadataExtras copy() {
+        MetadataExtras copy = new MetadataExtras();
+        copy.MetadataVQ = this.MetadataVQ;
+        copy.MetadataVQType = this.MetadataVQType;
+        copy.authorityURI = this.authorityURI;
+        copy.authorityID = this.authorityID;
+        copy.authorityValue = this.authorityValue;
+        copy.nativeObject = this.nativeObject;
+        return copy;
+    }
+
+    /***************************************************************************
+     * @return true, if none of the fields is set
+     **************************************************************************/
+    boolean isEmpty() {
+        return this.MetadataVQ == null && this.MetadataVQType == null && this.authorityURI == null && this.authorityID == null
+                && this.authorityValue == null && this.nativeObject == null;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Replaces the strings of this instance by the equal instances of the pool, or adds them to it.
+     * </p>
+     *
+     * @param pool
+     **************************************************************************/
+    void internValues(StringPool pool) {
+        this.MetadataVQ = pool.intern(this.MetadataVQ);
+        this.MetadataVQType = pool.intern(this.MetadataVQType);
+        this.authorityURI = pool.intern(this.authorityURI);
+        this.authorityID = pool.intern(this.authorityID);
+        this.authorityValue = pool.intern(this.authorityValue);
+    }
+
+}
@@ -26,6 +26,7 @@ package ugh.dl;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -67,6 +68,9 @@ public class MetadataGroup implements MetadataGroupInterface, Serializable {
     private List<MetadataInterface> metadataList;
     private Collection<PersonInterface> personList;
 
+    // Set, if the document of this group has been frozen.
+    private transient boolean frozen = false;
+
     /***************************************************************************
      * <p>
      * Constructor.
@@ -99,6 +103,23 @@ public class MetadataGroup implements MetadataGroupInterface, Serializable {
 
     }
 
+    /***************************************************************************
+     * <p>
+     * Copy constructor, used by the {@link DocumentCopier}. The DocStruct of the copy is resolved later.
+     * </p>
+     *
+     * @param original
+     * @param copier
+     **************************************************************************/
+    MetadataGroup(MetadataGroup original, DocumentCopier copier) {
+
+        copier.put(original, this);
+        this.MDType = original.MDType;
+        this.myDocStruct = original.myDocStruct;
+        this.metadataList = copier.copyAllMetadata(original.metadataList);
+        this.personList = copier.copyAllMetadata(original.personList);
+    }
+
     /***************************************************************************
      * <p>
      * Sets the Document structure entity to which this object belongs to.
@@ -107,7 +128,19 @@ public class MetadataGroup implements MetadataGroupInterface, Serializable {
      * @param inDoc
      **************************************************************************/
     public void setDocStruct(DocStruct inDoc) {
+        beforeChange();
         this.myDocStruct = inDoc;
+        // The members belong to the same DocStruct.
+        if (this.metadataList != null) {
+            for (MetadataInterface metadata : this.metadataList) {
+                ((Metadata) metadata).myDocStruct = inDoc;
+            }
+        }
+        if (this.personList != null) {
+            for (PersonInterface person : this.personList) {
+                ((Person) person).myDocStruct = inDoc;
+            }
+        }
     }
 
     /***************************************************************************
@@ -156,35 +189,61 @@ public class MetadataGroup implements MetadataGroupInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean setType(MetadataGroupType inType) {
+        beforeChange();
         this.MDType = inType;
+        if (this.myDocStruct != null) {
+            this.myDocStruct.metadataTypeChanged(this);
+        }
         return true;
     }
 
     @Override
     public List<MetadataInterface> getMetadataList() {
+        if (this.frozen && metadataList != null) {
+            return Collections.unmodifiableList(metadataList);
+        }
         return metadataList;
     }
 
     public void setMetadataList(List<MetadataInterface> metadataList) {
+        beforeChange();
         this.metadataList = metadataList;
+        if (metadataList != null) {
+            for (MetadataInterface metadata : metadataList) {
+                ((Metadata) metadata).myDocStruct = this.myDocStruct;
+            }
+        }
     }
 
     @Override
     public void addMetadata(MetadataInterface metadata) {
+        beforeChange();
+        ((Metadata) metadata).myDocStruct = this.myDocStruct;
         this.metadataList.add(metadata);
     }
 
     @Override
     public Collection<PersonInterface> getPersonList() {
+        if (this.frozen && personList != null) {
+            return Collections.unmodifiableCollection(personList);
+        }
         return personList;
     }
 
     public void setPersonList(Collection<PersonInterface> personList) {
+        beforeChange();
         this.personList = personList;
+        if (personList != null) {
+            for (PersonInterface person : personList) {
+                ((Person) person).myDocStruct = this.myDocStruct;
+            }
+        }
     }
 
     @Override
     public void addPerson(PersonInterface person) {
+        beforeChange();
+        ((Person) person).myDocStruct = this.myDocStruct;
         this.personList.add(person);
     }
     @Override
@@ -257,4 +316,101 @@ public class MetadataGroup implements MetadataGroupInterface, Serializable {
         return true;
     }
 
+    /***************************************************************************
+     * @param copier
+     * @return a deep copy of this instance
+     **************************************************************************/
+    MetadataGroup deepCopy(DocumentCopier copier) {
+        return new MetadataGroup(this, copier);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Resolves the link to the DocStruct of this copy.
+     * </p>
+     *
+     * @param copier
+     **************************************************************************/
+    void resolveCopy(DocumentCopier copier) {
+        this.myDocStruct = copier.resolve(this.myDocStruct);
+    }
+
+    /***************************************************************************
+     * @return a hash of the type and the members of this group, which does not depend on their order
+     **************************************************************************/
+    long getContentHash() {
+        long hash = ContentHash.start(ContentHash.METADATA_GROUP);
+        hash = ContentHash.add(hash, this.MDType == null ? null : this.MDType.getName());
+        hash = ContentHash.add(hash, ContentHash.unordered(this.metadataList));
+        return ContentHash.add(hash, ContentHash.unordered(this.personList));
+    }
+
+    /***************************************************************************
+     * <p>
+     * Replaces the values of the members by the equal instances of the pool, or adds them to it.
+     * </p>
+     *
+     * @param pool
+     **************************************************************************/
+    void internValues(StringPool pool) {
+        if (this.metadataList != null) {
+            for (MetadataInterface metadata : this.metadataList) {
+                ((Metadata) metadata).internValues(pool);
+            }
+        }
+        if (this.personList != null) {
+            for (PersonInterface person : this.personList) {
+                ((Person) person).internValues(pool);
+            }
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Makes this instance and its members read-only. The lists of members are compacted; they are returned as unmodifiable views and the setters
+     * throw an UnsupportedOperationException afterwards.
+     * </p>
+     *
+     * @see DigitalDocument#freeze()
+     **************************************************************************/
+    void freeze() {
+        if (this.metadataList != null) {
+            this.metadataList = new ArrayList<MetadataInterface>(this.metadataList);
+            for (MetadataInterface metadata : this.metadataList) {
+                ((Metadata) metadata).freeze();
+            }
+        }
+        if (this.personList != null) {
+            this.personList = new ArrayList<PersonInterface>(this.personList);
+            for (PersonInterface person : this.personList) {
+                ((Person) person).freeze();
+            }
+        }
+        this.frozen = true;
+    }
+
+    /***************************************************************************
+     * @return true, if this instance has been frozen and is read-only
+     **************************************************************************/
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notifies the DocStruct that this instance is about to be changed, so that the open snapshots of its document can keep its state.
+     * </p>
+     *
+     * @throws UnsupportedOperationException if this instance has been frozen
+     **************************************************************************/
+    private void beforeChange() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("MetadataGroup '" + (this.MDType == null ? null : this.MDType.getName())
+                    + "' belongs to a frozen DigitalDocument and can not be modified");
+        }
+        if (this.myDocStruct != null) {
+            this.myDocStruct.beforeChange(this);
+        }
+    }
+
 }
@@ -25,6 +25,7 @@ package ugh.dl;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -51,12 +52,16 @@ public class MetadataGroupType implements MetadataGroupTypeInterface, Serializab
     // Hash containing all languages.
     private Map<String, String> allLanguages;
 
+    // Set, if the Prefs holding this type have been compiled.
+    private boolean frozen = false;
+
     @Override
     public List<MetadataTypeInterface> getMetadataTypeList() {
         return metadataTypeList;
     }
 
     public void setMetadataTypeList(List<MetadataTypeInterface> metadataTypeList) {
+        checkNotFrozen();
         this.metadataTypeList = metadataTypeList;
     }
 
@@ -67,17 +72,20 @@ public class MetadataGroupType implements MetadataGroupTypeInterface, Serializab
 
     @Override
     public void setName(String name) {
+        checkNotFrozen();
         this.name = name;
     }
 
     @Override
     public void addMetadataType(MetadataTypeInterface metadataToAdd) {
+        checkNotFrozen();
         if (!metadataTypeList.contains(metadataToAdd)) {
             metadataTypeList.add(metadataToAdd);
         }
     }
 
     public void removeMetadataType(MetadataType metadataToRemove) {
+        checkNotFrozen();
         if (metadataTypeList.contains(metadataToRemove)) {
             metadataTypeList.remove(metadataToRemove);
         }
@@ -95,6 +103,7 @@ public class MetadataGroupType implements MetadataGroupTypeInterface, Serializab
 
     @Override
     public void setAllLanguages(Map<String, String> allLanguages) {
+        checkNotFrozen();
         this.allLanguages = allLanguages;
     }
 
@@ -104,6 +113,7 @@ public class MetadataGroupType implements MetadataGroupTypeInterface, Serializab
     @Override
     public void setNum(String in) {
 
+        checkNotFrozen();
         if (!in.equals("1m") && !in.equals("1o") && !in.equals("+") && !in.equals("*")) {
             // Unknown syntax.
             return;
@@ -153,4 +163,32 @@ public class MetadataGroupType implements MetadataGroupTypeInterface, Serializab
 
         return newMDType;
     }
+
+    /***************************************************************************
+     * <p>
+     * Makes this MetadataGroupType and its MetadataTypes read-only. Called when the Prefs holding this type are compiled; all mutators will throw an
+     * UnsupportedOperationException afterwards. Copies of a read-only MetadataGroupType are modifiable again.
+     * </p>
+     **************************************************************************/
+    void freeze() {
+
+        if (this.frozen) {
+            return;
+        }
+
+        for (MetadataTypeInterface mdt : this.metadataTypeList) {
+            ((MetadataType) mdt).freeze();
+        }
+        this.metadataTypeList = Collections.unmodifiableList(new ArrayList<MetadataTypeInterface>(this.metadataTypeList));
+        this.frozen = true;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException if this MetadataGroupType is read-only
+     **************************************************************************/
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("MetadataGroupType '" + this.name + "' belongs to compiled Prefs and can not be modified");
+        }
+    }
 }
@@ -58,13 +58,13 @@ import org.kitodo.api.ugh.MetadataTypeInterface;
  * <code>Prefs</code> object by giving the internal name. Some of the
  * information of a MetadataType object depends on the context in which it is
  * used. Context means it depends on the <code>DocStructType</code> object, in
- * which a MetadataType object is used. When adding a <code>MetadataType</code>
- * object to a <DocStructType> object, an internal copy is created and stored
- * with the <code>DocStructType</code> object. This copy is called locally and
- * may store information about its occurrences in this special
- * <code>DocStructType</code> object. The <code>DocStructType</code> class
- * contains methods to retrieve local <code>MetadataType</code> objects from
- * global ones.
+ * which a MetadataType object is used. This information, such as the number
+ * of occurrences, is stored with the <code>DocStructType</code> object. Global
+ * <code>MetadataType</code> objects are shared by all
+ * <code>DocStructType</code> objects allowing them; only MetadataTypes which do
+ * not belong to a <code>Prefs</code> object are copied when being added to a
+ * <code>DocStructType</code>. The <code>DocStructType</code> class contains
+ * methods to retrieve local <code>MetadataType</code> objects from global ones.
  * </p>
  * <p>
  * <code>MetadataType</code> objects are used, to create new
@@ -102,6 +102,15 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
     // that a metadata with the same value cannot be available twice.
     protected boolean                isIdentifier        = false;
 
+    // Prefs this type (or the global type this is a copy of) is registered
+    // with, to be notified on name and language changes.
+    private transient Prefs            prefs;
+    // Dense ID assigned by these Prefs, shared with the local copies.
+    private transient int              typeId                = -1;
+
+    // Set, if the Prefs holding this type have been compiled.
+    private boolean                    frozen                = false;
+
     /***************************************************************************
      * Constructor.
      **************************************************************************/
@@ -114,15 +123,26 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
      **************************************************************************/
     @Override
     public void setName(String in) {
+        checkNotFrozen();
         this.name = in;
+        if (this.prefs != null) {
+            this.prefs.metadataTypeChanged(true);
+        }
     }
 
     /***************************************************************************
+     * <p>
+     * Sets the number of possible Metadata objects for a DocStruct. The ruleset parsers do not set it, the number is stored in the DocStructType.
+     * </p>
+     *
      * @param in
+     * @deprecated The number depends on the DocStructType, use {@link DocStructType#addMetadataType(MetadataType, String)}.
      **************************************************************************/
     @Override
+    @Deprecated
     public void setNum(String in) {
 
+        checkNotFrozen();
         if (!in.equals("1m") && !in.equals("1o") && !in.equals("+")
                 && !in.equals("*")) {
             // Unknown syntax.
@@ -150,11 +170,12 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
 
         newMDType.setAllLanguages(this.allLanguages);
         newMDType.setName(this.name);
-        if (this.max_number != null) {
-            newMDType.setNum(this.max_number);
-        }
+        newMDType.max_number = this.max_number;
         newMDType.setIdentifier(this.isIdentifier());
         newMDType.setPerson(this.isPerson);
+        // The copy shares the languages, so changes must reach the Prefs.
+        newMDType.prefs = this.prefs;
+        newMDType.typeId = this.typeId;
         return newMDType;
     }
 
@@ -187,21 +208,25 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
      **************************************************************************/
     @Override
     public void setIdentifier(boolean isIdentifier) {
+        checkNotFrozen();
         this.isIdentifier = isIdentifier;
     }
 
     /***************************************************************************
      * <p>
-     * Retrieves the number of possible Metadata objects for a DocStruct. This
-     * is now based on the type of DocStruct and is therefor stored in the
-     * DocStructType.
+     * Retrieves the number of possible Metadata objects for a DocStruct, if it
+     * has been set with {@link #setNum(String)}. The number is based on the
+     * type of DocStruct and is therefore stored in the DocStructType; the
+     * MetadataTypes of the ruleset, which are also returned by the
+     * DocStructTypes, are shared by all DocStructTypes and return null.
      * </p>
      *
-     * TODO Was set to deprecated, who knows why?
-     *
-     * @return number of MetadataType
+     * @return number of MetadataType, or null
+     * @deprecated Use
+     *             {@link DocStructType#getNumberOfMetadataType(org.kitodo.api.ugh.MetadataTypeInterface)}.
      **************************************************************************/
     @Override
+    @Deprecated
     public String getNum() {
         return this.max_number;
     }
@@ -211,7 +236,11 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
      **************************************************************************/
     @Override
     public void setAllLanguages(HashMap<String, String> in) {
+        checkNotFrozen();
         this.allLanguages = in;
+        if (this.prefs != null) {
+            this.prefs.metadataTypeChanged(false);
+        }
     }
 
     /***************************************************************************
@@ -235,14 +264,17 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
      **************************************************************************/
     public boolean addLanguage(String theLanguage, String theValue) {
 
+        checkNotFrozen();
+
         // Check, if language already is available, if not, put it in.
-        for (Map.Entry<String, String> lang : this.allLanguages.entrySet()) {
-            if (lang.getKey().equals(theLanguage)) {
-                return false;
-            }
+        if (this.allLanguages.containsKey(theLanguage)) {
+            return false;
         }
 
         this.allLanguages.put(theLanguage, theValue);
+        if (this.prefs != null) {
+            this.prefs.metadataTypeChanged(false);
+        }
 
         return true;
     }
@@ -293,16 +325,20 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
      **************************************************************************/
     public boolean removeLanguage(String theLanguage) {
 
+        checkNotFrozen();
+
         // Check, if language already is available, if so, remove it.
-        for (Map.Entry<String, String> lang : this.allLanguages.entrySet()) {
-            if (lang.getKey().equals(theLanguage)) {
-                this.allLanguages.remove(lang);
-                return true;
-            }
+        if (!this.allLanguages.containsKey(theLanguage)) {
+            // Language unavailable, could not be removed.
+            return false;
         }
 
-        // Language unavailable, could not be removed.
-        return false;
+        this.allLanguages.remove(theLanguage);
+        if (this.prefs != null) {
+            this.prefs.metadataTypeChanged(false);
+        }
+
+        return true;
     }
 
     /***************************************************************************
@@ -327,6 +363,7 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
      **************************************************************************/
     @Override
     public void setPerson(boolean value) {
+        checkNotFrozen();
         this.isPerson = value;
     }
 
@@ -338,6 +375,64 @@ public class MetadataType implements MetadataTypeInterface, Serializable {
         return this.isPerson;
     }
 
+    /***************************************************************************
+     * <p>
+     * Registers the Prefs which hold this MetadataType, so that its name
+     * indexes can be updated on name and language changes.
+     * </p>
+     *
+     * @param thePrefs
+     **************************************************************************/
+    void setPrefs(Prefs thePrefs) {
+        this.prefs = thePrefs;
+    }
+
+    /***************************************************************************
+     * @return the Prefs this MetadataType is registered with, or null
+     **************************************************************************/
+    Prefs getPrefs() {
+        return this.prefs;
+    }
+
+    /***************************************************************************
+     * @param theTypeId the dense ID assigned by the Prefs
+     **************************************************************************/
+    void setTypeId(int theTypeId) {
+        this.typeId = theTypeId;
+    }
+
+    /***************************************************************************
+     * @return the dense ID assigned by the Prefs; only valid together with
+     *         getPrefs()
+     **************************************************************************/
+    int getTypeId() {
+        return this.typeId;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Makes this MetadataType read-only. Called when the Prefs holding this
+     * type are compiled; all mutators will throw an
+     * UnsupportedOperationException afterwards. Copies of a read-only
+     * MetadataType are modifiable again.
+     * </p>
+     **************************************************************************/
+    void freeze() {
+        this.frozen = true;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException
+     *             if this MetadataType is read-only
+     **************************************************************************/
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("MetadataType '"
+                    + this.name
+                    + "' belongs to compiled Prefs and can not be modified");
+        }
+    }
+
     /***************************************************************************
      * <p>
      * Compares this MetadataType with parameter metadataType.
@@ -0,0 +1,111 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / MetadataTypeLists.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.kitodo.api.ugh.MetadataGroupTypeInterface;
+import org.kitodo.api.ugh.MetadataTypeInterface;
+
+/*******************************************************************************
+ * <p>
+ * The addable, possible and default display type lists of a DocStruct, as they were computed for one state of it. The state is identified by the
+ * modification count of the DocStruct, which is increased before each change of its meta-data, persons and meta-data groups, its type, and the
+ * sizes of its lists; so direct changes of the lists are noticed, if they change their sizes. Changes of the DocStructType itself are not
+ * noticed.
+ * </p>
+ *
+ * <p>
+ * Each list is built on first use. An empty list stands for a result of null.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DocStruct
+ *
+ ******************************************************************************/
+
+final class MetadataTypeLists {
+
+    // State of the DocStruct the lists belong to.
+    private final int modificationCount;
+    private final DocStructType type;
+    private final int metadataCount;
+    private final int personCount;
+    private final int metadataGroupCount;
+
+    // The lists, or null, if they have not been built yet.
+    List<MetadataTypeInterface> addableMetadataTypes;
+    List<MetadataTypeInterface> possibleMetadataTypes;
+    List<MetadataGroupTypeInterface> addableMetadataGroupTypes;
+    List<MetadataGroupType> possibleMetadataGroupTypes;
+    List<MetadataTypeInterface> defaultDisplayMetadataTypes;
+
+    /***************************************************************************
+     * @param modificationCount modification count of the DocStruct
+     * @param type type of the DocStruct
+     * @param metadata meta-data of the DocStruct, may be null
+     * @param persons persons of the DocStruct, may be null
+     * @param metadataGroups meta-data groups of the DocStruct, may be null
+     **************************************************************************/
+    MetadataTypeLists(int modificationCount, DocStructType type, List<?> metadata, List<?> persons, List<?> metadataGroups) {
+        this.modificationCount = modificationCount;
+        this.type = type;
+        this.metadataCount = size(metadata);
+        this.personCount = size(persons);
+        this.metadataGroupCount = size(metadataGroups);
+    }
+
+    /***************************************************************************
+     * @param modificationCount modification count of the DocStruct
+     * @param type type of the DocStruct
+     * @param metadata meta-data of the DocStruct, may be null
+     * @param persons persons of the DocStruct, may be null
+     * @param metadataGroups meta-data groups of the DocStruct, may be null
+     * @return true, if the lists belong to this state of the DocStruct
+     **************************************************************************/
+    boolean isCurrent(int modificationCount, DocStructType type, List<?> metadata, List<?> persons, List<?> metadataGroups) {
+        return this.modificationCount == modificationCount && this.type == type && this.metadataCount == size(metadata)
+                && this.personCount == size(persons) && this.metadataGroupCount == size(metadataGroups);
+    }
+
+    /***************************************************************************
+     * @param result a computed list, may be null
+     * @return the list to keep: a compact copy of it, or an empty list, if it is null or empty
+     **************************************************************************/
+    static <T> List<T> keep(List<T> result) {
+        if (result == null || result.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<T>(result);
+    }
+
+    /***************************************************************************
+     * @param list
+     * @return size of the list, 0 for null
+     **************************************************************************/
+    private static int size(List<?> list) {
+        return list == null ? 0 : list.size();
+    }
+
+}
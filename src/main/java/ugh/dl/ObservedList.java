@@ -0,0 +1,167 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / ObservedList.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+/*******************************************************************************
+ * <p>
+ * A view of a list, which notifies a listener before each change of the list made through the view, its iterators or its sub lists. DocStruct
+ * hands out its meta-data, person and meta-data group lists this way, so that changes made directly to them are noticed by its indexes.
+ * </p>
+ *
+ * <p>
+ * Iterating walks the underlying list with its own iterator, so a linked list is not accessed by index.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DocStruct#getAllMetadata()
+ *
+ ******************************************************************************/
+
+final class ObservedList<E> extends AbstractList<E> {
+
+    /***************************************************************************
+     * <p>
+     * Is notified before an observed list is changed.
+     * </p>
+     **************************************************************************/
+    interface Listener {
+
+        /***********************************************************************
+         * Called before the list is changed.
+         **********************************************************************/
+        void beforeChange();
+
+    }
+
+    private final List<E> list;
+    private final Listener listener;
+
+    /***************************************************************************
+     * @param list the list to observe
+     * @param listener the listener to notify before changes
+     **************************************************************************/
+    ObservedList(List<E> list, Listener listener) {
+        this.list = list;
+        this.listener = listener;
+    }
+
+    @Override
+    public E get(int index) {
+        return this.list.get(index);
+    }
+
+    @Override
+    public int size() {
+        return this.list.size();
+    }
+
+    @Override
+    public E set(int index, E element) {
+        this.listener.beforeChange();
+        return this.list.set(index, element);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        this.listener.beforeChange();
+        this.list.add(index, element);
+    }
+
+    @Override
+    public boolean add(E element) {
+        this.listener.beforeChange();
+        return this.list.add(element);
+    }
+
+    @Override
+    public E remove(int index) {
+        this.listener.beforeChange();
+        return this.list.remove(index);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public ListIterator<E> listIterator(final int index) {
+
+        final ListIterator<E> iterator = this.list.listIterator(index);
+
+        return new ListIterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return iterator.next();
+            }
+
+            @Override
+            public boolean hasPrevious() {
+                return iterator.hasPrevious();
+            }
+
+            @Override
+            public E previous() {
+                return iterator.previous();
+            }
+
+            @Override
+            public int nextIndex() {
+                return iterator.nextIndex();
+            }
+
+            @Override
+            public int previousIndex() {
+                return iterator.previousIndex();
+            }
+
+            @Override
+            public void remove() {
+                ObservedList.this.listener.beforeChange();
+                iterator.remove();
+            }
+
+            @Override
+            public void set(E element) {
+                ObservedList.this.listener.beforeChange();
+                iterator.set(element);
+            }
+
+            @Override
+            public void add(E element) {
+                ObservedList.this.listener.beforeChange();
+                iterator.add(element);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,332 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / PageLinkIndex.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.kitodo.api.ugh.DocStructInterface;
+import org.kitodo.api.ugh.ReferenceInterface;
+
+/*******************************************************************************
+ * <p>
+ * An index of the links between the logical and the physical structure of a DigitalDocument, that is of all {@link Reference}s of the type
+ * {@value #LOGICAL_PHYSICAL}.
+ * </p>
+ *
+ * <p>
+ * The physical structure entities are numbered in the order of the physical tree (pre-order), starting with 0 for the top physical DocStruct. A
+ * link to a physical DocStruct covers the DocStruct and all its descendants, so the page range of a logical DocStruct is the interval from the
+ * first to the last physical DocStruct covered by one of its links. The page ranges are kept in an interval tree, to find all logical DocStructs
+ * covering a page.
+ * </p>
+ *
+ * <p>
+ * The links are kept up to date by {@link DocStruct#addReferenceTo(DocStructInterface, String)} and its counterparts. The numbering and the
+ * interval tree are rebuilt lazily after links or the physical tree have been changed.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#getDocStructsByPage(DocStruct)
+ * @see DigitalDocument#getPageRange(DocStruct)
+ *
+ ******************************************************************************/
+
+final class PageLinkIndex {
+
+    static final String LOGICAL_PHYSICAL = "logical_physical";
+
+    private final DigitalDocument digitalDocument;
+    // Linked physical DocStructs by logical DocStruct.
+    private final Map<DocStruct, List<DocStruct>> pagesByDocStruct = new IdentityHashMap<DocStruct, List<DocStruct>>();
+
+    // Physical DocStructs in tree order, their numbers and the number of the
+    // last DocStruct of their subtree; null if they have to be rebuilt.
+    private List<DocStruct> physicalOrder;
+    private Map<DocStruct, Integer> ordinals;
+    private int[] subtreeEnds;
+
+    // Interval tree of the page ranges, sorted by start. The tree is implicit:
+    // the root of a range of the arrays is its middle element. maxEnds holds
+    // the greatest end within the subtree rooted at an element. Null if it has
+    // to be rebuilt.
+    private DocStruct[] owners;
+    private int[] starts;
+    private int[] ends;
+    private int[] maxEnds;
+    private Map<DocStruct, Integer> intervalByDocStruct;
+
+    /***************************************************************************
+     * <p>
+     * Collects the links of all DocStructs of the logical tree.
+     * </p>
+     *
+     * @param digitalDocument
+     **************************************************************************/
+    PageLinkIndex(DigitalDocument digitalDocument) {
+        this.digitalDocument = digitalDocument;
+        if (digitalDocument.getLogicalDocStruct() != null) {
+            collectLinks(digitalDocument.getLogicalDocStruct());
+        }
+    }
+
+    /***************************************************************************
+     * @param logical source of the link
+     * @param physical target of the link
+     **************************************************************************/
+    void linkAdded(DocStruct logical, DocStruct physical) {
+        List<DocStruct> pages = this.pagesByDocStruct.get(logical);
+        if (pages == null) {
+            pages = new ArrayList<DocStruct>(2);
+            this.pagesByDocStruct.put(logical, pages);
+        }
+        pages.add(physical);
+        this.owners = null;
+    }
+
+    /***************************************************************************
+     * @param logical source of the link
+     * @param physical target of the link
+     **************************************************************************/
+    void linkRemoved(DocStruct logical, DocStruct physical) {
+        List<DocStruct> pages = this.pagesByDocStruct.get(logical);
+        if (pages == null) {
+            return;
+        }
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i) == physical) {
+                pages.remove(i);
+                break;
+            }
+        }
+        if (pages.isEmpty()) {
+            this.pagesByDocStruct.remove(logical);
+        }
+        this.owners = null;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes a change of the physical tree.
+     * </p>
+     **************************************************************************/
+    void physicalStructureChanged() {
+        this.physicalOrder = null;
+        this.owners = null;
+    }
+
+    /***************************************************************************
+     * @param page a physical DocStruct
+     * @return all logical DocStructs whose page range covers the page, ordered by the start of their range; empty, if the page is not part of the
+     *         physical tree
+     **************************************************************************/
+    List<DocStruct> getDocStructsByPage(DocStruct page) {
+        buildIntervals();
+        Integer ordinal = this.ordinals.get(page);
+        if (ordinal == null) {
+            return Collections.emptyList();
+        }
+        List<DocStruct> result = new ArrayList<DocStruct>();
+        stab(0, this.owners.length - 1, ordinal.intValue(), result);
+        return result;
+    }
+
+    /***************************************************************************
+     * @param logical a logical DocStruct
+     * @return the physical DocStructs from the first to the last one covered by the links of the DocStruct, in tree order; empty, if it is not
+     *         linked to the physical tree
+     **************************************************************************/
+    List<DocStruct> getPageRange(DocStruct logical) {
+        buildIntervals();
+        Integer interval = this.intervalByDocStruct.get(logical);
+        if (interval == null) {
+            return Collections.emptyList();
+        }
+        int i = interval.intValue();
+        return Collections.unmodifiableList(this.physicalOrder.subList(this.starts[i], this.ends[i] + 1));
+    }
+
+    /***************************************************************************
+     * @param docStruct
+     **************************************************************************/
+    private void collectLinks(DocStruct docStruct) {
+        Collection<ReferenceInterface> references = docStruct.getAllToReferences(LOGICAL_PHYSICAL);
+        if (references != null) {
+            for (ReferenceInterface reference : references) {
+                linkAdded(docStruct, (DocStruct) reference.getTarget());
+            }
+        }
+        List<DocStructInterface> children = docStruct.getAllChildren();
+        if (children != null) {
+            for (DocStructInterface child : children) {
+                collectLinks((DocStruct) child);
+            }
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Numbers the physical tree, if necessary.
+     * </p>
+     **************************************************************************/
+    private void buildPhysicalOrder() {
+        if (this.physicalOrder != null) {
+            return;
+        }
+        this.physicalOrder = new ArrayList<DocStruct>();
+        this.ordinals = new IdentityHashMap<DocStruct, Integer>();
+        List<Integer> ends = new ArrayList<Integer>();
+        if (this.digitalDocument.getPhysicalDocStruct() != null) {
+            number(this.digitalDocument.getPhysicalDocStruct(), ends);
+        }
+        this.subtreeEnds = new int[ends.size()];
+        for (int i = 0; i < this.subtreeEnds.length; i++) {
+            this.subtreeEnds[i] = ends.get(i).intValue();
+        }
+    }
+
+    /***************************************************************************
+     * @param docStruct
+     * @param ends receives the end of the subtree of each numbered DocStruct
+     **************************************************************************/
+    private void number(DocStruct docStruct, List<Integer> ends) {
+        int ordinal = this.physicalOrder.size();
+        this.physicalOrder.add(docStruct);
+        this.ordinals.put(docStruct, Integer.valueOf(ordinal));
+        ends.add(null);
+        List<DocStructInterface> children = docStruct.getAllChildren();
+        if (children != null) {
+            for (DocStructInterface child : children) {
+                number((DocStruct) child, ends);
+            }
+        }
+        ends.set(ordinal, Integer.valueOf(this.physicalOrder.size() - 1));
+    }
+
+    /***************************************************************************
+     * <p>
+     * Builds the interval tree of the page ranges, if necessary.
+     * </p>
+     **************************************************************************/
+    void buildIntervals() {
+        buildPhysicalOrder();
+        if (this.owners != null) {
+            return;
+        }
+
+        final List<DocStruct> linked = new ArrayList<DocStruct>();
+        final List<int[]> ranges = new ArrayList<int[]>();
+        for (Map.Entry<DocStruct, List<DocStruct>> entry : this.pagesByDocStruct.entrySet()) {
+            int start = Integer.MAX_VALUE;
+            int end = -1;
+            for (DocStruct page : entry.getValue()) {
+                Integer ordinal = this.ordinals.get(page);
+                if (ordinal != null) {
+                    start = Math.min(start, ordinal.intValue());
+                    end = Math.max(end, this.subtreeEnds[ordinal.intValue()]);
+                }
+            }
+            if (end >= 0) {
+                linked.add(entry.getKey());
+                ranges.add(new int[] { start, end });
+            }
+        }
+
+        Integer[] order = new Integer[linked.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int[] r1 = ranges.get(o1.intValue());
+                int[] r2 = ranges.get(o2.intValue());
+                return r1[0] != r2[0] ? (r1[0] < r2[0] ? -1 : 1) : (r1[1] < r2[1] ? -1 : (r1[1] == r2[1] ? 0 : 1));
+            }
+        });
+
+        this.owners = new DocStruct[order.length];
+        this.starts = new int[order.length];
+        this.ends = new int[order.length];
+        this.maxEnds = new int[order.length];
+        this.intervalByDocStruct = new IdentityHashMap<DocStruct, Integer>();
+        for (int i = 0; i < order.length; i++) {
+            int source = order[i].intValue();
+            this.owners[i] = linked.get(source);
+            this.starts[i] = ranges.get(source)[0];
+            this.ends[i] = ranges.get(source)[1];
+            this.intervalByDocStruct.put(this.owners[i], Integer.valueOf(i));
+        }
+        computeMaxEnds(0, order.length - 1);
+    }
+
+    /***************************************************************************
+     * @param low first element of the subtree
+     * @param high last element of the subtree
+     * @return the greatest end within the subtree, or -1 if it is empty
+     **************************************************************************/
+    private int computeMaxEnds(int low, int high) {
+        if (low > high) {
+            return -1;
+        }
+        int middle = (low + high) >>> 1;
+        int max = Math.max(this.ends[middle], Math.max(computeMaxEnds(low, middle - 1), computeMaxEnds(middle + 1, high)));
+        this.maxEnds[middle] = max;
+        return max;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Collects the owners of all intervals within the subtree that contain the given point, in order.
+     * </p>
+     *
+     * @param low first element of the subtree
+     * @param high last element of the subtree
+     * @param point
+     * @param result
+     **************************************************************************/
+    private void stab(int low, int high, int point, List<DocStruct> result) {
+        if (low > high) {
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        if (this.maxEnds[middle] < point) {
+            return;
+        }
+        stab(low, middle - 1, point, result);
+        if (this.starts[middle] > point) {
+            // All intervals behind start even later.
+            return;
+        }
+        if (this.ends[middle] >= point) {
+            result.add(this.owners[middle]);
+        }
+        stab(middle + 1, high, point, result);
+    }
+
+}
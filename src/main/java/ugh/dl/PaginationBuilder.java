@@ -0,0 +1,286 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / PaginationBuilder.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kitodo.api.ugh.exceptions.MetadataTypeNotAllowedException;
+import org.kitodo.api.ugh.exceptions.PreferencesException;
+import org.kitodo.api.ugh.exceptions.TypeNotAllowedAsChildException;
+
+/*******************************************************************************
+ * <p>
+ * Creates the pages of the physical structure of a DigitalDocument in one pass. Each page gets a physPageNumber, a logicalPageNumber according
+ * to the label scheme and, if images are given, a ContentFile, which is added to the FileSet. The pages are appended to the physical DocStruct
+ * of the document, and their physical page numbers continue after its existing children.
+ * </p>
+ *
+ * <p>
+ * The DocStructTypes and MetadataTypes are checked once for all pages before any page is created, instead of once per call of
+ * {@link DocStruct#addMetadata(org.kitodo.api.ugh.MetadataInterface)}, {@link DocStruct#addChild(org.kitodo.api.ugh.DocStructInterface)} and
+ * {@link DocStruct#addContentFile(org.kitodo.api.ugh.ContentFileInterface)}; so if the check fails, the document is left unchanged.
+ * </p>
+ *
+ * <pre>
+ * List&lt;DocStruct&gt; pages = digitalDocument.createPagination(prefs).setImages(imageLocations)
+ *         .setLabelScheme(PaginationBuilder.LabelScheme.ROMAN).build();
+ * </pre>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#createPagination(Prefs)
+ *
+ ******************************************************************************/
+
+public class PaginationBuilder {
+
+    private static final Logger logger = LogManager.getLogger(PaginationBuilder.class);
+
+    static final String PAGE_TYPE = "page";
+    static final String PHYSICAL_PAGE_NUMBER = "physPageNumber";
+    static final String LOGICAL_PAGE_NUMBER = "logicalPageNumber";
+    static final String UNCOUNTED_LABEL = "uncounted";
+
+    /***************************************************************************
+     * <p>
+     * Schemes for the logical page numbers (labels) of the pages.
+     * </p>
+     **************************************************************************/
+    public static enum LabelScheme {
+        // 1, 2, 3, ...
+        ARABIC,
+        // I, II, III, ...
+        ROMAN,
+        // "uncounted" for every page.
+        UNNUMBERED,
+        // 1r, 1v, 2r, 2v, ...
+        RECTO_VERSO
+    }
+
+    private final DigitalDocument digdoc;
+    private final Prefs prefs;
+
+    private int pageCount = -1;
+    private LabelScheme labelScheme = LabelScheme.ARABIC;
+    private int firstLabelNumber = 1;
+    private List<String> images;
+    private String mimetype = "image/tiff";
+
+    /***************************************************************************
+     * @param digdoc the document to add the pages to
+     * @param prefs the preferences to get the types of the pages and the page numbers from
+     **************************************************************************/
+    PaginationBuilder(DigitalDocument digdoc, Prefs prefs) {
+        this.digdoc = digdoc;
+        this.prefs = prefs;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Sets the number of pages to create. If images are set, it defaults to the number of images.
+     * </p>
+     *
+     * @param pageCount
+     * @return this builder
+     **************************************************************************/
+    public PaginationBuilder setPageCount(int pageCount) {
+        if (pageCount < 0) {
+            throw new IllegalArgumentException("The page count must not be negative: " + pageCount);
+        }
+        this.pageCount = pageCount;
+        return this;
+    }
+
+    /***************************************************************************
+     * @param labelScheme scheme for the logical page numbers, ARABIC by default
+     * @return this builder
+     **************************************************************************/
+    public PaginationBuilder setLabelScheme(LabelScheme labelScheme) {
+        this.labelScheme = labelScheme;
+        return this;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Sets the number of the first label, 1 by default. For RECTO_VERSO, it is the number of the first leaf.
+     * </p>
+     *
+     * @param firstLabelNumber
+     * @return this builder
+     **************************************************************************/
+    public PaginationBuilder setFirstLabelNumber(int firstLabelNumber) {
+        this.firstLabelNumber = firstLabelNumber;
+        return this;
+    }
+
+    /***************************************************************************
+     * @param images locations of the images, one for each page in order; or null, if no ContentFiles shall be created
+     * @return this builder
+     **************************************************************************/
+    public PaginationBuilder setImages(List<String> images) {
+        this.images = images;
+        return this;
+    }
+
+    /***************************************************************************
+     * @param mimetype MIME type of the images, "image/tiff" by default
+     * @return this builder
+     **************************************************************************/
+    public PaginationBuilder setMimetype(String mimetype) {
+        this.mimetype = mimetype;
+        return this;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Creates the pages and appends them to the physical DocStruct of the document.
+     * </p>
+     *
+     * @return the new pages in order
+     * @throws PreferencesException if the preferences do not define the DocStructType "page" or the MetadataTypes for the page numbers
+     * @throws TypeNotAllowedAsChildException if the physical DocStruct does not allow pages as children
+     * @throws MetadataTypeNotAllowedException if pages do not allow a page number of each type
+     * @throws IllegalStateException if the document has no physical DocStruct
+     * @throws IllegalArgumentException if the number of images does not match the page count, or if a label can not be represented in the
+     *             label scheme
+     **************************************************************************/
+    public List<DocStruct> build() throws PreferencesException, TypeNotAllowedAsChildException, MetadataTypeNotAllowedException {
+
+        DocStruct physical = this.digdoc.getPhysicalDocStruct();
+        if (physical == null) {
+            throw new IllegalStateException("The DigitalDocument has no physical DocStruct to add the pages to");
+        }
+        int count = this.pageCount;
+        if (this.images != null) {
+            if (count < 0) {
+                count = this.images.size();
+            } else if (count != this.images.size()) {
+                throw new IllegalArgumentException("The number of images (" + this.images.size() + ") does not match the page count (" + count
+                        + ")");
+            }
+        }
+        if (count <= 0) {
+            return new ArrayList<DocStruct>();
+        }
+        if (this.labelScheme == LabelScheme.ROMAN
+                && (this.firstLabelNumber < 1 || this.firstLabelNumber + count - 1 > RomanNumeral.MAX_NUM)) {
+            throw new IllegalArgumentException("Roman labels are only available from 1 to " + RomanNumeral.MAX_NUM);
+        }
+
+        // Check the types once for all pages.
+        DocStructType pageType = this.prefs.getDocStrctTypeByName(PAGE_TYPE);
+        if (pageType == null) {
+            throw new PreferencesException("DocStructType '" + PAGE_TYPE + "' is not defined");
+        }
+        if (!physical.getType().isDocStructTypeAllowedAsChild(pageType)) {
+            throw new TypeNotAllowedAsChildException("DocStruct type '" + PAGE_TYPE + "' not allowed as child of type '"
+                    + physical.getType().getName() + "'");
+        }
+        MetadataType physicalNumberType = getPageNumberType(pageType, PHYSICAL_PAGE_NUMBER);
+        MetadataType logicalNumberType = getPageNumberType(pageType, LOGICAL_PAGE_NUMBER);
+
+        int firstPhysicalNumber = physical.getAllChildren() == null ? 1 : physical.getAllChildren().size() + 1;
+        List<DocStruct> pages = new ArrayList<DocStruct>(count);
+        List<ContentFile> files = this.images == null ? null : new ArrayList<ContentFile>(count);
+
+        for (int i = 0; i < count; i++) {
+            DocStruct page = this.digdoc.createDocStruct(pageType);
+
+            String physicalNumber = Integer.toString(firstPhysicalNumber + i);
+            Metadata physicalMetadata = new Metadata(physicalNumberType);
+            physicalMetadata.setValue(physicalNumber);
+            page.addCheckedMetadata(physicalMetadata);
+
+            String label = getLabel(i);
+            Metadata logicalMetadata = new Metadata(logicalNumberType);
+            logicalMetadata.setValue(label.equals(physicalNumber) ? physicalNumber : label);
+            page.addCheckedMetadata(logicalMetadata);
+
+            if (files != null) {
+                ContentFile contentFile = new ContentFile();
+                contentFile.setLocation(this.images.get(i));
+                contentFile.setMimetype(this.mimetype);
+                page.addNewContentFile(contentFile);
+                files.add(contentFile);
+            }
+            pages.add(page);
+        }
+
+        // Add the files and pages to the document.
+        if (files != null) {
+            FileSet fileSet = this.digdoc.getFileSet();
+            if (fileSet == null) {
+                fileSet = new FileSet();
+                this.digdoc.setFileSet(fileSet);
+            }
+            this.digdoc.beforeChange(fileSet);
+            fileSet.addNewFiles(files);
+        }
+        physical.appendCheckedChildren(pages);
+
+        logger.debug("Added " + count + " pages to DocStruct '" + physical.getType().getName() + "'");
+
+        return pages;
+    }
+
+    /***************************************************************************
+     * @param pageType
+     * @param name name of the MetadataType
+     * @return the MetadataType of the page type
+     * @throws PreferencesException if the MetadataType is not defined
+     * @throws MetadataTypeNotAllowedException if the page type does not allow one page number of this type
+     **************************************************************************/
+    private MetadataType getPageNumberType(DocStructType pageType, String name) throws PreferencesException,
+            MetadataTypeNotAllowedException {
+
+        MetadataType globalType = this.prefs.getMetadataTypeByName(name);
+        if (globalType == null) {
+            throw new PreferencesException("MetadataType '" + name + "' is not defined");
+        }
+        MetadataType type = pageType.getMetadataTypeByType(globalType);
+        if (type == null || !pageType.getCardinalityOfMetadataType(type).allowsAnother(0)) {
+            throw new MetadataTypeNotAllowedException("Metadata of type '" + name + "' not allowed for DocStruct '" + pageType.getName() + "'");
+        }
+
+        return type;
+    }
+
+    /***************************************************************************
+     * @param index index of the page, starting with 0
+     * @return the label of the page
+     **************************************************************************/
+    private String getLabel(int index) {
+        switch (this.labelScheme) {
+            case ROMAN:
+                return RomanNumeral.format(this.firstLabelNumber + index);
+            case UNNUMBERED:
+                return UNCOUNTED_LABEL;
+            case RECTO_VERSO:
+                return Integer.toString(this.firstLabelNumber + index / 2) + (index % 2 == 0 ? "r" : "v");
+            default:
+                return Integer.toString(this.firstLabelNumber + index);
+        }
+    }
+
+}
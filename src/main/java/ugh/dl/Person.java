@@ -84,6 +84,27 @@ public class Person extends Metadata implements PersonInterface {
         super(theType);
     }
 
+    /***************************************************************************
+     * <p>
+     * Copy constructor, used by the {@link DocumentCopier}.
+     * </p>
+     *
+     * @param original
+     * @param copier
+     **************************************************************************/
+    Person(Person original, DocumentCopier copier) {
+
+        super(original, copier);
+        this.firstname = original.firstname;
+        this.lastname = original.lastname;
+        this.displayname = original.displayname;
+        this.affiliation = original.affiliation;
+        this.institution = original.institution;
+        this.role = original.role;
+        this.persontype = original.persontype;
+        this.isCorporation = original.isCorporation;
+    }
+
     /***************************************************************************
      * <p>
      * Creates a person; each person has usually a first and a lastname. For
@@ -114,7 +135,8 @@ public class Person extends Metadata implements PersonInterface {
      **************************************************************************/
     @Override
     public void setFirstName(String in) {
-        this.firstname = in;
+        beforeChange();
+        this.firstname = pooled(in);
     }
 
     /***************************************************************************
@@ -134,7 +156,8 @@ public class Person extends Metadata implements PersonInterface {
      **************************************************************************/
     @Override
     public void setLastName(String in) {
-        this.lastname = in;
+        beforeChange();
+        this.lastname = pooled(in);
     }
 
     /***************************************************************************
@@ -150,7 +173,8 @@ public class Person extends Metadata implements PersonInterface {
      * @return
      **************************************************************************/
     public boolean setInstitution(String in) {
-        this.institution = in;
+        beforeChange();
+        this.institution = pooled(in);
         return true;
     }
 
@@ -166,7 +190,8 @@ public class Person extends Metadata implements PersonInterface {
      * @return
      **************************************************************************/
     public boolean setAffiliation(String in) {
-        this.affiliation = in;
+        beforeChange();
+        this.affiliation = pooled(in);
         return true;
     }
 
@@ -214,7 +239,8 @@ public class Person extends Metadata implements PersonInterface {
      **************************************************************************/
     @Override
     public void setRole(String in) {
-        this.role = in;
+        beforeChange();
+        this.role = pooled(in);
     }
 
     /***************************************************************************
@@ -239,7 +265,8 @@ public class Person extends Metadata implements PersonInterface {
      * @return always true;
      **************************************************************************/
     public boolean setPersontype(String in) {
-        this.persontype = in;
+        beforeChange();
+        this.persontype = pooled(in);
         return true;
     }
 
@@ -278,7 +305,8 @@ public class Person extends Metadata implements PersonInterface {
      **************************************************************************/
     @Override
     public void setDisplayName(String displayname) {
-        this.displayname = displayname;
+        beforeChange();
+        this.displayname = pooled(displayname);
     }
 
     /***************************************************************************
@@ -293,6 +321,7 @@ public class Person extends Metadata implements PersonInterface {
      *            the isCorporation to set
      **************************************************************************/
     public void setCorporation(boolean isCorporation) {
+        beforeChange();
         this.isCorporation = isCorporation;
     }
 
@@ -418,4 +447,51 @@ public class Person extends Metadata implements PersonInterface {
         return true;
     }
 
+    /***************************************************************************
+     * @return a hash of the metadata and the names, role and authority data of this person
+     **************************************************************************/
+    @Override
+    long getContentHash() {
+        long hash = ContentHash.add(ContentHash.start(ContentHash.PERSON), super.getContentHash());
+        hash = ContentHash.add(hash, this.firstname);
+        hash = ContentHash.add(hash, this.lastname);
+        hash = ContentHash.add(hash, this.affiliation);
+        hash = ContentHash.add(hash, this.displayname);
+        hash = ContentHash.add(hash, this.persontype);
+        hash = ContentHash.add(hash, this.institution);
+        hash = ContentHash.add(hash, this.role == null && this.MDType != null ? this.MDType.getName() : this.role);
+        hash = ContentHash.add(hash, getAuthorityID());
+        hash = ContentHash.add(hash, getAuthorityURI());
+        hash = ContentHash.add(hash, getAuthorityValue());
+        return ContentHash.add(hash, this.isCorporation);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Replaces the values, names and role of this person by the equal instances of the pool, or adds them to it.
+     * </p>
+     *
+     * @param pool
+     **************************************************************************/
+    @Override
+    void internValues(StringPool pool) {
+        super.internValues(pool);
+        this.firstname = pool.intern(this.firstname);
+        this.lastname = pool.intern(this.lastname);
+        this.displayname = pool.intern(this.displayname);
+        this.affiliation = pool.intern(this.affiliation);
+        this.institution = pool.intern(this.institution);
+        this.role = pool.intern(this.role);
+        this.persontype = pool.intern(this.persontype);
+    }
+
+    /***************************************************************************
+     * @param copier
+     * @return a copy of this instance
+     **************************************************************************/
+    @Override
+    Person deepCopy(DocumentCopier copier) {
+        return new Person(this, copier);
+    }
+
 }
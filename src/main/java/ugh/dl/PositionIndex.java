@@ -0,0 +1,152 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / PositionIndex.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*******************************************************************************
+ * <p>
+ * An index of the positions of the elements of a random access list, by identity. If an element is contained more than once, the first position
+ * is returned.
+ * </p>
+ *
+ * <p>
+ * The index is updated by its owner together with the indexed list. Appending an element keeps the index valid; inserting or removing an element
+ * in the middle of the list invalidates the positions from there on, which are recalculated by the next lookup. Direct changes of the list are
+ * noticed, if they change its size or move the element looked for; then the index is rebuilt completely.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DocStruct
+ *
+ ******************************************************************************/
+
+final class PositionIndex {
+
+    private final Map<Object, Integer> positions = new IdentityHashMap<Object, Integer>();
+    // Size of the indexed list, as far as the index knows.
+    private int size;
+    // Positions below this one are up to date.
+    private int validBelow;
+
+    /***************************************************************************
+     * @param list the indexed list
+     * @param element element to look for
+     * @return the position of the element, or -1 if it is not in the list
+     **************************************************************************/
+    int indexOf(List<?> list, Object element) {
+
+        if (list == null) {
+            return -1;
+        }
+        if (list.size() != this.size) {
+            rebuild(list, 0);
+        }
+
+        Integer position = this.positions.get(element);
+        if (position != null && position.intValue() < this.validBelow) {
+            if (list.get(position.intValue()) == element) {
+                return position.intValue();
+            }
+            // The list has been changed directly.
+            rebuild(list, 0);
+        } else if (this.validBelow < this.size) {
+            rebuild(list, this.validBelow);
+        } else {
+            return -1;
+        }
+
+        position = this.positions.get(element);
+        if (position == null || position.intValue() >= this.size || list.get(position.intValue()) != element) {
+            return -1;
+        }
+        return position.intValue();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes an element, which has been inserted into the indexed list.
+     * </p>
+     *
+     * @param list the indexed list
+     * @param position position of the new element
+     **************************************************************************/
+    void added(List<?> list, int position) {
+
+        if (position == this.size && this.validBelow == this.size) {
+            Object element = list.get(position);
+            if (!this.positions.containsKey(element)) {
+                this.positions.put(element, Integer.valueOf(position));
+            }
+            this.validBelow++;
+        } else {
+            this.validBelow = Math.min(this.validBelow, position);
+        }
+        this.size++;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Notes an element, which has been removed from the indexed list.
+     * </p>
+     *
+     * @param element the removed element
+     * @param position former position of the element
+     **************************************************************************/
+    void removed(Object element, int position) {
+
+        Integer indexed = this.positions.get(element);
+        if (indexed != null && indexed.intValue() == position) {
+            this.positions.remove(element);
+        }
+        this.validBelow = Math.min(this.validBelow, position);
+        this.size--;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Recalculates the positions from the given one on.
+     * </p>
+     *
+     * @param list the indexed list
+     * @param from first position to recalculate
+     **************************************************************************/
+    private void rebuild(List<?> list, int from) {
+
+        if (from == 0) {
+            this.positions.clear();
+        }
+        // Walk backwards, so that the first occurrence of an element wins.
+        for (int i = list.size() - 1; i >= from; i--) {
+            Object element = list.get(i);
+            Integer indexed = this.positions.get(element);
+            if (indexed == null || indexed.intValue() >= from) {
+                this.positions.put(element, Integer.valueOf(i));
+            }
+        }
+        this.size = list.size();
+        this.validBelow = this.size;
+    }
+
+}
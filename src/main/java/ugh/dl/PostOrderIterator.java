@@ -0,0 +1,112 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / PostOrderIterator.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.kitodo.api.ugh.DocStructInterface;
+
+/*******************************************************************************
+ * <p>
+ * Iterates over a DocStruct and its descendants in post-order, that is each DocStruct after its children, without recursion. The tree must not
+ * be changed while it is iterated.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DocStruct#postOrder()
+ *
+ ******************************************************************************/
+
+final class PostOrderIterator implements Iterator<DocStruct> {
+
+    // Path from the root to the next DocStruct, with the position of the
+    // next child to descend into for each of them.
+    private final Deque<DocStruct> path = new ArrayDeque<DocStruct>();
+    private final Deque<Integer> nextChild = new ArrayDeque<Integer>();
+
+    /***************************************************************************
+     * @param root
+     **************************************************************************/
+    PostOrderIterator(DocStruct root) {
+        if (root != null) {
+            this.path.push(root);
+            this.nextChild.push(Integer.valueOf(0));
+            descend();
+        }
+    }
+
+    /***************************************************************************
+     * @return true, if there are DocStructs left
+     **************************************************************************/
+    @Override
+    public boolean hasNext() {
+        return !this.path.isEmpty();
+    }
+
+    /***************************************************************************
+     * @return the next DocStruct in post-order
+     **************************************************************************/
+    @Override
+    public DocStruct next() {
+        if (this.path.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        DocStruct result = this.path.pop();
+        this.nextChild.pop();
+        if (!this.path.isEmpty()) {
+            descend();
+        }
+        return result;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException always
+     **************************************************************************/
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("DocStructs can not be removed by an iterator");
+    }
+
+    /***************************************************************************
+     * <p>
+     * Descends from the last DocStruct of the path into its next child and further down to the first leaf.
+     * </p>
+     **************************************************************************/
+    private void descend() {
+        while (true) {
+            List<DocStructInterface> children = this.path.peek().getAllChildren();
+            int position = this.nextChild.peek().intValue();
+            if (children == null || position >= children.size()) {
+                return;
+            }
+            this.nextChild.pop();
+            this.nextChild.push(Integer.valueOf(position + 1));
+            this.path.push((DocStruct) children.get(position));
+            this.nextChild.push(Integer.valueOf(0));
+        }
+    }
+
+}
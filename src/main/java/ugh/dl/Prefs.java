@@ -21,9 +21,28 @@ package ugh.dl;
  * along with this library. If not, see <http://www.gnu.org/licenses/>.
  ******************************************************************************/
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -34,6 +53,12 @@ import java.util.Map;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -74,10 +99,63 @@ public class Prefs implements PrefsInterface, Serializable {
     private static final Logger logger = LogManager.getLogger(Prefs.class);
     private static final String HIDDEN_METADATA_CHAR = "_";
 
+    // Header of compiled preferences files, see writeCompiledPrefs().
+    private static final String COMPILED_PREFS_MAGIC = "UGH compiled preferences";
+    private static final int COMPILED_PREFS_FORMAT = 3;
+    private static final String COMPILED_PREFS_DIGEST = "SHA-1";
+
+    public static final String COMPILED_PREFS_SUFFIX = ".compiled";
+
+    // Builders for the documents the copies of format configurations are
+    // imported into, see getPreferenceNode(). DocumentBuilders are not
+    // thread-safe, so each thread gets its own, which is created once.
+    private static final ThreadLocal<DocumentBuilder> COPY_BUILDER = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            try {
+                return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     private List<DocStructTypeInterface> allDocStrctTypes;
     private List<MetadataType> allMetadataTypes;
-    private final List<MetadataGroupType> allMetadataGroupTypes;
-    private final Hashtable<String, Node> allFormats;
+    private List<MetadataGroupType> allMetadataGroupTypes;
+    // DOM nodes are not serializable as such, see writeObject() and
+    // readObject().
+    private transient Hashtable<String, Node> allFormats;
+    // Format configurations not parsed yet, as UTF-8 encoded XML. They are
+    // moved to allFormats on first access, see getPreferenceNode().
+    private transient Hashtable<String, byte[]> formatSources;
+    // Set by compile(); the Prefs are read-only afterwards.
+    private boolean compiled = false;
+
+    // Name indexes for the type lists above, built lazily and kept in sync by
+    // the add and set methods.
+    private transient Map<String, DocStructType> docStrctTypesByName;
+    private transient Map<String, MetadataType> metadataTypesByName;
+    private transient Map<String, MetadataGroupType> metadataGroupTypesByName;
+    // List sizes at index build time, to detect direct list modifications.
+    private transient int indexedDocStrctTypes;
+    private transient int indexedMetadataTypes;
+    private transient int indexedMetadataGroupTypes;
+    // Reverse label indexes (language -> label -> type), built lazily and
+    // dropped whenever a type list or a type's translations change.
+    private transient Map<String, Map<String, DocStructType>> docStrctTypesByLabel;
+    private transient Map<String, Map<String, MetadataType>> metadataTypesByLabel;
+    // Next dense type IDs, assigned when a type is registered with these
+    // Prefs. IDs are never reused, so they stay valid for local copies.
+    private transient int nextDocStrctTypeId;
+    private transient int nextMetadataTypeId;
+    // Incremented whenever a type is registered or renamed, so that the ID
+    // based lookup tables of the DocStructTypes can be rebuilt.
+    private transient int typeGeneration;
+    // Format mappings parsed by FileFormat implementations, see
+    // getFormatMapping(), and the type generation they were parsed for.
+    private transient Map<String, Object> formatMappings;
+    private transient int formatMappingsGeneration;
 
     public static final short ELEMENT_NODE = 1;
 
@@ -91,6 +169,7 @@ public class Prefs implements PrefsInterface, Serializable {
         this.allMetadataTypes = new LinkedList<MetadataType>();
         this.allMetadataGroupTypes = new LinkedList<MetadataGroupType>();
         this.allFormats = new Hashtable<String, Node>();
+        this.formatSources = new Hashtable<String, byte[]>();
     }
 
     /***************************************************************************
@@ -111,6 +190,8 @@ public class Prefs implements PrefsInterface, Serializable {
     @Override
     public void loadPrefs(String filename) throws PreferencesException {
 
+        checkNotCompiled();
+
         Document document;
         NodeList childlist;
         NodeList upperChildlist;
@@ -197,21 +278,21 @@ public class Prefs implements PrefsInterface, Serializable {
                             parsedDocStrctType.setHasFileSet(false);
                         }
 
-                        this.allDocStrctTypes.add(parsedDocStrctType);
+                        appendDocStrctType(parsedDocStrctType);
                     }
                 }
 
                 if (currentNode.getNodeName().equals("MetadataType")) {
                     parsedMetadataType = parseMetadataType(currentNode);
                     if (parsedMetadataType != null) {
-                        this.allMetadataTypes.add(parsedMetadataType);
+                        appendMetadataType(parsedMetadataType);
                     }
                 }
 
                 if (currentNode.getNodeName().equals("Group")) {
                     parsedMetadataGroup = parseMetadataGroup(currentNode);
                     if (parsedMetadataGroup != null) {
-                        this.allMetadataGroupTypes.add(parsedMetadataGroup);
+                        appendMetadataGroupType(parsedMetadataGroup);
                     }
                 }
 
@@ -221,30 +302,73 @@ public class Prefs implements PrefsInterface, Serializable {
                     for (int x = 0; x < formatlist.getLength(); x++) {
                         Node currentnode = formatlist.item(x);
                         if (currentnode.getNodeType() == ELEMENT_NODE) {
+                            this.formatSources.remove(currentnode.getNodeName());
                             this.allFormats.put(currentnode.getNodeName(), currentnode);
+                            this.formatMappings = null;
                         }
                     }
                 }
             }
         }
 
+        finishLoading();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Loads all known DocStruct types from the prefs XML file, like {@link #loadPrefs(String)}, but reads the file with a StAX stream reader
+     * instead of building a DOM tree of the whole ruleset. The types are created directly from the parser events; of the
+     * <code>&lt;Formats&gt;</code> section only the XML of each format configuration is kept, which is parsed on the first call of
+     * {@link #getPreferenceNode(String)} for that format. This saves load time and memory, especially for large rulesets.
+     * </p>
+     *
+     * @param filename
+     * @throws PreferencesException
+     **************************************************************************/
+    public void loadPrefsStreaming(String filename) throws PreferencesException {
+
+        checkNotCompiled();
+
+        new PrefsReader(this).read(filename);
+
+        finishLoading();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Adds the internal metadata types and builds the label indexes and the lookup tables of the DocStructTypes after a ruleset file has been
+     * read.
+     * </p>
+     **************************************************************************/
+    private void finishLoading() {
+
         // Add internal metadata types; all internal metadata types are
         // beginning with HIDDEN_METADATA_CHAR.
         MetadataType mdt = new MetadataType();
         mdt.setName(HIDDEN_METADATA_CHAR + "pagephysstart");
-        this.allMetadataTypes.add(mdt);
+        appendMetadataType(mdt);
 
         mdt = new MetadataType();
         mdt.setName(HIDDEN_METADATA_CHAR + "overlapping");
-        this.allMetadataTypes.add(mdt);
+        appendMetadataType(mdt);
 
         mdt = new MetadataType();
         mdt.setName(HIDDEN_METADATA_CHAR + "pagephysend");
-        this.allMetadataTypes.add(mdt);
+        appendMetadataType(mdt);
 
         mdt = new MetadataType();
         mdt.setName(HIDDEN_METADATA_CHAR + "PaginationNo");
-        this.allMetadataTypes.add(mdt);
+        appendMetadataType(mdt);
+
+        // Build the label indexes for localized type lookups.
+        getDocStrctTypeLabelIndex();
+        getMetadataTypeLabelIndex();
+
+        // Build the lookup tables of the types, among them the metadata ranks
+        // used by DocStruct.sortMetadata(Prefs).
+        for (DocStructTypeInterface dst : this.allDocStrctTypes) {
+            ((DocStructType) dst).buildLookupTables();
+        }
     }
 
     /***************************************************************************
@@ -398,8 +522,6 @@ public class Prefs implements PrefsInterface, Serializable {
                                 + "' is unknown");
                         return null;
                     }
-                    // Set max. number.
-                    newMdType.setNum(mdtypeNum);
                     MetadataType result = null;
 
                     // Handle Invisible attribute.
@@ -764,14 +886,7 @@ public class Prefs implements PrefsInterface, Serializable {
      **************************************************************************/
     @Override
     public DocStructType getDocStrctTypeByName(String theName) {
-
-        for (DocStructTypeInterface currentDocStructType : this.allDocStrctTypes) {
-            if (currentDocStructType.getName().equals(theName)) {
-                return (DocStructType) currentDocStructType;
-            }
-        }
-
-        return null;
+        return getDocStrctTypeIndex().get(theName);
     }
 
     /**************************************************************************
@@ -807,36 +922,15 @@ public class Prefs implements PrefsInterface, Serializable {
      **************************************************************************/
     public DocStructType getDocStrctTypeByName(String name, String inLanguage) {
 
-        DocStructType currentDocStrctType;
-        HashMap<String, String> allLanguages;
-        String checklanguage;
-        String checklanguagevalue = "";
-
-        // Get dstype first.
-        Iterator<DocStructTypeInterface> it = this.allDocStrctTypes.iterator();
-        while (it.hasNext()) {
-            currentDocStrctType = (DocStructType) it.next();
-            // Get all languages.
-            allLanguages = currentDocStrctType.getAllLanguages();
-
-            Iterator<Map.Entry<String, String>> itlang = allLanguages.entrySet().iterator();
-            // Find language "inLanguage".
-            while (itlang.hasNext()) {
-                Map.Entry<String, String> entry = itlang.next();
-                checklanguage = entry.getKey();
-                checklanguagevalue = entry.getValue();
-                if (checklanguage.equals(inLanguage)) {
-                    break;
-                }
-            }
-
-            if (!checklanguagevalue.equals("") && checklanguagevalue.equals(name)) {
-                // Found DocStrctType.
-                return currentDocStrctType;
-            }
+        if (name == null || name.equals("")) {
+            return null;
+        }
+        Map<String, DocStructType> labels = getDocStrctTypeLabelIndex().get(inLanguage);
+        if (labels == null) {
+            return null;
         }
 
-        return null;
+        return labels.get(name);
     }
 
     /***************************************************************************
@@ -853,15 +947,124 @@ public class Prefs implements PrefsInterface, Serializable {
      **************************************************************************/
     public Node getPreferenceNode(String in) {
 
-        if (!this.allFormats.containsKey(in)) {
-            // Format not available.
-            return null;
+        Node result;
+        synchronized (this.allFormats) {
+            result = this.allFormats.get(in);
+            if (result == null) {
+                byte[] source = this.formatSources.get(in);
+                if (source == null) {
+                    // Format not available.
+                    return null;
+                }
+                result = parseFormatConfiguration(source);
+                this.allFormats.put(in, result);
+                this.formatSources.remove(in);
+            }
+        }
+
+        // DOM nodes are not safe for concurrent reading, so every caller of
+        // compiled Prefs gets its own copy.
+        if (this.compiled) {
+            Document copy = COPY_BUILDER.get().newDocument();
+            synchronized (result) {
+                result = copy.importNode(result, true);
+            }
         }
-        Node result = this.allFormats.get(in);
 
         return result;
     }
 
+    /***************************************************************************
+     * <p>
+     * Adds the XML of a format configuration, which will be parsed on first access by {@link #getPreferenceNode(String)}. A configuration of the
+     * same format read before is replaced.
+     * </p>
+     *
+     * @param name name of the fileformat, which is the name of the node
+     * @param xml the format configuration as UTF-8 encoded XML
+     **************************************************************************/
+    void addFormatConfiguration(String name, byte[] xml) {
+        synchronized (this.allFormats) {
+            this.allFormats.remove(name);
+            this.formatSources.put(name, xml);
+            this.formatMappings = null;
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns a format mapping stored by {@link #putFormatMapping(String, Object)}. FileFormat implementations use this to parse their section of
+     * the preferences only once per Prefs instance, instead of once per FileFormat instance. The key should contain the name of the FileFormat
+     * class, as subclasses may parse the same section differently.
+     * </p>
+     * <p>
+     * Stored mappings are dropped, if a format configuration is loaded or if a type is added or renamed, as a mapping may refer to types of these
+     * Prefs.
+     * </p>
+     *
+     * @param key key of the format mapping
+     * @return the stored format mapping, or null if there is none
+     **************************************************************************/
+    public Object getFormatMapping(String key) {
+
+        int generation = this.compiled ? 0 : getTypeGeneration();
+
+        synchronized (this.allFormats) {
+            if (this.formatMappings == null || this.formatMappingsGeneration != generation) {
+                return null;
+            }
+            return this.formatMappings.get(key);
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Stores a parsed format mapping, which is shared by all FileFormat instances using these Prefs; it must not be modified afterwards. If another
+     * mapping has been stored for the key in the meantime, that one is kept and returned.
+     * </p>
+     *
+     * @param key key of the format mapping
+     * @param mapping the parsed format mapping
+     * @return the format mapping to use
+     **************************************************************************/
+    public Object putFormatMapping(String key, Object mapping) {
+
+        int generation = this.compiled ? 0 : getTypeGeneration();
+
+        synchronized (this.allFormats) {
+            if (this.formatMappings == null || this.formatMappingsGeneration != generation) {
+                this.formatMappings = new HashMap<String, Object>();
+                this.formatMappingsGeneration = generation;
+            }
+            Object result = this.formatMappings.get(key);
+            if (result == null) {
+                this.formatMappings.put(key, mapping);
+                result = mapping;
+            }
+            return result;
+        }
+    }
+
+    /***************************************************************************
+     * @param xml a format configuration as UTF-8 encoded XML
+     * @return the root element of the parsed format configuration
+     **************************************************************************/
+    private static Node parseFormatConfiguration(byte[] xml) {
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setValidating(false);
+        factory.setNamespaceAware(false);
+        try {
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml)).getDocumentElement();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        } catch (SAXException e) {
+            throw new IllegalStateException("Unable to parse format configuration", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to parse format configuration", e);
+        }
+    }
+
     /***************************************************************************
      * @return
      **************************************************************************/
@@ -892,7 +1095,10 @@ public class Prefs implements PrefsInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean setAllMetadataTypes(List<MetadataType> inList) {
+        checkNotCompiled();
         this.allMetadataTypes = inList;
+        this.metadataTypesByName = null;
+        this.metadataTypesByLabel = null;
 
         return true;
     }
@@ -912,7 +1118,10 @@ public class Prefs implements PrefsInterface, Serializable {
      * @return
      **************************************************************************/
     public boolean setAllDocStructTypes(List<DocStructTypeInterface> inList) {
+        checkNotCompiled();
         this.allDocStrctTypes = inList;
+        this.docStrctTypesByName = null;
+        this.docStrctTypesByLabel = null;
 
         return true;
     }
@@ -935,20 +1144,22 @@ public class Prefs implements PrefsInterface, Serializable {
 
         MetadataType tempType;
 
+        checkNotCompiled();
         if (inType == null) {
             return false;
         }
-        if (getMetadataTypeByName(inType.getName()) == null) {
-            // still not available, so add ist
-            this.allMetadataTypes.add(inType);
-            return true;
+        Map<String, MetadataType> index = getMetadataTypeIndex();
+        tempType = index.get(inType.getName());
+        if (tempType != null) {
+            // Remove old.
+            this.allMetadataTypes.remove(tempType);
         }
-
-        tempType = getMetadataTypeByName(inType.getName());
-        // Remove old.
-        this.allMetadataTypes.remove(tempType);
         // Add new.
         this.allMetadataTypes.add(inType);
+        registerMetadataType(inType);
+        index.put(inType.getName(), inType);
+        this.indexedMetadataTypes = this.allMetadataTypes.size();
+        this.metadataTypesByLabel = null;
 
         return true;
     }
@@ -986,125 +1197,621 @@ public class Prefs implements PrefsInterface, Serializable {
      **************************************************************************/
     @Override
     public MetadataType getMetadataTypeByName(String name) {
+        return getMetadataTypeIndex().get(name);
+    }
 
-        MetadataType currentMdType;
-        String checkname;
 
-        // Get dstype first.
-        Iterator<MetadataType> it = this.allMetadataTypes.iterator();
-        while (it.hasNext()) {
-            currentMdType = it.next();
-            checkname = currentMdType.getName();
+    /***************************************************************************
+     * <p>
+     * Needs string as parameter and returns MetadataGroup object with this name.
+     * </p>
+     *
+     * @param name
+     * @return
+     **************************************************************************/
+    public MetadataGroupType getMetadataGroupTypeByName(String name) {
+        return getMetadataGroupTypeIndex().get(name);
+    }
 
-            if (checkname.equals(name)) {
-                // Found MetadataType.
-                return currentMdType;
-            }
+    /***************************************************************************
+     * @param name
+     * @param inLanguage
+     * @return
+     **************************************************************************/
+    public MetadataType getMetadataTypeByName(String name, String inLanguage) {
+
+        if (name == null || name.equals("")) {
+            return null;
+        }
+        Map<String, MetadataType> labels = getMetadataTypeLabelIndex().get(inLanguage);
+        if (labels == null) {
+            return null;
         }
 
-        return null;
+        return labels.get(name);
     }
 
+    /***************************************************************************
+     * @param inType
+     * @return
+     **************************************************************************/
+    public boolean addMetadataGroup(MetadataGroupType inGroup) {
+
+        MetadataGroupType tempType;
+
+        checkNotCompiled();
+        if (inGroup == null) {
+            return false;
+        }
+        Map<String, MetadataGroupType> index = getMetadataGroupTypeIndex();
+        tempType = index.get(inGroup.getName());
+        if (tempType != null) {
+            // Remove old.
+            this.allMetadataGroupTypes.remove(tempType);
+        }
+        // Add new.
+        this.allMetadataGroupTypes.add(inGroup);
+        index.put(inGroup.getName(), inGroup);
+        this.indexedMetadataGroupTypes = this.allMetadataGroupTypes.size();
+
+        return true;
+    }
 
     /***************************************************************************
      * <p>
-     * Needs string as parameter and returns MetadataGroup object with this name.
+     * Appends a DocStructType to the list of all DocStructTypes and updates the name index.
      * </p>
      *
-     * @param name
-     * @return
+     * @param inType
      **************************************************************************/
-    public MetadataGroupType getMetadataGroupTypeByName(String name) {
+    void appendDocStrctType(DocStructType inType) {
+        Map<String, DocStructType> index = getDocStrctTypeIndex();
+        this.allDocStrctTypes.add(inType);
+        registerDocStrctType(inType);
+        if (!index.containsKey(inType.getName())) {
+            index.put(inType.getName(), inType);
+        }
+        this.indexedDocStrctTypes = this.allDocStrctTypes.size();
+        this.docStrctTypesByLabel = null;
+    }
 
-        MetadataGroupType currentMdGroup;
-        String checkname;
+    /***************************************************************************
+     * <p>
+     * Appends a MetadataType to the list of all MetadataTypes and updates the name index.
+     * </p>
+     *
+     * @param inType
+     **************************************************************************/
+    void appendMetadataType(MetadataType inType) {
+        Map<String, MetadataType> index = getMetadataTypeIndex();
+        this.allMetadataTypes.add(inType);
+        registerMetadataType(inType);
+        if (!index.containsKey(inType.getName())) {
+            index.put(inType.getName(), inType);
+        }
+        this.indexedMetadataTypes = this.allMetadataTypes.size();
+        this.metadataTypesByLabel = null;
+    }
 
-        // Get dstype first.
-        Iterator<MetadataGroupType> it = this.allMetadataGroupTypes.iterator();
-        while (it.hasNext()) {
-            currentMdGroup = it.next();
-            checkname = currentMdGroup.getName();
+    /***************************************************************************
+     * <p>
+     * Appends a MetadataGroupType to the list of all MetadataGroupTypes and updates the name index.
+     * </p>
+     *
+     * @param inGroup
+     **************************************************************************/
+    void appendMetadataGroupType(MetadataGroupType inGroup) {
+        Map<String, MetadataGroupType> index = getMetadataGroupTypeIndex();
+        this.allMetadataGroupTypes.add(inGroup);
+        if (!index.containsKey(inGroup.getName())) {
+            index.put(inGroup.getName(), inGroup);
+        }
+        this.indexedMetadataGroupTypes = this.allMetadataGroupTypes.size();
+    }
 
-            if (checkname.equals(name)) {
-                // Found MetadataType.
-                return currentMdGroup;
+    /***************************************************************************
+     * <p>
+     * Returns the name index of all DocStructTypes. The index is (re)built, if it does not exist yet or if the list of DocStructTypes was changed
+     * directly. If a name is used more than once, the first DocStructType in the list wins, as it did with the former linear search.
+     * </p>
+     *
+     * @return A map from DocStructType name to DocStructType.
+     **************************************************************************/
+    private Map<String, DocStructType> getDocStrctTypeIndex() {
+
+        if (this.docStrctTypesByName == null || this.indexedDocStrctTypes != this.allDocStrctTypes.size()) {
+            Map<String, DocStructType> index = new HashMap<String, DocStructType>(this.allDocStrctTypes.size() * 2);
+            for (DocStructTypeInterface dst : this.allDocStrctTypes) {
+                registerDocStrctType((DocStructType) dst);
+                if (!index.containsKey(dst.getName())) {
+                    index.put(dst.getName(), (DocStructType) dst);
+                }
             }
+            this.docStrctTypesByName = index;
+            this.indexedDocStrctTypes = this.allDocStrctTypes.size();
+            this.docStrctTypesByLabel = null;
         }
 
-        return null;
+        return this.docStrctTypesByName;
     }
 
     /***************************************************************************
-     * @param name
-     * @param inLanguage
-     * @return
+     * <p>
+     * Returns the name index of all MetadataTypes, see {@link #getDocStrctTypeIndex()}.
+     * </p>
+     *
+     * @return A map from MetadataType name to MetadataType.
      **************************************************************************/
-    public MetadataType getMetadataTypeByName(String name, String inLanguage) {
+    private Map<String, MetadataType> getMetadataTypeIndex() {
+
+        if (this.metadataTypesByName == null || this.indexedMetadataTypes != this.allMetadataTypes.size()) {
+            Map<String, MetadataType> index = new HashMap<String, MetadataType>(this.allMetadataTypes.size() * 2);
+            for (MetadataType mdt : this.allMetadataTypes) {
+                registerMetadataType(mdt);
+                if (!index.containsKey(mdt.getName())) {
+                    index.put(mdt.getName(), mdt);
+                }
+            }
+            this.metadataTypesByName = index;
+            this.indexedMetadataTypes = this.allMetadataTypes.size();
+            this.metadataTypesByLabel = null;
+        }
 
-        MetadataType currentMdType;
-        HashMap<String, String> allLanguages;
-        String checklanguage;
-        String checklanguagevalue = "";
+        return this.metadataTypesByName;
+    }
 
-        // Get dstype first.
-        Iterator<MetadataType> it = this.allMetadataTypes.iterator();
-        while (it.hasNext()) {
-            currentMdType = it.next();
+    /***************************************************************************
+     * <p>
+     * Returns the name index of all MetadataGroupTypes, see {@link #getDocStrctTypeIndex()}.
+     * </p>
+     *
+     * @return A map from MetadataGroupType name to MetadataGroupType.
+     **************************************************************************/
+    private Map<String, MetadataGroupType> getMetadataGroupTypeIndex() {
 
-            // Get all languages.
-            allLanguages = currentMdType.getAllLanguages();
-            if (allLanguages == null) {
-                if (!(currentMdType.getName().substring(0, 1).equals(HIDDEN_METADATA_CHAR))) {
-                    logger.debug("MetadataType without language definition:" + currentMdType.getName());
+        if (this.metadataGroupTypesByName == null || this.indexedMetadataGroupTypes != this.allMetadataGroupTypes.size()) {
+            Map<String, MetadataGroupType> index = new HashMap<String, MetadataGroupType>(this.allMetadataGroupTypes.size() * 2);
+            for (MetadataGroupType mdg : this.allMetadataGroupTypes) {
+                if (!index.containsKey(mdg.getName())) {
+                    index.put(mdg.getName(), mdg);
                 }
+            }
+            this.metadataGroupTypesByName = index;
+            this.indexedMetadataGroupTypes = this.allMetadataGroupTypes.size();
+        }
+
+        return this.metadataGroupTypesByName;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the label index of all DocStructTypes: a map from language code to a map from the translated name to the DocStructType. If a label is
+     * used more than once in a language, the first DocStructType in the list wins.
+     * </p>
+     *
+     * @return A map from language code to a map from label to DocStructType.
+     **************************************************************************/
+    private Map<String, Map<String, DocStructType>> getDocStrctTypeLabelIndex() {
+
+        // Make sure the DocStructType list has not changed behind our back.
+        getDocStrctTypeIndex();
 
-                // No languages available for this MetadataType.
-                continue;
+        if (this.docStrctTypesByLabel == null) {
+            Map<String, Map<String, DocStructType>> index = new HashMap<String, Map<String, DocStructType>>();
+            for (DocStructTypeInterface dst : this.allDocStrctTypes) {
+                HashMap<String, String> allLanguages = ((DocStructType) dst).getAllLanguages();
+                if (allLanguages == null) {
+                    continue;
+                }
+                for (Map.Entry<String, String> entry : allLanguages.entrySet()) {
+                    if (entry.getValue() == null || entry.getValue().equals("")) {
+                        continue;
+                    }
+                    Map<String, DocStructType> labels = index.get(entry.getKey());
+                    if (labels == null) {
+                        labels = new HashMap<String, DocStructType>();
+                        index.put(entry.getKey(), labels);
+                    }
+                    if (!labels.containsKey(entry.getValue())) {
+                        labels.put(entry.getValue(), (DocStructType) dst);
+                    }
+                }
             }
+            this.docStrctTypesByLabel = index;
+        }
+
+        return this.docStrctTypesByLabel;
+    }
 
-            Iterator<Map.Entry<String, String>> itlang = allLanguages.entrySet().iterator();
-            // Find language "inLanguage".
-            while (itlang.hasNext()) {
-                Map.Entry<String, String> entry = itlang.next();
-                checklanguage = entry.getKey();
-                checklanguagevalue = entry.getValue();
-                if (checklanguage.equals(inLanguage)) {
-                    break;
+    /***************************************************************************
+     * <p>
+     * Returns the label index of all MetadataTypes, see {@link #getDocStrctTypeLabelIndex()}.
+     * </p>
+     *
+     * @return A map from language code to a map from label to MetadataType.
+     **************************************************************************/
+    private Map<String, Map<String, MetadataType>> getMetadataTypeLabelIndex() {
+
+        // Make sure the MetadataType list has not changed behind our back.
+        getMetadataTypeIndex();
+
+        if (this.metadataTypesByLabel == null) {
+            Map<String, Map<String, MetadataType>> index = new HashMap<String, Map<String, MetadataType>>();
+            for (MetadataType mdt : this.allMetadataTypes) {
+                HashMap<String, String> allLanguages = mdt.getAllLanguages();
+                if (allLanguages == null) {
+                    if (mdt.getName() != null && !mdt.getName().startsWith(HIDDEN_METADATA_CHAR)) {
+                        logger.debug("MetadataType without language definition:" + mdt.getName());
+                    }
+                    continue;
+                }
+                for (Map.Entry<String, String> entry : allLanguages.entrySet()) {
+                    if (entry.getValue() == null || entry.getValue().equals("")) {
+                        continue;
+                    }
+                    Map<String, MetadataType> labels = index.get(entry.getKey());
+                    if (labels == null) {
+                        labels = new HashMap<String, MetadataType>();
+                        index.put(entry.getKey(), labels);
+                    }
+                    if (!labels.containsKey(entry.getValue())) {
+                        labels.put(entry.getValue(), mdt);
+                    }
                 }
             }
+            this.metadataTypesByLabel = index;
+        }
+
+        return this.metadataTypesByLabel;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Called by a DocStructType of this Prefs, if its name or its translations have been changed.
+     * </p>
+     *
+     * @param nameChanged true, if the name of the DocStructType has been changed
+     **************************************************************************/
+    void docStrctTypeChanged(boolean nameChanged) {
+        if (nameChanged) {
+            this.docStrctTypesByName = null;
+            this.typeGeneration++;
+        }
+        this.docStrctTypesByLabel = null;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Called by a MetadataType of this Prefs, if its name or its translations have been changed.
+     * </p>
+     *
+     * @param nameChanged true, if the name of the MetadataType has been changed
+     **************************************************************************/
+    void metadataTypeChanged(boolean nameChanged) {
+        if (nameChanged) {
+            this.metadataTypesByName = null;
+            this.typeGeneration++;
+        }
+        this.metadataTypesByLabel = null;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Registers a DocStructType with these Prefs and assigns the next dense type ID to it, if it is not registered yet.
+     * </p>
+     *
+     * @param inType
+     **************************************************************************/
+    private void registerDocStrctType(DocStructType inType) {
+        if (inType.getPrefs() != this) {
+            inType.setPrefs(this);
+            inType.setTypeId(this.nextDocStrctTypeId++);
+            this.typeGeneration++;
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Registers a MetadataType with these Prefs and assigns the next dense type ID to it, if it is not registered yet.
+     * </p>
+     *
+     * @param inType
+     **************************************************************************/
+    private void registerMetadataType(MetadataType inType) {
+        if (inType.getPrefs() != this) {
+            inType.setPrefs(this);
+            inType.setTypeId(this.nextMetadataTypeId++);
+            this.typeGeneration++;
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the type generation, which changes whenever a type is registered with these Prefs or renamed. All types in the type lists are
+     * registered, when this method returns.
+     * </p>
+     *
+     * @return the current type generation
+     **************************************************************************/
+    int getTypeGeneration() {
+        getDocStrctTypeIndex();
+        getMetadataTypeIndex();
+        return this.typeGeneration;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Compiles the loaded preferences into a read-only ruleset. All lookup indexes are built, and the type lists as well as all DocStructTypes,
+     * MetadataTypes and MetadataGroupTypes become unmodifiable; their mutators throw an UnsupportedOperationException afterwards. Compiled Prefs
+     * can be shared between threads without synchronisation.
+     * </p>
+     * <p>
+     * Nothing happens, if the Prefs already are compiled.
+     * </p>
+     *
+     * @return this Prefs instance
+     **************************************************************************/
+    public synchronized Prefs compile() {
+
+        if (this.compiled) {
+            return this;
+        }
+
+        // Build all indexes now, they must not be built lazily by concurrent
+        // readers.
+        getDocStrctTypeLabelIndex();
+        getMetadataTypeLabelIndex();
+        getMetadataGroupTypeIndex();
+
+        for (DocStructTypeInterface dst : this.allDocStrctTypes) {
+            ((DocStructType) dst).freeze();
+        }
+        for (MetadataType mdt : this.allMetadataTypes) {
+            mdt.freeze();
+        }
+        for (MetadataGroupType mdg : this.allMetadataGroupTypes) {
+            mdg.freeze();
+        }
+        this.allDocStrctTypes = Collections.unmodifiableList(new ArrayList<DocStructTypeInterface>(this.allDocStrctTypes));
+        this.allMetadataTypes = Collections.unmodifiableList(new ArrayList<MetadataType>(this.allMetadataTypes));
+        this.allMetadataGroupTypes = Collections.unmodifiableList(new ArrayList<MetadataGroupType>(this.allMetadataGroupTypes));
 
-            if (!checklanguagevalue.equals("") && checklanguagevalue.equals(name)) {
-                // Found MetadataType.
-                return currentMdType;
+        this.compiled = true;
+
+        return this;
+    }
+
+    /***************************************************************************
+     * @return true, if these Prefs have been compiled and are read-only
+     **************************************************************************/
+    public boolean isCompiled() {
+        return this.compiled;
+    }
+
+    /***************************************************************************
+     * @throws UnsupportedOperationException if these Prefs have been compiled
+     **************************************************************************/
+    private void checkNotCompiled() {
+        if (this.compiled) {
+            throw new UnsupportedOperationException("Compiled Prefs can not be modified");
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Loads compiled preferences for the given ruleset file. If a compiled preferences file (the ruleset file name with the suffix
+     * {@link #COMPILED_PREFS_SUFFIX}) exists and was written for the current content of the ruleset file, the Prefs are read from there. Otherwise
+     * the ruleset file is loaded and compiled, and the compiled preferences file is (re)written, if possible.
+     * </p>
+     * <p>
+     * The compiled preferences file is considered current, if the size and modification time of the ruleset file have not changed, or if its
+     * content still has the same SHA-1 hash. As the file itself is not authenticated, only the classes compiled Prefs consist of are deserialised
+     * from it; if it contains others, it is ignored with a warning, and the ruleset file is loaded.
+     * </p>
+     *
+     * @param filename the ruleset file
+     * @return compiled Prefs
+     * @throws PreferencesException if the ruleset file can not be loaded
+     **************************************************************************/
+    public static Prefs loadCompiledPrefs(String filename) throws PreferencesException {
+
+        File source = new File(filename);
+        File sidecar = new File(filename + COMPILED_PREFS_SUFFIX);
+
+        if (sidecar.isFile()) {
+            Prefs result = readCompiledPrefs(source, sidecar);
+            if (result != null) {
+                return result;
             }
         }
 
+        Prefs result = new Prefs();
+        result.loadPrefsStreaming(filename);
+        result.compile();
+        try {
+            result.writeCompiledPrefs(filename);
+        } catch (PreferencesException e) {
+            logger.warn("Unable to write compiled preferences file '" + sidecar.getPath() + "'", e);
+        }
+
+        return result;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Compiles these Prefs and writes them to the compiled preferences file of the given ruleset file, which must be the file these Prefs were
+     * loaded from. The file is replaced atomically, so concurrent readers never see a partly written file.
+     * </p>
+     *
+     * @param filename the ruleset file these Prefs were loaded from
+     * @throws PreferencesException if the compiled preferences file can not be written
+     **************************************************************************/
+    public void writeCompiledPrefs(String filename) throws PreferencesException {
+
+        compile();
+
+        File source = new File(filename);
+        File sidecar = new File(filename + COMPILED_PREFS_SUFFIX);
+        File temp = null;
+
+        try {
+            // Take the file attributes before hashing, a concurrent change of
+            // the ruleset will then invalidate the compiled file.
+            long length = source.length();
+            long lastModified = source.lastModified();
+            byte[] hash = digest(source);
+
+            temp = File.createTempFile(sidecar.getName(), ".tmp", sidecar.getAbsoluteFile().getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeUTF(COMPILED_PREFS_MAGIC);
+                out.writeInt(COMPILED_PREFS_FORMAT);
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeInt(hash.length);
+                out.write(hash);
+                ObjectOutputStream objects = new ObjectOutputStream(out);
+                objects.writeObject(this);
+                objects.flush();
+            }
+
+            try {
+                Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new PreferencesException("Unable to write compiled preferences file '" + sidecar.getPath() + "'", e);
+        } finally {
+            if (temp != null && temp.exists() && !temp.delete()) {
+                logger.warn("Unable to delete temporary file '" + temp.getPath() + "'");
+            }
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads a compiled preferences file, if it is current for the given ruleset file.
+     * </p>
+     *
+     * @param source the ruleset file
+     * @param sidecar the compiled preferences file
+     * @return the compiled Prefs, or null if the file is outdated or can not be read
+     **************************************************************************/
+    private static Prefs readCompiledPrefs(File source, File sidecar) {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+            if (!COMPILED_PREFS_MAGIC.equals(in.readUTF()) || in.readInt() != COMPILED_PREFS_FORMAT) {
+                logger.info("Compiled preferences file '" + sidecar.getPath() + "' has an unknown format");
+                return null;
+            }
+            long length = in.readLong();
+            long lastModified = in.readLong();
+            byte[] hash = new byte[in.readInt()];
+            in.readFully(hash);
+
+            if ((length != source.length() || lastModified != source.lastModified()) && !Arrays.equals(hash, digest(source))) {
+                logger.info("Compiled preferences file '" + sidecar.getPath() + "' is outdated");
+                return null;
+            }
+
+            Prefs result = (Prefs) new CompiledPrefsInputStream(in).readObject();
+            logger.debug("Compiled preferences read from '" + sidecar.getPath() + "'");
+            return result;
+        } catch (IOException e) {
+            logger.warn("Unable to read compiled preferences file '" + sidecar.getPath() + "'", e);
+        } catch (ClassNotFoundException e) {
+            logger.warn("Unable to read compiled preferences file '" + sidecar.getPath() + "'", e);
+        } catch (ClassCastException e) {
+            logger.warn("Unable to read compiled preferences file '" + sidecar.getPath() + "'", e);
+        }
+
         return null;
     }
 
     /***************************************************************************
-     * @param inType
-     * @return
+     * @param file
+     * @return the SHA-1 hash of the file's content
+     * @throws IOException
      **************************************************************************/
-    public boolean addMetadataGroup(MetadataGroupType inGroup) {
+    private static byte[] digest(File file) throws IOException {
 
-        MetadataGroupType tempType;
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(COMPILED_PREFS_DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
 
-        if (inGroup == null) {
-            return false;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
         }
-        if (getMetadataGroupTypeByName(inGroup.getName()) == null) {
-            // still not available, so add ist
-            this.allMetadataGroupTypes.add(inGroup);
-            return true;
+
+        return digest.digest();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Serialises the format configurations as UTF-8 encoded XML, DOM nodes can not be serialised on their own.
+     * </p>
+     *
+     * @param out
+     * @throws IOException
+     **************************************************************************/
+    private void writeObject(ObjectOutputStream out) throws IOException {
+
+        out.defaultWriteObject();
+
+        HashMap<String, byte[]> formats = new HashMap<String, byte[]>();
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            synchronized (this.allFormats) {
+                formats.putAll(this.formatSources);
+                for (Map.Entry<String, Node> format : this.allFormats.entrySet()) {
+                    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+                    synchronized (format.getValue()) {
+                        transformer.transform(new DOMSource(format.getValue()), new StreamResult(xml));
+                    }
+                    formats.put(format.getKey(), xml.toByteArray());
+                }
+            }
+        } catch (TransformerException e) {
+            throw new IOException("Unable to serialise format configuration", e);
         }
+        out.writeObject(formats);
+    }
 
-        tempType = getMetadataGroupTypeByName(inGroup.getName());
-        // Remove old.
-        this.allMetadataGroupTypes.remove(tempType);
-        // Add new.
-        this.allMetadataGroupTypes.add(inGroup);
+    /***************************************************************************
+     * <p>
+     * Restores the format configurations, which are parsed on first access, and, for compiled Prefs, the lookup indexes.
+     * </p>
+     *
+     * @param in
+     * @throws IOException
+     * @throws ClassNotFoundException
+     **************************************************************************/
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
 
-        return true;
+        in.defaultReadObject();
+
+        Map<String, byte[]> formats = (Map<String, byte[]>) in.readObject();
+        this.allFormats = new Hashtable<String, Node>();
+        this.formatSources = new Hashtable<String, byte[]>(formats);
+
+        if (this.compiled) {
+            getDocStrctTypeLabelIndex();
+            getMetadataTypeLabelIndex();
+            getMetadataGroupTypeIndex();
+            for (DocStructTypeInterface dst : this.allDocStrctTypes) {
+                ((DocStructType) dst).buildLookupTables();
+            }
+        }
     }
+
 }
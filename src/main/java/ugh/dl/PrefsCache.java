@@ -0,0 +1,231 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / PrefsCache.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kitodo.api.ugh.exceptions.PreferencesException;
+
+/*******************************************************************************
+ * <p>
+ * A bounded cache of compiled <code>Prefs</code>, keyed by the canonical path of the ruleset file. All callers asking for the same ruleset share
+ * one read-only <code>Prefs</code> instance (see {@link Prefs#compile()}). If the size or modification time of a ruleset file changes, it is
+ * reloaded on the next request; callers still holding the former instance can go on using it. If the cache is full, the least recently used
+ * ruleset is dropped.
+ * </p>
+ *
+ * <p>
+ * The process-wide cache is available by {@link #getInstance()}; further caches can be created as needed.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see Prefs#compile()
+ * @see Prefs#loadCompiledPrefs(String)
+ *
+ ******************************************************************************/
+
+public class PrefsCache {
+
+    private static final Logger logger = LogManager.getLogger(PrefsCache.class);
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 16;
+
+    private static final PrefsCache INSTANCE = new PrefsCache(DEFAULT_MAXIMUM_SIZE, false);
+
+    private final int maximumSize;
+    private final boolean useCompiledPrefsFiles;
+    private final Map<String, Entry> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /***************************************************************************
+     * <p>
+     * Creates a new cache.
+     * </p>
+     *
+     * @param maximumSize maximum number of rulesets held
+     * @param useCompiledPrefsFiles if true, rulesets are loaded by {@link Prefs#loadCompiledPrefs(String)}, so compiled preferences files are read
+     *            and written next to the ruleset files
+     **************************************************************************/
+    public PrefsCache(int maximumSize, boolean useCompiledPrefsFiles) {
+
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1, but is " + maximumSize);
+        }
+
+        this.maximumSize = maximumSize;
+        this.useCompiledPrefsFiles = useCompiledPrefsFiles;
+        // Access ordered, the least recently used entry comes first.
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = -3291658154937210474L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > PrefsCache.this.maximumSize;
+            }
+        };
+    }
+
+    /***************************************************************************
+     * @return the process-wide Prefs cache
+     **************************************************************************/
+    public static PrefsCache getInstance() {
+        return INSTANCE;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the compiled Prefs for the given ruleset file. The ruleset is loaded, if it is not cached yet or if the file has changed since it was
+     * loaded. Concurrent requests for a ruleset which is being loaded wait for it instead of loading it again.
+     * </p>
+     *
+     * @param filename the ruleset file
+     * @return shared, read-only Prefs
+     * @throws PreferencesException if the ruleset can not be loaded
+     **************************************************************************/
+    public Prefs get(String filename) throws PreferencesException {
+
+        File file;
+        try {
+            file = new File(filename).getCanonicalFile();
+        } catch (IOException e) {
+            throw new PreferencesException("Unable to resolve preferences file '" + filename + "'", e);
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(file.getPath());
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                this.hits++;
+            } else {
+                if (entry != null) {
+                    logger.info("Preferences file '" + file.getPath() + "' has changed and will be reloaded");
+                }
+                this.misses++;
+                entry = new Entry(lastModified, length);
+                this.entries.put(file.getPath(), entry);
+            }
+        }
+
+        return entry.getPrefs(file.getPath());
+    }
+
+    /***************************************************************************
+     * <p>
+     * Removes a ruleset from the cache, it will be loaded again on the next request.
+     * </p>
+     *
+     * @param filename the ruleset file
+     **************************************************************************/
+    public void invalidate(String filename) {
+
+        String path;
+        try {
+            path = new File(filename).getCanonicalPath();
+        } catch (IOException e) {
+            path = new File(filename).getAbsolutePath();
+        }
+
+        synchronized (this) {
+            this.entries.remove(path);
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Removes all rulesets from the cache. The hit and miss counters are kept.
+     * </p>
+     **************************************************************************/
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /***************************************************************************
+     * @return number of rulesets currently held
+     **************************************************************************/
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /***************************************************************************
+     * @return the maximum number of rulesets held
+     **************************************************************************/
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /***************************************************************************
+     * @return number of requests answered from the cache
+     **************************************************************************/
+    public synchronized long getHitCount() {
+        return this.hits;
+    }
+
+    /***************************************************************************
+     * @return number of requests which had to load a ruleset
+     **************************************************************************/
+    public synchronized long getMissCount() {
+        return this.misses;
+    }
+
+    /***************************************************************************
+     * <p>
+     * A cached ruleset, together with the file attributes it was loaded for. The Prefs are loaded by the first caller of getPrefs().
+     * </p>
+     **************************************************************************/
+    private class Entry {
+
+        private final long lastModified;
+        private final long length;
+        private Prefs prefs;
+
+        private Entry(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private synchronized Prefs getPrefs(String path) throws PreferencesException {
+
+            if (this.prefs == null) {
+                if (PrefsCache.this.useCompiledPrefsFiles) {
+                    this.prefs = Prefs.loadCompiledPrefs(path);
+                } else {
+                    Prefs loaded = new Prefs();
+                    loaded.loadPrefsStreaming(path);
+                    this.prefs = loaded.compile();
+                }
+                logger.debug("Preferences file '" + path + "' loaded into cache");
+            }
+
+            return this.prefs;
+        }
+    }
+
+}
@@ -0,0 +1,607 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / PrefsReader.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kitodo.api.ugh.exceptions.PreferencesException;
+
+/*******************************************************************************
+ * <p>
+ * Reads a ruleset file with a StAX stream reader, as used by {@link Prefs#loadPrefsStreaming(String)}. The DocStrctTypes, MetadataTypes and
+ * Groups are built directly from the parser events, no DOM tree of the ruleset is created. Of the <code>&lt;Formats&gt;</code> section, only
+ * the XML of each format configuration is kept, it is parsed when a FileFormat asks for it by {@link Prefs#getPreferenceNode(String)}.
+ * </p>
+ *
+ * <p>
+ * The types are read the same way as by {@link Prefs#parseDocStrctType(org.w3c.dom.Node)},
+ * {@link Prefs#parseMetadataType(org.w3c.dom.Node)} and {@link Prefs#parseMetadataGroup(org.w3c.dom.Node)}, erroneous types are logged and
+ * skipped. Only the immediate text content of the <code>Name</code>, <code>language</code>, <code>metadata</code>, <code>group</code> and
+ * <code>allowedchildtype</code> elements is used.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see Prefs#loadPrefsStreaming(String)
+ *
+ ******************************************************************************/
+
+final class PrefsReader {
+
+    private static final Logger logger = LogManager.getLogger(PrefsReader.class);
+    // Property of the JDK's StAX implementation to report CDATA sections as
+    // such, instead of as characters.
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private final Prefs prefs;
+
+    /***************************************************************************
+     * @param prefs the Prefs to add the types and formats to
+     **************************************************************************/
+    PrefsReader(Prefs prefs) {
+        this.prefs = prefs;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads all types and formats of the given ruleset file into the Prefs.
+     * </p>
+     *
+     * @param filename
+     * @throws PreferencesException
+     **************************************************************************/
+    void read(String filename) throws PreferencesException {
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Namespace does not matter.
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        // Keep CDATA sections apart, they are copied as they are into the
+        // format configurations. readText() joins adjacent text events.
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        if (factory.isPropertySupported(REPORT_CDATA)) {
+            factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+        }
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                if (!findElement(reader, "Preferences")) {
+                    String message = "No upper child in preference file";
+                    logger.error(message);
+                    throw new PreferencesException(message);
+                }
+                readPreferences(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            Location location = e.getLocation();
+            String message = "Parse error at line " + (location == null ? -1 : location.getLineNumber()) + ", uri " + filename + "!";
+            logger.error(message);
+            throw new PreferencesException(message, e);
+        } catch (IOException e) {
+            String message = "Unable to load preferences file '" + filename + "'!";
+            logger.error(message);
+            throw new PreferencesException(message, e);
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Moves the reader to the first element with the given name.
+     * </p>
+     *
+     * @param reader
+     * @param name
+     * @return true, if the element was found
+     * @throws XMLStreamException
+     **************************************************************************/
+    private static boolean findElement(XMLStreamReader reader, String name) throws XMLStreamException {
+
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads the children of the <code>&lt;Preferences&gt;</code> element, the reader is positioned at its start tag.
+     * </p>
+     *
+     * @param reader
+     * @throws XMLStreamException
+     **************************************************************************/
+    private void readPreferences(XMLStreamReader reader) throws XMLStreamException {
+
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = reader.getLocalName();
+            if (name.equals("DocStrctType")) {
+                String topmostvalue = reader.getAttributeValue(null, "topStruct");
+                String filesetvalue = reader.getAttributeValue(null, "fileset");
+                DocStructType parsedDocStrctType = readDocStrctType(reader);
+                if (parsedDocStrctType != null) {
+                    if (topmostvalue != null && (topmostvalue.equals("yes") || topmostvalue.equals("true"))) {
+                        parsedDocStrctType.setTopmost(true);
+                    }
+                    if (filesetvalue != null && (filesetvalue.equals("no") || filesetvalue.equals("false"))) {
+                        parsedDocStrctType.setHasFileSet(false);
+                    }
+                    this.prefs.appendDocStrctType(parsedDocStrctType);
+                }
+            } else if (name.equals("MetadataType")) {
+                MetadataType parsedMetadataType = readMetadataType(reader);
+                if (parsedMetadataType != null) {
+                    this.prefs.appendMetadataType(parsedMetadataType);
+                }
+            } else if (name.equals("Group")) {
+                MetadataGroupType parsedMetadataGroup = readMetadataGroup(reader);
+                if (parsedMetadataGroup != null) {
+                    this.prefs.appendMetadataGroupType(parsedMetadataGroup);
+                }
+            } else if (name.equals("Formats")) {
+                readFormats(reader);
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads a single DocStrctType, see {@link Prefs#parseDocStrctType(org.w3c.dom.Node)}. The reader is positioned at the start tag and is left
+     * at the end tag.
+     * </p>
+     *
+     * @param reader
+     * @return DocStructType instance, or null if the DocStrctType is erroneous
+     * @throws XMLStreamException
+     **************************************************************************/
+    private DocStructType readDocStrctType(XMLStreamReader reader) throws XMLStreamException {
+
+        DocStructType currentDocStrctType = new DocStructType();
+        HashMap<String, String> allLanguages = new HashMap<String, String>();
+
+        // Check if it's an anchor.
+        String anchor = reader.getAttributeValue(null, "anchor");
+        if (anchor != null) {
+            currentDocStrctType.setAnchorClass(anchor);
+        }
+
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = reader.getLocalName();
+            if (name.equals("Name")) {
+                String text = readText(reader);
+                if (text == null) {
+                    logger.error("Error reading config for DocStrctType unknown (error code p004a)");
+                    skipElement(reader);
+                    return null;
+                }
+                currentDocStrctType.setName(text);
+            } else if (name.equals("language")) {
+                String languageName = reader.getAttributeValue(null, "name");
+                if (languageName == null) {
+                    logger.error("No name definition for language (" + currentDocStrctType.getName() + "); " + currentDocStrctType.getName()
+                            + "; Error Code: p005");
+                    // Skip the language element and the DocStrctType.
+                    skipElement(reader);
+                    skipElement(reader);
+                    return null;
+                }
+                String languageValue = readText(reader);
+                if (languageValue == null) {
+                    logger.error("Error reading config for DocStrctType " + currentDocStrctType.getName() + "; Error Code: p006");
+                    skipElement(reader);
+                    return null;
+                }
+                allLanguages.put(languageName, languageValue);
+            } else if (name.equals("metadata") || name.equals("group")) {
+                boolean group = name.equals("group");
+                String mdtypeNum = reader.getAttributeValue(null, "num");
+                String defaultValue = reader.getAttributeValue(null, "DefaultDisplay");
+                String invisibleValue = reader.getAttributeValue(null, "Invisible");
+                if (mdtypeNum == null) {
+                    mdtypeNum = "1";
+                    logger.warn("Num attribute not set for <" + name + "> element!");
+                }
+                String mdtypeName = readText(reader);
+                if (mdtypeName == null) {
+                    logger.error("Error reading config for DocStrctType '" + currentDocStrctType.getName() + "'! Node is not of type text");
+                    skipElement(reader);
+                    return null;
+                }
+
+                // Handle Invisible attribute.
+                boolean invisible = invisibleValue != null && (invisibleValue.equalsIgnoreCase("true") || invisibleValue.equalsIgnoreCase("yes"));
+                // Handle DefaultDisplay attribute.
+                boolean isDefault = defaultValue != null && (defaultValue.equalsIgnoreCase("true") || defaultValue.equalsIgnoreCase("yes"));
+
+                if (group) {
+                    MetadataGroupType newMdGroup = this.prefs.getMetadataGroupTypeByName(mdtypeName);
+                    if (newMdGroup == null) {
+                        logger.error("Error reading config for DocStrctType '" + currentDocStrctType.getName() + "'! MetadataType '" + mdtypeName
+                                + "' is unknown");
+                        skipElement(reader);
+                        return null;
+                    }
+                    // Set max. number.
+                    newMdGroup.setNum(mdtypeNum);
+                    MetadataGroupType result;
+                    if (defaultValue != null) {
+                        result = currentDocStrctType.addMetadataGroup(newMdGroup, mdtypeNum, isDefault, invisible);
+                    } else {
+                        result = currentDocStrctType.addMetadataGroup(newMdGroup, mdtypeNum);
+                    }
+                    if (result == null) {
+                        logger.error("Error reading config for DocStrctType '" + currentDocStrctType.getName() + "'! Can't add metadatatype '"
+                                + newMdGroup.getName() + "'");
+                        skipElement(reader);
+                        return null;
+                    }
+                } else {
+                    MetadataType newMdType = this.prefs.getMetadataTypeByName(mdtypeName);
+                    if (newMdType == null) {
+                        logger.error("Error reading config for DocStrctType '" + currentDocStrctType.getName() + "'! MetadataType '" + mdtypeName
+                                + "' is unknown");
+                        skipElement(reader);
+                        return null;
+                    }
+                    MetadataType result;
+                    if (defaultValue != null) {
+                        result = currentDocStrctType.addMetadataType(newMdType, mdtypeNum, isDefault, invisible);
+                    } else {
+                        result = currentDocStrctType.addMetadataType(newMdType, mdtypeNum);
+                    }
+                    if (result == null) {
+                        logger.error("Error reading config for DocStrctType '" + currentDocStrctType.getName() + "'! Can't add metadatatype '"
+                                + newMdType.getName() + "'");
+                        skipElement(reader);
+                        return null;
+                    }
+                }
+            } else if (name.equals("allowedchildtype")) {
+                String allowedChild = readText(reader);
+                if (allowedChild == null) {
+                    logger.error("Syntax Error reading config for DocStrctType '" + currentDocStrctType.getName()
+                            + "'! Expected a text node under <allowedchildtype> element containing the DocStructType's name");
+                    skipElement(reader);
+                    return null;
+                }
+                // Check, if an appropriate DocStruct Type is defined.
+                if (!currentDocStrctType.addDocStructTypeAsChild(allowedChild)) {
+                    logger.error("Error reading config for DocStructType '" + currentDocStrctType.getName() + "'! Can't addDocStructType as child '"
+                            + allowedChild + "'");
+                    skipElement(reader);
+                    return null;
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        // Add allLanguages to DocStrctType.
+        currentDocStrctType.setAllLanguages(allLanguages);
+
+        return currentDocStrctType;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads a single MetadataType, see {@link Prefs#parseMetadataType(org.w3c.dom.Node)}. The reader is positioned at the start tag and is left at
+     * the end tag.
+     * </p>
+     *
+     * @param reader
+     * @return MetadataType instance, or null if the MetadataType is erroneous
+     * @throws XMLStreamException
+     **************************************************************************/
+    private MetadataType readMetadataType(XMLStreamReader reader) throws XMLStreamException {
+
+        MetadataType currenMdType = new MetadataType();
+        HashMap<String, String> allLanguages = new HashMap<String, String>();
+
+        // Get type attribute.
+        String type = reader.getAttributeValue(null, "type");
+        if (type != null && type.equals("person")) {
+            currenMdType.setPerson(true);
+        }
+        if (type != null && type.equals("identifier")) {
+            currenMdType.setIdentifier(true);
+        }
+
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = reader.getLocalName();
+            if (name.equals("Name")) {
+                String text = readText(reader);
+                if (text == null) {
+                    logger.error("Syntax Error reading config for MetadataType " + currenMdType.getName()
+                            + "; Error Code: p002b! Expected a text node under <Name> element. <Name> must not be empty!");
+                    skipElement(reader);
+                    return null;
+                }
+                currenMdType.setName(text);
+            } else if (name.equals("language")) {
+                if (!readLanguage(reader, allLanguages, "MetadataType " + currenMdType.getName())) {
+                    skipElement(reader);
+                    return null;
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        // Add allLanguages to MetadataType.
+        currenMdType.setAllLanguages(allLanguages);
+
+        return currenMdType;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads a single Group, see {@link Prefs#parseMetadataGroup(org.w3c.dom.Node)}. The reader is positioned at the start tag and is left at the
+     * end tag.
+     * </p>
+     *
+     * @param reader
+     * @return MetadataGroupType instance, or null if the Group is erroneous
+     * @throws XMLStreamException
+     **************************************************************************/
+    private MetadataGroupType readMetadataGroup(XMLStreamReader reader) throws XMLStreamException {
+
+        MetadataGroupType currenGroup = new MetadataGroupType();
+        HashMap<String, String> allLanguages = new HashMap<String, String>();
+
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = reader.getLocalName();
+            if (name.equals("Name")) {
+                String text = readText(reader);
+                if (text == null) {
+                    logger.error("Syntax Error reading config for MetadataGroup! Expected a text node under <Name> element. <Name> must not be empty!");
+                    skipElement(reader);
+                    return null;
+                }
+                currenGroup.setName(text);
+            } else if (name.equals("metadata")) {
+                String mdtypeName = readText(reader);
+                if (mdtypeName == null) {
+                    logger.error("Error reading config for MetadataGroup '" + currenGroup.getName() + "'! Node is not of type text");
+                    skipElement(reader);
+                    return null;
+                }
+                MetadataType newMdType = this.prefs.getMetadataTypeByName(mdtypeName);
+                if (newMdType == null) {
+                    logger.error("Error reading config for MetadataGroup '" + currenGroup.getName() + "'! MetadataType '" + mdtypeName
+                            + "' is unknown");
+                    skipElement(reader);
+                    return null;
+                }
+                currenGroup.addMetadataType(newMdType);
+            } else if (name.equals("language")) {
+                if (!readLanguage(reader, allLanguages, "MetadataGroup " + currenGroup.getName())) {
+                    skipElement(reader);
+                    return null;
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        // Add allLanguages to MetadataGroupType.
+        currenGroup.setAllLanguages(allLanguages);
+
+        return currenGroup;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads a <code>&lt;language&gt;</code> element of a MetadataType or Group.
+     * </p>
+     *
+     * @param reader positioned at the start tag
+     * @param allLanguages map to add the translation to
+     * @param context description of the type for error messages
+     * @return false, if the element is erroneous
+     * @throws XMLStreamException
+     **************************************************************************/
+    private static boolean readLanguage(XMLStreamReader reader, HashMap<String, String> allLanguages, String context) throws XMLStreamException {
+
+        String languageName = reader.getAttributeValue(null, "name");
+        String languageValue = readText(reader);
+        if (languageName == null || languageValue == null) {
+            logger.error("Syntax Error reading config for " + context
+                    + "; Error Code: p001! Expected a name attribute and a text node under <language> element. <language> must not be empty!");
+            return false;
+        }
+        allLanguages.put(languageName, languageValue);
+
+        return true;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Keeps the XML of each format configuration in the <code>&lt;Formats&gt;</code> element. The reader is positioned at the start tag and is
+     * left at the end tag.
+     * </p>
+     *
+     * @param reader
+     * @throws XMLStreamException
+     **************************************************************************/
+    private void readFormats(XMLStreamReader reader) throws XMLStreamException {
+
+        XMLOutputFactory factory = XMLOutputFactory.newInstance();
+
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = reader.getLocalName();
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            XMLStreamWriter writer = factory.createXMLStreamWriter(xml, "UTF-8");
+            copyElement(reader, writer);
+            writer.close();
+            this.prefs.addFormatConfiguration(name, xml.toByteArray());
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Copies an element with all its content from the reader to the writer. The reader is positioned at the start tag and is left at the end tag.
+     * As the reader is not namespace aware, namespace declarations and prefixes are copied as they are.
+     * </p>
+     *
+     * @param reader
+     * @param writer
+     * @throws XMLStreamException
+     **************************************************************************/
+    private static void copyElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+
+        int depth = 0;
+        do {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    writer.writeStartElement(reader.getLocalName());
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String prefix = reader.getAttributePrefix(i);
+                        String name = reader.getAttributeLocalName(i);
+                        if (prefix != null && !prefix.isEmpty()) {
+                            name = prefix + ":" + name;
+                        }
+                        writer.writeAttribute(name, reader.getAttributeValue(i));
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    break;
+                default:
+                    break;
+            }
+        } while (depth > 0 && reader.next() != XMLStreamConstants.END_DOCUMENT);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads the text at the beginning of an element, like the first text node of the element in the DOM. The reader is positioned at the start
+     * tag and is left at the end tag.
+     * </p>
+     *
+     * @param reader
+     * @return the text, or null if the element is empty or does not start with text
+     * @throws XMLStreamException
+     **************************************************************************/
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+
+        StringBuilder text = null;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (text == null) {
+                        text = new StringBuilder();
+                    }
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    // Only the text up to the first child element counts;
+                    // skip the child element and the rest of this element.
+                    skipElement(reader);
+                    skipElement(reader);
+                    return text == null ? null : text.toString();
+                default:
+                    break;
+            }
+        }
+
+        return text == null ? null : text.toString();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Skips an element with all its content. The reader is positioned at the start tag and is left at the end tag.
+     * </p>
+     *
+     * @param reader
+     * @throws XMLStreamException
+     **************************************************************************/
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+}
@@ -162,4 +162,23 @@ public class Reference implements ReferenceInterface, Serializable {
         return true;
     }
 
+    /***************************************************************************
+     * @param copier
+     * @return a copy of this instance; source and target are resolved later
+     **************************************************************************/
+    Reference deepCopy(DocumentCopier copier) {
+
+        Reference copy = new Reference();
+        copier.put(this, copy);
+        copy.type = this.type;
+        copy.source = this.source;
+        copy.sourceid = this.sourceid;
+        copy.target = this.target;
+        copy.targetid = this.targetid;
+        copy.updated = this.updated;
+        copy.dbid = this.dbid;
+
+        return copy;
+    }
+
 }
@@ -0,0 +1,281 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / ReloadablePrefs.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kitodo.api.ugh.exceptions.PreferencesException;
+
+/*******************************************************************************
+ * <p>
+ * A handle to a ruleset file, which is reloaded whenever the file changes. The directory of the ruleset file is watched by a background thread;
+ * if the file is modified or replaced, the new version is loaded, validated and compiled (see {@link Prefs#compile()}), and then swapped in
+ * atomically. If the new version can not be loaded, or is not valid, the current Prefs are kept.
+ * </p>
+ *
+ * <p>
+ * {@link #get()} always returns the current Prefs. As compiled Prefs are read-only, documents and file formats which have been created with a
+ * former version can go on using it; a caller should fetch the Prefs once per document and stick to them.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see PrefsCache
+ *
+ ******************************************************************************/
+
+public class ReloadablePrefs implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(ReloadablePrefs.class);
+
+    // Time to wait for further changes after a change has been noticed, so
+    // that a file being written is not read half-way.
+    public static final long DEFAULT_SETTLE_MILLIS = 500;
+
+    private final File file;
+    private final long settleMillis;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    private volatile Prefs prefs;
+    private volatile int reloadCount = 0;
+    // File attributes of the loaded version, to skip events which did not
+    // change the file.
+    private long lastModified;
+    private long length;
+
+    /***************************************************************************
+     * <p>
+     * Loads the ruleset file and starts watching it, using the default settle time.
+     * </p>
+     *
+     * @param filename the ruleset file
+     * @throws PreferencesException if the ruleset can not be loaded or is not valid, or the file can not be watched
+     **************************************************************************/
+    public ReloadablePrefs(String filename) throws PreferencesException {
+        this(filename, DEFAULT_SETTLE_MILLIS);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Loads the ruleset file and starts watching it.
+     * </p>
+     *
+     * @param filename the ruleset file
+     * @param settleMillis time to wait for further changes of the file before it is reloaded
+     * @throws PreferencesException if the ruleset can not be loaded or is not valid, or the file can not be watched
+     **************************************************************************/
+    public ReloadablePrefs(String filename, long settleMillis) throws PreferencesException {
+
+        try {
+            this.file = new File(filename).getCanonicalFile();
+        } catch (IOException e) {
+            throw new PreferencesException("Unable to resolve preferences file '" + filename + "'", e);
+        }
+        this.settleMillis = settleMillis;
+
+        long modified = this.file.lastModified();
+        long size = this.file.length();
+        this.prefs = load();
+        this.lastModified = modified;
+        this.length = size;
+
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new PreferencesException("Unable to watch preferences file '" + this.file.getPath() + "'", e);
+        }
+        try {
+            this.file.getParentFile().toPath().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            try {
+                this.watchService.close();
+            } catch (IOException closeException) {
+                logger.warn("Unable to close watch service", closeException);
+            }
+            throw new PreferencesException("Unable to watch preferences file '" + this.file.getPath() + "'", e);
+        }
+
+        this.watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "ReloadablePrefs " + this.file.getName());
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /***************************************************************************
+     * @return the current, read-only Prefs
+     **************************************************************************/
+    public Prefs get() {
+        return this.prefs;
+    }
+
+    /***************************************************************************
+     * @return the ruleset file
+     **************************************************************************/
+    public File getFile() {
+        return this.file;
+    }
+
+    /***************************************************************************
+     * @return number of times a new version of the ruleset has been swapped in
+     **************************************************************************/
+    public int getReloadCount() {
+        return this.reloadCount;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reloads the ruleset file now, if it has changed since it was loaded. The current Prefs are kept, if the new version can not be loaded.
+     * </p>
+     *
+     * @return true, if a new version has been swapped in
+     **************************************************************************/
+    public synchronized boolean reload() {
+
+        long modified = this.file.lastModified();
+        long size = this.file.length();
+        if (modified == this.lastModified && size == this.length) {
+            return false;
+        }
+
+        Prefs loaded;
+        try {
+            loaded = load();
+        } catch (PreferencesException e) {
+            logger.error("Preferences file '" + this.file.getPath() + "' has changed, but can not be loaded; keeping the current version", e);
+            return false;
+        } catch (RuntimeException e) {
+            // A partly written or malformed file may also make the parser
+            // fail this way; this must not end the watcher thread.
+            logger.error("Preferences file '" + this.file.getPath() + "' has changed, but can not be loaded; keeping the current version", e);
+            return false;
+        }
+
+        this.prefs = loaded;
+        this.lastModified = modified;
+        this.length = size;
+        this.reloadCount++;
+        logger.info("Preferences file '" + this.file.getPath() + "' reloaded");
+
+        return true;
+    }
+
+    /***************************************************************************
+     * <p>
+     * Stops watching the ruleset file. The current Prefs can still be used.
+     * </p>
+     **************************************************************************/
+    @Override
+    public void close() throws IOException {
+        this.watchService.close();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Loads, validates and compiles the ruleset file.
+     * </p>
+     *
+     * @return compiled Prefs
+     * @throws PreferencesException if the ruleset can not be loaded or is not valid
+     **************************************************************************/
+    private Prefs load() throws PreferencesException {
+
+        Prefs loaded = new Prefs();
+        loaded.loadPrefsStreaming(this.file.getPath());
+
+        // A ruleset without any DocStructType is of no use, most probably the
+        // file has been read while it was written.
+        if (loaded.getAllDocStructTypes().isEmpty()) {
+            throw new PreferencesException("Preferences file '" + this.file.getPath() + "' contains no DocStructTypes");
+        }
+
+        return loaded.compile();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Waits for changes of the ruleset file and reloads it, until the watch service is closed.
+     * </p>
+     **************************************************************************/
+    private void watch() {
+
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                boolean changed = pollEvents(key);
+
+                // Wait until the file has settled.
+                while (changed) {
+                    key = this.watchService.poll(this.settleMillis, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    pollEvents(key);
+                }
+
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("Stopped watching preferences file '" + this.file.getPath() + "'");
+        } catch (InterruptedException e) {
+            logger.debug("Interrupted watching preferences file '" + this.file.getPath() + "'");
+        }
+    }
+
+    /***************************************************************************
+     * @param key a signalled watch key, which is reset
+     * @return true, if one of the events concerns the ruleset file
+     **************************************************************************/
+    private boolean pollEvents(WatchKey key) {
+
+        boolean result = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                result = true;
+            } else if (this.file.getName().equals(((Path) event.context()).toString())) {
+                result = true;
+            }
+        }
+        key.reset();
+
+        return result;
+    }
+
+}
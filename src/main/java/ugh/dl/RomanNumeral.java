@@ -141,6 +141,98 @@ public class RomanNumeral extends Number implements RomanNumeralInterface {
         this.setValue(value);
     }
 
+    /***************************************************************************
+     * <p>
+     * Lookup table of the modern style numerals, indexed by their values; built on first use.
+     * </p>
+     **************************************************************************/
+    private static final class ModernNumerals {
+        static final String[] TABLE = buildTable(false);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Lookup table of the archaic style numerals, indexed by their values; built on first use.
+     * </p>
+     **************************************************************************/
+    private static final class ArchaicNumerals {
+        static final String[] TABLE = buildTable(true);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the modern style Roman numeral (4 = IV) for an integer. The numerals are taken from a lookup table, so no objects are created.
+     * </p>
+     *
+     * @param value
+     *            the int value to convert to a Roman numeral
+     * @return the Roman numeral
+     * @exception NumberFormatException
+     *                if the parameter is out of range
+     **************************************************************************/
+    public static String format(int value) throws NumberFormatException {
+        checkRange(value);
+        return ModernNumerals.TABLE[value];
+    }
+
+    /***************************************************************************
+     * <p>
+     * Returns the archaic style Roman numeral (4 = IIII) for an integer, see {@link #format(int)}.
+     * </p>
+     *
+     * @param value
+     *            the int value to convert to a Roman numeral
+     * @return the Roman numeral
+     * @exception NumberFormatException
+     *                if the parameter is out of range
+     **************************************************************************/
+    public static String formatArchaic(int value) throws NumberFormatException {
+        checkRange(value);
+        return ArchaicNumerals.TABLE[value];
+    }
+
+    /***************************************************************************
+     * <p>
+     * Converts a Roman numeral in modern or archaic style to an integer, without creating any objects.
+     * </p>
+     *
+     * @param romanNum
+     *            A Roman numeral
+     * @return An int value of the parameter
+     * @exception NumberFormatException
+     *                If the parameter is not a valid Roman numeral
+     **************************************************************************/
+    public static int parse(CharSequence romanNum) throws NumberFormatException {
+        return convertRomanToInt(romanNum);
+    }
+
+    /***************************************************************************
+     * @param value
+     * @exception NumberFormatException
+     *                If the value is out of range.
+     **************************************************************************/
+    private static void checkRange(int value) throws NumberFormatException {
+        if (value > MAX_NUM) {
+            throw new NumberFormatException("Value out of range - too high");
+        }
+        if (value < 1) {
+            throw new NumberFormatException("Value out of range - too low");
+        }
+    }
+
+    /***************************************************************************
+     * @param archaic
+     *            true for the archaic style, false for the modern style
+     * @return the numerals from 1 to MAX_NUM, indexed by their values
+     **************************************************************************/
+    private static String[] buildTable(boolean archaic) {
+        String[] table = new String[MAX_NUM + 1];
+        for (int i = 1; i <= MAX_NUM; i++) {
+            table[i] = archaic ? buildArchaic(i) : buildModern(i);
+        }
+        return table;
+    }
+
     /***************************************************************************
      * <p>
      * Determines the integer value of a Roman digit, such as 'M', 'C', 'D', and
@@ -153,15 +245,26 @@ public class RomanNumeral extends Number implements RomanNumeralInterface {
      * @exception NumberFormatException
      *                if a digit is not a valid Roman digit.
      **************************************************************************/
-    private int getIntValue(char digit) throws NumberFormatException {
-
-        for (int i = 0; i < NUM_DIVISORS; i++) {
-            if (ROMAN_DIGITS[i] == digit) {
-                return (DIVISORS[i]);
-            }
+    private static int getIntValue(char digit) throws NumberFormatException {
+
+        switch (digit) {
+            case 'M':
+                return 1000;
+            case 'D':
+                return 500;
+            case 'C':
+                return 100;
+            case 'L':
+                return 50;
+            case 'X':
+                return 10;
+            case 'V':
+                return 5;
+            case 'I':
+                return 1;
+            default:
+                throw new NumberFormatException("Number contains invalid digits");
         }
-
-        throw new NumberFormatException("Number contains invalid digits");
     }
 
     /***************************************************************************
@@ -175,7 +278,7 @@ public class RomanNumeral extends Number implements RomanNumeralInterface {
      * @exception NumberFormatException
      *                If the string parameter is not a valid Roman numeral
      **************************************************************************/
-    private int convertRomanToInt(String romanNum) throws NumberFormatException {
+    private static int convertRomanToInt(CharSequence romanNum) throws NumberFormatException {
 
         int digitCount = 0;
         int curr;
@@ -213,64 +316,95 @@ public class RomanNumeral extends Number implements RomanNumeralInterface {
 
     /***************************************************************************
      * <p>
-     * Converts an int into an Archaic style Roman numeral (4 = IIII).
+     * Builds an Archaic style Roman numeral (4 = IIII).
      * </p>
      *
      * @param number
      *            the int value to convert to a Roman numeral
+     * @return the Roman numeral
      **************************************************************************/
-    private void convertIntArchaic(int number) {
+    private static String buildArchaic(int number) {
 
         int div;
-        this.num = new StringBuffer();
+        StringBuilder numeral = new StringBuilder();
 
         for (int i = 0; i < NUM_DIVISORS && number > 0; i++) {
             div = number / DIVISORS[i];
             for (int j = 0; j < div; j++) {
-                this.num.append(ROMAN_DIGITS[i]);
+                numeral.append(ROMAN_DIGITS[i]);
             }
 
             number = number - DIVISORS[i] * div;
         }
+
+        return numeral.toString();
     }
 
     /***************************************************************************
      * <p>
-     * Converts an int into a Modern style Roman numeral (4 = IV).
+     * Builds a Modern style Roman numeral (4 = IV).
      * </p>
      *
      * @param number
      *            the int value to convert to a Roman numeral
+     * @return the Roman numeral
      **************************************************************************/
-    private void convertInt(int number) {
+    private static String buildModern(int number) {
+
         int div;
+        StringBuilder numeral = new StringBuilder();
 
-        this.num = new StringBuffer();
         for (int i = 0; i < NUM_DIVISORS && number > 0; i++) {
             div = number / DIVISORS[i];
             if (div == 4) {
-                if (this.num.length() == 0
-                        || this.num.charAt(this.num.length() - 1) != ROMAN_DIGITS[i - 1]) {
+                if (numeral.length() == 0
+                        || numeral.charAt(numeral.length() - 1) != ROMAN_DIGITS[i - 1]) {
                     if (i == 0) {
                         for (int j = 0; j < div; j++) {
-                            this.num.append(ROMAN_DIGITS[i]);
+                            numeral.append(ROMAN_DIGITS[i]);
                         }
                     } else {
-                        this.num.append(ROMAN_DIGITS[i]);
-                        this.num.append(ROMAN_DIGITS[i - 1]);
+                        numeral.append(ROMAN_DIGITS[i]);
+                        numeral.append(ROMAN_DIGITS[i - 1]);
                     }
                 } else {
-                    this.num.setCharAt(this.num.length() - 1, ROMAN_DIGITS[i]);
-                    this.num.append(ROMAN_DIGITS[i - 2]);
+                    numeral.setCharAt(numeral.length() - 1, ROMAN_DIGITS[i]);
+                    numeral.append(ROMAN_DIGITS[i - 2]);
                 }
             } else {
                 for (int j = 0; j < div; j++) {
-                    this.num.append(ROMAN_DIGITS[i]);
+                    numeral.append(ROMAN_DIGITS[i]);
                 }
             }
 
             number = number - DIVISORS[i] * div;
         }
+
+        return numeral.toString();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Converts an int into an Archaic style Roman numeral (4 = IIII).
+     * </p>
+     *
+     * @param number
+     *            the int value to convert to a Roman numeral
+     **************************************************************************/
+    private void convertIntArchaic(int number) {
+        this.num = new StringBuffer(formatArchaic(number));
+    }
+
+    /***************************************************************************
+     * <p>
+     * Converts an int into a Modern style Roman numeral (4 = IV).
+     * </p>
+     *
+     * @param number
+     *            the int value to convert to a Roman numeral
+     **************************************************************************/
+    private void convertInt(int number) {
+        this.num = new StringBuffer(format(number));
     }
 
     /***************************************************************************
@@ -286,12 +420,7 @@ public class RomanNumeral extends Number implements RomanNumeralInterface {
     @Override
     public void setValue(int v) throws NumberFormatException {
 
-        if (v > MAX_NUM) {
-            throw new NumberFormatException("Value out of range - too high");
-        }
-        if (v < 1) {
-            throw new NumberFormatException("Value out of range - too low");
-        }
+        checkRange(v);
 
         this.intValue = v;
 
@@ -0,0 +1,71 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / StringPool.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*******************************************************************************
+ * <p>
+ * Intern pool for the metadata values of one DigitalDocument. Equal values, like language codes, page labels or role codes, are replaced by
+ * one shared instance. Unlike {@link String#intern()}, the pool is dropped together with the document. Long values, which are rarely
+ * repeated, are not pooled, so that the pool does not cost more memory than it saves.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DigitalDocument#setCompactStorage(boolean)
+ *
+ ******************************************************************************/
+
+final class StringPool {
+
+    // Values longer than this are not pooled.
+    static final int MAX_LENGTH = 64;
+
+    private final Map<String, String> strings = new HashMap<String, String>();
+
+    /***************************************************************************
+     * @param value may be null
+     * @return the pooled instance equal to the value, or the value itself, if it is added to the pool or too long to be pooled
+     **************************************************************************/
+    String intern(String value) {
+
+        if (value == null || value.length() > MAX_LENGTH) {
+            return value;
+        }
+        String pooled = this.strings.get(value);
+        if (pooled == null) {
+            this.strings.put(value, value);
+            return value;
+        }
+
+        return pooled;
+    }
+
+    /***************************************************************************
+     * @return the number of pooled values
+     **************************************************************************/
+    int size() {
+        return this.strings.size();
+    }
+
+}
@@ -0,0 +1,193 @@
+package ugh.dl;
+
+/*******************************************************************************
+ * ugh.dl / TypeNameIndex.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*******************************************************************************
+ * <p>
+ * An index of the Metadata, Persons or MetadataGroups of a DocStruct by the name of their type. The entries of each type keep the order of the
+ * indexed list. Entries without a type are not indexed, but counted.
+ * </p>
+ *
+ * <p>
+ * The index is updated by its owner together with the indexed list. The owner drops the index, if the list is changed directly through a view
+ * it has handed out, or invalidates it, if the type of an indexed entry changes. As a safeguard, it remembers the size of the list it is in sync
+ * with; if the size differs, {@link #isCurrent(List)} returns false and the index has to be rebuilt.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see DocStruct
+ *
+ ******************************************************************************/
+
+final class TypeNameIndex<T> {
+
+    private final Map<String, List<T>> entriesByType = new HashMap<String, List<T>>();
+    // Size of the indexed list, or -1 if the index has to be rebuilt.
+    private int size;
+
+    /***************************************************************************
+     * @param list the list to index, may be null
+     **************************************************************************/
+    TypeNameIndex(List<? extends T> list) {
+        if (list != null) {
+            for (T entry : list) {
+                put(entry);
+            }
+            this.size = list.size();
+        }
+    }
+
+    /***************************************************************************
+     * @param list the indexed list, may be null
+     * @return true, if the index is in sync with the list
+     **************************************************************************/
+    boolean isCurrent(List<?> list) {
+        return this.size == (list == null ? 0 : list.size());
+    }
+
+    /***************************************************************************
+     * @param typeName name of the type
+     * @return all entries of the type, in list order; the list must not be modified
+     **************************************************************************/
+    List<T> get(String typeName) {
+        List<T> result = this.entriesByType.get(typeName);
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        return result;
+    }
+
+    /***************************************************************************
+     * @param typeName name of the type
+     * @return number of entries of the type
+     **************************************************************************/
+    int count(String typeName) {
+        List<T> entries = this.entriesByType.get(typeName);
+        return entries == null ? 0 : entries.size();
+    }
+
+    /***************************************************************************
+     * <p>
+     * Indexes an entry, which has been appended to the indexed list.
+     * </p>
+     *
+     * @param entry
+     **************************************************************************/
+    void add(T entry) {
+        put(entry);
+        if (this.size >= 0) {
+            this.size++;
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Removes an entry, which has been removed from the indexed list.
+     * </p>
+     *
+     * @param entry
+     **************************************************************************/
+    void remove(T entry) {
+        String typeName = getTypeName(entry);
+        if (typeName != null) {
+            List<T> entries = this.entriesByType.get(typeName);
+            if (entries == null || !entries.remove(entry)) {
+                // The type has been changed since the entry was indexed.
+                this.size = -1;
+                return;
+            }
+            if (entries.isEmpty()) {
+                this.entriesByType.remove(typeName);
+            }
+        }
+        if (this.size >= 0) {
+            this.size--;
+        }
+    }
+
+    /***************************************************************************
+     * <p>
+     * Replaces an entry, which has been replaced in the indexed list at the same position. Both entries must be of the same type.
+     * </p>
+     *
+     * @param oldEntry
+     * @param newEntry
+     **************************************************************************/
+    void replace(T oldEntry, T newEntry) {
+        String typeName = getTypeName(oldEntry);
+        List<T> entries = typeName == null ? null : this.entriesByType.get(typeName);
+        int position = entries == null ? -1 : entries.indexOf(oldEntry);
+        if (position < 0 || !typeName.equals(getTypeName(newEntry))) {
+            this.size = -1;
+            return;
+        }
+        entries.set(position, newEntry);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Marks the index as out of sync, it has to be rebuilt.
+     * </p>
+     **************************************************************************/
+    void invalidate() {
+        this.size = -1;
+    }
+
+    /***************************************************************************
+     * @param entry
+     **************************************************************************/
+    private void put(T entry) {
+        String typeName = getTypeName(entry);
+        if (typeName == null) {
+            return;
+        }
+        List<T> entries = this.entriesByType.get(typeName);
+        if (entries == null) {
+            entries = new ArrayList<T>(2);
+            this.entriesByType.put(typeName, entries);
+        }
+        entries.add(entry);
+    }
+
+    /***************************************************************************
+     * @param entry a Metadata, Person or MetadataGroup
+     * @return the name of the type of the entry, or null if it has no type
+     **************************************************************************/
+    private static String getTypeName(Object entry) {
+        if (entry instanceof Metadata) {
+            MetadataType type = ((Metadata) entry).getType();
+            return type == null ? null : type.getName();
+        }
+        if (entry instanceof MetadataGroup) {
+            MetadataGroupType type = ((MetadataGroup) entry).getType();
+            return type == null ? null : type.getName();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,61 @@
+package ugh.exceptions;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.kitodo.api.ugh.exceptions.UGHException;
+
+/*******************************************************************************
+ * ugh.exceptions / BatchValidationException.java
+ *
+ * Copyright 2010 Center for Retrospective Digitization, Göttingen (GDZ)
+ *
+ * http://gdz.sub.uni-goettingen.de
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This Library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+/*******************************************************************************
+ * <p>
+ * Thrown when a batch of changes is committed to a DigitalDocument, and the changes violate the preferences. It reports all violations
+ * together.
+ * </p>
+ *
+ * @version 2026-10-15
+ * @see ugh.dl.DigitalDocument#commitBatch()
+ ******************************************************************************/
+
+public class BatchValidationException extends UGHException {
+
+    private static final long    serialVersionUID    = 4170829163254580251L;
+
+    private final List<String>    violations;
+
+    /***************************************************************************
+     * @param violations
+     *            a message for each violation
+     **************************************************************************/
+    public BatchValidationException(List<String> violations) {
+        super(violations.size() + " violation(s) of the preferences: " + violations);
+        this.violations = Collections.unmodifiableList(violations);
+    }
+
+    /***************************************************************************
+     * @return a message for each violation
+     **************************************************************************/
+    public List<String> getViolations() {
+        return this.violations;
+    }
+
+}
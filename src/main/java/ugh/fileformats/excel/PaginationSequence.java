@@ -139,9 +139,8 @@ public class PaginationSequence {
                     logpagenumber.setValue(Integer
                             .toString(this.logcountedstart + i));
                 } else {
-                    RomanNumeral romannumber = new RomanNumeral(
-                            this.logcountedstart + i);
-                    logpagenumber.setValue(romannumber.toString());
+                    logpagenumber.setValue(RomanNumeral
+                            .format(this.logcountedstart + i));
                 }
             }
             if ((this.logcountedstart == 0) && (this.lognotcountedstart != 0)) {
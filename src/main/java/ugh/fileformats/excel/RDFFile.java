@@ -25,11 +25,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -147,8 +149,11 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
     // Hashtables are used for matching the internal Name of metadata and
     // docstructs to the name used in the rdf-xml file.
     // The contents is read from the preferences in readPrefs method.
-    private final Hashtable<String, MatchingMetadataObject>    rdfNamesMD;
-    private final Hashtable<String, MatchingMetadataObject>    rdfNamesDS;
+    private Map<String, MatchingMetadataObject>                rdfNamesMD;
+    private Map<String, MatchingMetadataObject>                rdfNamesDS;
+    // True, if the matching tables above are shared with other instances, see
+    // loadPrefsMapping().
+    private boolean                                            sharedPrefsMapping    = false;
 
     private static final String                            HIDDEN_METADATA_CHAR        = "_";
 
@@ -167,17 +172,45 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
         this.rdfNamesDS = new Hashtable<String, MatchingMetadataObject>();
 
         // Read preferences.
-        Node rdfNode = inPrefs.getPreferenceNode("RDF");
-        if (rdfNode == null) {
-            String message = "Can't read preferences for RDF fileformat! Node '"
-                    + RDF_PREFS_NODE_NAME_STRING
-                    + "' in preferences file not found!";
-            PreferencesException pe = new PreferencesException(message);
-            logger.error(message, pe);
-            throw pe;
+        loadPrefsMapping(inPrefs);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads the RDF section of the preferences. The section is parsed by
+     * readPrefs() only once per Prefs instance; further instances share the
+     * parsed, unmodifiable matching tables.
+     * </p>
+     *
+     * @param inPrefs
+     * @throws PreferencesException
+     **************************************************************************/
+    private void loadPrefsMapping(ugh.dl.Prefs inPrefs)
+            throws PreferencesException {
+
+        String key = RDF_PREFS_NODE_NAME_STRING + "/"
+                + this.getClass().getName();
+        PrefsMapping mapping = (PrefsMapping) inPrefs.getFormatMapping(key);
+
+        if (mapping == null) {
+            Node rdfNode = inPrefs.getPreferenceNode(RDF_PREFS_NODE_NAME_STRING);
+            if (rdfNode == null) {
+                String message = "Can't read preferences for RDF fileformat! Node '"
+                        + RDF_PREFS_NODE_NAME_STRING
+                        + "' in preferences file not found!";
+                PreferencesException pe = new PreferencesException(message);
+                logger.error(message, pe);
+                throw pe;
+            }
+
+            this.readPrefs(rdfNode);
+            mapping = (PrefsMapping) inPrefs.putFormatMapping(key,
+                    new PrefsMapping(this));
         }
 
-        this.readPrefs(rdfNode);
+        this.rdfNamesMD = mapping.rdfNamesMD;
+        this.rdfNamesDS = mapping.rdfNamesDS;
+        this.sharedPrefsMapping = true;
     }
 
     /***************************************************************************
@@ -540,7 +573,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("mediumsource");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("mediumsource");
@@ -564,7 +597,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("shelfmarksource");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("shelfmarksource");
@@ -585,7 +618,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("imagedescr");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("imagedescr");
@@ -607,7 +640,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("commentsource");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("commentsource");
@@ -630,7 +663,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("datedigit");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("datedigit");
@@ -652,7 +685,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("pathimagefiles");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("pathimagefiles");
@@ -675,7 +708,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("FormatSourcePrint");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("FormatSourcePrint");
@@ -697,7 +730,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("originImageSet");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("originImageSet");
@@ -720,7 +753,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("copyrightimageset");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("copyrightimageset");
@@ -744,7 +777,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
                     myMDType = new MetadataType();
                     myMDType.setName("shelfmarkarchiveimageset");
                     myMDType.setNum("1o");
-                    this.myPreferences.addMetadataType(myMDType);
+                    addImagesetMetadataType(myMDType);
                 } else {
                     myMDType = this.myPreferences
                             .getMetadataTypeByName("shelfmarkarchiveimageset");
@@ -2655,6 +2688,21 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
         return resultList;
     }
 
+    /***************************************************************************
+     * <p>
+     * Registers a MetadataType for imageset metadata with the preferences.
+     * Compiled preferences are shared and read-only; the MetadataType is used
+     * without registering it then.
+     * </p>
+     *
+     * @param inType
+     **************************************************************************/
+    private void addImagesetMetadataType(MetadataType inType) {
+        if (!this.myPreferences.isCompiled()) {
+            this.myPreferences.addMetadataType(inType);
+        }
+    }
+
     /***************************************************************************
      * <p>
      * Gets the metadata value out of an element; the method will find the FIRST
@@ -2813,6 +2861,16 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
      **************************************************************************/
     public boolean readPrefs(Node inNode) throws PreferencesException {
 
+        // The matching tables may be shared with other instances, see
+        // loadPrefsMapping(), so copy them before adding to them.
+        if (this.sharedPrefsMapping) {
+            this.rdfNamesMD = new Hashtable<String, MatchingMetadataObject>(
+                    this.rdfNamesMD);
+            this.rdfNamesDS = new Hashtable<String, MatchingMetadataObject>(
+                    this.rdfNamesDS);
+            this.sharedPrefsMapping = false;
+        }
+
         NodeList childlist = inNode.getChildNodes();
         for (int i = 0; i < childlist.getLength(); i++) {
             // Get single node.
@@ -3084,7 +3142,7 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
      * e.g. rdfname and rdflist name for an internal metadata type.
      * </p>
      **************************************************************************/
-    class MatchingMetadataObject {
+    static class MatchingMetadataObject {
 
         private String                    rdfName            = null;
         private String                    rdfList            = null;
@@ -3177,4 +3235,25 @@ public class RDFFile implements ugh.dl.Fileformat, RDFFileInterface {
 
     }
 
+    /***************************************************************************
+     * <p>
+     * The parsed RDF section of the preferences, shared by all instances using
+     * the same Prefs.
+     * </p>
+     **************************************************************************/
+    private static final class PrefsMapping {
+
+        private final Map<String, MatchingMetadataObject>    rdfNamesMD;
+        private final Map<String, MatchingMetadataObject>    rdfNamesDS;
+
+        private PrefsMapping(RDFFile parsed) {
+            this.rdfNamesMD = Collections
+                    .unmodifiableMap(new Hashtable<String, MatchingMetadataObject>(
+                            parsed.rdfNamesMD));
+            this.rdfNamesDS = Collections
+                    .unmodifiableMap(new Hashtable<String, MatchingMetadataObject>(
+                            parsed.rdfNamesDS));
+        }
+    }
+
 }
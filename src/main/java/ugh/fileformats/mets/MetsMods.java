@@ -38,14 +38,10 @@ import gov.loc.mets.StructLinkType.SmLink;
 import gov.loc.mets.StructMapType;
 import gov.loc.mods.v3.ModsDocument;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.math.BigInteger;
@@ -54,11 +50,13 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.SortedMap;
@@ -402,6 +400,10 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
     // set to true if you need to call yourself to prevent infinite recursion
     private boolean recursive = false;
 
+    // True, if modsNamesMD and modsNamesDS are shared with other instances,
+    // see loadPrefsMapping().
+    private boolean sharedPrefsMapping = false;
+
     /***************************************************************************
      * CONSTRUCTORS
      **************************************************************************/
@@ -418,15 +420,7 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
         LOGGER.info(this.getClass().getName() + " " + getVersion());
 
         // Read preferences.
-        Node prefsMetsNode = inPrefs.getPreferenceNode(METS_PREFS_NODE_NAME_STRING);
-        if (prefsMetsNode == null) {
-            String message = "Can't read preferences for METS fileformat!";
-            PreferencesException pe = new PreferencesException("Node '" + METS_PREFS_NODE_NAME_STRING + "' in preferences file not found!");
-            LOGGER.error(message, pe);
-            throw pe;
-        }
-
-        readPrefs(prefsMetsNode);
+        loadPrefsMapping(inPrefs);
     }
 
     /**
@@ -450,16 +444,7 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
             LOGGER.info(this.getClass().getName() + " " + getVersion());
 
             // Read preferences.
-            Node prefsMetsNode = inPrefs.getPreferenceNode(METS_PREFS_NODE_NAME_STRING);
-            if (prefsMetsNode == null) {
-                String message = "Can't read preferences for METS fileformat!";
-                PreferencesException pe = new PreferencesException("Node '" + METS_PREFS_NODE_NAME_STRING
-                        + "' in preferences file not found!");
-                LOGGER.error(message, pe);
-                throw pe;
-            }
-
-            readPrefs(prefsMetsNode);
+            loadPrefsMapping(inPrefs);
         } catch (PreferencesException e) {
             String message = "Can't read Preferences for METS while reading the anchor file";
             LOGGER.error(message, e);
@@ -742,6 +727,14 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
      **************************************************************************/
     public void readPrefs(Node inNode) throws PreferencesException {
 
+        // The matching lists may be shared with other instances, see
+        // loadPrefsMapping(), so copy them before adding to them.
+        if (this.sharedPrefsMapping) {
+            this.modsNamesMD = new ArrayList<MatchingMetadataObject>(this.modsNamesMD);
+            this.modsNamesDS = new ArrayList<MatchingDocStructObject>(this.modsNamesDS);
+            this.sharedPrefsMapping = false;
+        }
+
         String nn = inNode.getNodeName();
 
         if (inNode.getNodeType() == ELEMENT_NODE && nn.equals(METS_PREFS_NODE_NAME_STRING)) {
@@ -839,17 +832,46 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
 
     /***************************************************************************
      * <p>
-     * Gets a DocStruct by div ID.
+     * Reads the METS section of the preferences. The section is parsed by {@link #readPrefs(Node)} only once per Prefs instance and FileFormat
+     * class; further instances share the parsed matching lists, which are unmodifiable then, and get copies of the namespaces.
+     * </p>
+     *
+     * @param inPrefs
+     * @throws PreferencesException
+     **************************************************************************/
+    private void loadPrefsMapping(Prefs inPrefs) throws PreferencesException {
+
+        String key = METS_PREFS_NODE_NAME_STRING + "/" + this.getClass().getName();
+        PrefsMapping mapping = (PrefsMapping) inPrefs.getFormatMapping(key);
+
+        if (mapping == null) {
+            Node prefsMetsNode = inPrefs.getPreferenceNode(METS_PREFS_NODE_NAME_STRING);
+            if (prefsMetsNode == null) {
+                String message = "Can't read preferences for METS fileformat!";
+                PreferencesException pe = new PreferencesException("Node '" + METS_PREFS_NODE_NAME_STRING + "' in preferences file not found!");
+                LOGGER.error(message, pe);
+                throw pe;
+            }
+
+            readPrefs(prefsMetsNode);
+            mapping = (PrefsMapping) inPrefs.putFormatMapping(key, new PrefsMapping(this));
+        }
+
+        mapping.applyTo(this);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Collects the DocStructs of a tree by div ID. If an ID is used more than once, the first DocStruct in tree order is kept.
      * </p>
      *
-     * @param id
      * @param inStruct
-     * @return
+     * @param docStructsByDivID
      **************************************************************************/
-    private DocStruct getDocStructByDivID(String id, DocStruct inStruct) {
+    private void collectDocStructsByDivID(DocStruct inStruct, Map<String, DocStruct> docStructsByDivID) {
 
         if (inStruct == null) {
-            return null;
+            return;
         }
 
         // Get the related METS div object.
@@ -857,10 +879,8 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
         if (o != null) {
             // Convert object to div.
             DivType div = (DivType) o;
-            if (div.getID() != null) {
-                if (div.getID().equals(id)) {
-                    return inStruct;
-                }
+            if (div.getID() != null && !docStructsByDivID.containsKey(div.getID())) {
+                docStructsByDivID.put(div.getID(), inStruct);
             }
         }
 
@@ -868,14 +888,9 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
         List<DocStructInterface> children = inStruct.getAllChildren();
         if (children != null) {
             for (DocStructInterface child : children) {
-                DocStruct foundStruct = getDocStructByDivID(id, (DocStruct) child);
-                if (foundStruct != null) {
-                    return foundStruct;
-                }
+                collectDocStructsByDivID((DocStruct) child, docStructsByDivID);
             }
         }
-
-        return null;
     }
 
     /***************************************************************************
@@ -908,6 +923,12 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
             return;
         }
 
+        // Look up the DocStructs by div ID once for all smLinks.
+        Map<String, DocStruct> logicalStructsByDivID = new HashMap<String, DocStruct>();
+        collectDocStructsByDivID(this.digdoc.getLogicalDocStruct(), logicalStructsByDivID);
+        Map<String, DocStruct> physicalStructsByDivID = new HashMap<String, DocStruct>();
+        collectDocStructsByDivID(this.digdoc.getPhysicalDocStruct(), physicalStructsByDivID);
+
         // Iterate over all smLinks.
         for (SmLink singleLink : sl.getSmLinkList()) {
             String linkFrom = singleLink.getFrom();
@@ -937,7 +958,7 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
             if (this.myPreferences.getDocStrctTypeByName(linkFromDivType.getTYPE()).getAnchorClass() == null) {
 
                 // Get the appropriate logical DocStruct 'from' reference.
-                DocStruct foundLogicalStruct = getDocStructByDivID(linkFrom, this.digdoc.getLogicalDocStruct());
+                DocStruct foundLogicalStruct = logicalStructsByDivID.get(linkFrom);
                 if (foundLogicalStruct == null) {
                     String message = "Linked div in logical structMap with ID '" + linkFrom + "' not available";
                     LOGGER.error(message);
@@ -945,7 +966,7 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
                 }
 
                 // Get the appropriate physical DocStruct 'to' reference.
-                DocStruct foundPhysicalStruct = getDocStructByDivID(linkTo, this.digdoc.getPhysicalDocStruct());
+                DocStruct foundPhysicalStruct = physicalStructsByDivID.get(linkTo);
                 if (foundPhysicalStruct == null) {
                     String message = "Linked div in physical structMap with ID '" + linkTo + "' not available";
                     LOGGER.error(message);
@@ -2565,43 +2586,7 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
      * @return the new DigitalDocument instance
      **************************************************************************/
     private DigitalDocument copyDigitalDocument() throws WriteException {
-
-        DigitalDocument newDigDoc = null;
-
-        try {
-
-            // remove techMd list for serialization
-            ArrayList<Md> tempList = new ArrayList<Md>(this.digdoc.getTechMds());
-            this.digdoc.getTechMds().clear();
-
-            // Write the object out to a byte array.
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream out = new ObjectOutputStream(bos);
-            out.writeObject(this.digdoc);
-            out.flush();
-            out.close();
-
-            // Make an input stream from the byte array and read
-            // a copy of the object back in.
-            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
-            newDigDoc = (DigitalDocument) in.readObject();
-
-            // reattach techMd list
-            for (Md md : tempList) {
-                newDigDoc.addTechMd(md);
-            }
-
-        } catch (IOException e) {
-            String message = "Couldn't obtain OutputStream!";
-            LOGGER.error(message, e);
-            throw new WriteException(message, e);
-        } catch (ClassNotFoundException e) {
-            String message = "Could not find some class!";
-            LOGGER.error(message, e);
-            throw new WriteException(message, e);
-        }
-
-        return newDigDoc;
+        return this.digdoc.copyDigitalDocument();
     }
 
     /***************************************************************************
@@ -4977,4 +4962,55 @@ public class MetsMods implements ugh.dl.Fileformat, MetsModsInterface {
     public void setWriteLocal(boolean writeLocal) {
         this.writeLocalFilegroup = writeLocal;
     }
+
+    /***************************************************************************
+     * <p>
+     * The parsed METS section of the preferences, shared by all instances of a FileFormat class using the same Prefs.
+     * </p>
+     **************************************************************************/
+    private static final class PrefsMapping {
+
+        private final List<MatchingMetadataObject> modsNamesMD;
+        private final List<MatchingDocStructObject> modsNamesDS;
+        private final HashMap<String, Namespace> namespaces;
+        private final String anchorIdentifierMetadataType;
+        private final String xPathAnchorReference;
+        private final String valueRegExpAnchorReference;
+
+        private PrefsMapping(MetsMods parsed) {
+            this.modsNamesMD = Collections.unmodifiableList(new ArrayList<MatchingMetadataObject>(parsed.modsNamesMD));
+            this.modsNamesDS = Collections.unmodifiableList(new ArrayList<MatchingDocStructObject>(parsed.modsNamesDS));
+            this.namespaces = copyNamespaces(parsed.namespaces);
+            this.anchorIdentifierMetadataType = parsed.anchorIdentifierMetadataType;
+            this.xPathAnchorReference = parsed.xPathAnchorReference;
+            this.valueRegExpAnchorReference = parsed.valueRegExpAnchorReference;
+        }
+
+        private void applyTo(MetsMods target) {
+            target.modsNamesMD = this.modsNamesMD;
+            target.modsNamesDS = this.modsNamesDS;
+            target.sharedPrefsMapping = true;
+            // Namespaces are mutable, every instance gets its own.
+            target.namespaces = copyNamespaces(this.namespaces);
+            target.anchorIdentifierMetadataType = this.anchorIdentifierMetadataType;
+            target.xPathAnchorReference = this.xPathAnchorReference;
+            target.valueRegExpAnchorReference = this.valueRegExpAnchorReference;
+        }
+
+        private static HashMap<String, Namespace> copyNamespaces(HashMap<String, Namespace> namespaces) {
+
+            HashMap<String, Namespace> result = new HashMap<String, Namespace>();
+            for (Entry<String, Namespace> e : namespaces.entrySet()) {
+                Namespace copy = new Namespace();
+                copy.setPrefix(e.getValue().getPrefix());
+                copy.setUri(e.getValue().getUri());
+                copy.setSchemalocation(e.getValue().getSchemalocation());
+                copy.setDefaultNS(e.getValue().getDefaultNS());
+                copy.setContainerElementName(e.getValue().getContainerElementName());
+                result.put(e.getKey(), copy);
+            }
+
+            return result;
+        }
+    }
 }
@@ -24,6 +24,7 @@ package ugh.fileformats.opac;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -143,12 +144,16 @@ public class PicaPlus implements ugh.dl.Fileformat, PicaPlusInterface {
     private final ugh.dl.Prefs                myPreferences;
 
     // Contains all PicaPlusGroups.
-    private final Set<MatchingMetadataGroup>    allGroups                        = new HashSet<MatchingMetadataGroup>();
+    private Set<MatchingMetadataGroup>    allGroups                        = new HashSet<MatchingMetadataGroup>();
 
     // Contains all rules for metadata matching.
-    private final Set<MatchingMetadataObject>    mmoList                            = new HashSet<MatchingMetadataObject>();
+    private Set<MatchingMetadataObject>    mmoList                            = new HashSet<MatchingMetadataObject>();
 
-    private final Map<String, String> metadataGroups = new HashMap<String,String>();
+    private Map<String, String> metadataGroups = new HashMap<String,String>();
+
+    // True, if the matching sets above are shared with other instances, see
+    // loadPrefsMapping().
+    private boolean                        sharedPrefsMapping                = false;
 
     /***************************************************************************
      * @param inPrefs
@@ -159,14 +164,42 @@ public class PicaPlus implements ugh.dl.Fileformat, PicaPlusInterface {
         this.myPreferences = inPrefs;
 
         // Read preferences.
-        Node picaplusNode = inPrefs
-                .getPreferenceNode(PICAPLUS_PREFS_NODE_NAME_STRING);
-        if (picaplusNode == null) {
-            logger
-                    .error("Can't read preferences for picaplus fileformat! Node 'PicaPlus' in XML-file not found!");
-        } else {
+        loadPrefsMapping(inPrefs);
+    }
+
+    /***************************************************************************
+     * <p>
+     * Reads the PicaPlus section of the preferences. The section is parsed by
+     * readPrefs() only once per Prefs instance; further instances share the
+     * parsed, unmodifiable matching sets.
+     * </p>
+     *
+     * @param inPrefs
+     **************************************************************************/
+    private void loadPrefsMapping(ugh.dl.Prefs inPrefs) {
+
+        String key = PICAPLUS_PREFS_NODE_NAME_STRING + "/"
+                + this.getClass().getName();
+        PrefsMapping mapping = (PrefsMapping) inPrefs.getFormatMapping(key);
+
+        if (mapping == null) {
+            Node picaplusNode = inPrefs
+                    .getPreferenceNode(PICAPLUS_PREFS_NODE_NAME_STRING);
+            if (picaplusNode == null) {
+                logger
+                        .error("Can't read preferences for picaplus fileformat! Node 'PicaPlus' in XML-file not found!");
+                return;
+            }
+
             this.readPrefs(picaplusNode);
+            mapping = (PrefsMapping) inPrefs.putFormatMapping(key,
+                    new PrefsMapping(this));
         }
+
+        this.allGroups = mapping.allGroups;
+        this.mmoList = mapping.mmoList;
+        this.metadataGroups = mapping.metadataGroups;
+        this.sharedPrefsMapping = true;
     }
 
     /***************************************************************************
@@ -181,6 +214,16 @@ public class PicaPlus implements ugh.dl.Fileformat, PicaPlusInterface {
      **************************************************************************/
     public void readPrefs(Node picaplusnode) {
 
+        // The matching sets may be shared with other instances, see
+        // loadPrefsMapping(), so copy them before adding to them.
+        if (this.sharedPrefsMapping) {
+            this.allGroups = new HashSet<MatchingMetadataGroup>(this.allGroups);
+            this.mmoList = new HashSet<MatchingMetadataObject>(this.mmoList);
+            this.metadataGroups = new HashMap<String, String>(
+                    this.metadataGroups);
+            this.sharedPrefsMapping = false;
+        }
+
         // Children should be "metadata" or "docstruct" nodes.
         NodeList children = picaplusnode.getChildNodes();
 
@@ -1323,7 +1366,7 @@ public class PicaPlus implements ugh.dl.Fileformat, PicaPlusInterface {
     /***************************************************************************
      *
      **************************************************************************/
-    private class MatchingMetadataGroup {
+    private static class MatchingMetadataGroup {
 
         private String            groupname;
         private String            metadatatypename;
@@ -1417,7 +1460,7 @@ public class PicaPlus implements ugh.dl.Fileformat, PicaPlusInterface {
      * number and subnumber) to a MetadataType object.
      * </p>
      **************************************************************************/
-    private class MatchingMetadataObject {
+    private static class MatchingMetadataObject {
 
         private String    picaplusField        = null;
         private String    picaplusSubfield    = null;
@@ -1633,4 +1676,29 @@ public class PicaPlus implements ugh.dl.Fileformat, PicaPlusInterface {
 
     }
 
+    /***************************************************************************
+     * <p>
+     * The parsed PicaPlus section of the preferences, shared by all instances
+     * using the same Prefs.
+     * </p>
+     **************************************************************************/
+    private static final class PrefsMapping {
+
+        private final Set<MatchingMetadataGroup>    allGroups;
+        private final Set<MatchingMetadataObject>    mmoList;
+        private final Map<String, String>            metadataGroups;
+
+        private PrefsMapping(PicaPlus parsed) {
+            this.allGroups = Collections
+                    .unmodifiableSet(new HashSet<MatchingMetadataGroup>(
+                            parsed.allGroups));
+            this.mmoList = Collections
+                    .unmodifiableSet(new HashSet<MatchingMetadataObject>(
+                            parsed.mmoList));
+            this.metadataGroups = Collections
+                    .unmodifiableMap(new HashMap<String, String>(
+                            parsed.metadataGroups));
+        }
+    }
+
 }